@@ -0,0 +1,56 @@
+package com.photooptimizer.benchmark;
+
+import com.photooptimizer.imaging.FilterEngine;
+import com.photooptimizer.imaging.ImageEncoding;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+/**
+ * Generated benchmark fixtures, so the benchmarks need no sample photos or network
+ * Images are 4:3 and mix smooth gradients, periodic detail and sensor-like
+ * noise, which gives the codecs a photo-like amount of entropy.
+ */
+public final class BenchmarkImages {
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * Deterministic TYPE_INT_RGB photo of roughly the given size
+     */
+    public static BufferedImage photo(int megapixels) {
+        int height = (int) Math.round(Math.sqrt(megapixels * 1_000_000 * 3.0 / 4.0));
+        int width = height * 4 / 3;
+        BufferedImage image = FilterEngine.newRgbImage(width, height);
+        int[] pixels = FilterEngine.pixelsOf(image);
+        FilterEngine.forEachBand(width, height, (from, to) -> {
+            SplittableRandom random = new SplittableRandom(from);
+            for (int y = from; y < to; y++) {
+                for (int x = 0; x < width; x++) {
+                    double u = (double) x / width;
+                    double v = (double) y / height;
+                    double detail = 24 * Math.sin(x * 0.05) * Math.cos(y * 0.03);
+                    int noise = random.nextInt(13) - 6;
+                    int r = clamp(255 * u + detail + noise);
+                    int g = clamp(200 * v + 40 * u + detail + noise);
+                    int b = clamp(255 * (1 - u) * (1 - v) - detail + noise);
+                    pixels[y * width + x] = (r << 16) | (g << 8) | b;
+                }
+            }
+        });
+        return image;
+    }
+
+    /**
+     * Photo encoded as png or jpeg (quality 0.85)
+     */
+    public static byte[] encoded(BufferedImage image, String format) throws IOException {
+        return ImageEncoding.encode(image, format, 0.85f);
+    }
+
+    private static int clamp(double value) {
+        return (int) Math.max(0, Math.min(255, value));
+    }
+}
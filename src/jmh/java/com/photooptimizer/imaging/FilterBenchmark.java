@@ -0,0 +1,62 @@
+package com.photooptimizer.imaging;
+
+import com.photooptimizer.benchmark.BenchmarkImages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every filter EditorService can apply, plus a fused chain, rendered at full resolution
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "--add-modules", "jdk.incubator.vector"})
+public class FilterBenchmark {
+
+    @Param({"1", "12", "48"})
+    public int megapixels;
+
+    @Param({"brightness:1.2", "contrast:0.8", "grayscale", "sepia", "levels:10,240,1.1",
+            "blur:5", "gaussian-blur:3"})
+    public String filter;
+
+    private BufferedImage image;
+    private FilterPipeline single;
+    private FilterPipeline chain;
+
+    @Setup
+    public void setUp() {
+        image = BenchmarkImages.photo(megapixels);
+        String[] parts = filter.split(":", 2);
+        single = FilterPipeline.compile(List.of(new FilterStep(parts[0], parts.length > 1 ? parts[1] : "")));
+        chain = FilterPipeline.compile(List.of(
+            new FilterStep("brightness", "1.1"),
+            new FilterStep("contrast", "1.2"),
+            new FilterStep(parts[0], parts.length > 1 ? parts[1] : "")));
+    }
+
+    @Benchmark
+    public BufferedImage filter() {
+        return single.apply(image);
+    }
+
+    @Benchmark
+    public BufferedImage chainEndingInFilter() {
+        return chain.apply(image);
+    }
+}
@@ -0,0 +1,57 @@
+package com.photooptimizer.imaging;
+
+import com.photooptimizer.benchmark.BenchmarkImages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PNG and JPEG encode/decode through ImageIO
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+public class ImageCodecBenchmark {
+
+    @Param({"1", "12", "48"})
+    public int megapixels;
+
+    @Param({"png", "jpeg"})
+    public String format;
+
+    private BufferedImage image;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        image = BenchmarkImages.photo(megapixels);
+        encoded = BenchmarkImages.encoded(image, format);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return ImageEncoding.encode(image, format, 0.85f);
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(encoded));
+    }
+}
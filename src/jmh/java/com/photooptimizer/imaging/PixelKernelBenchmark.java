@@ -0,0 +1,62 @@
+package com.photooptimizer.imaging;
+
+import com.photooptimizer.benchmark.BenchmarkImages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scalar vs Vector API pixel kernels, single-threaded over L1-sized chunks
+ * as FilterEngine runs them
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "--add-modules", "jdk.incubator.vector"})
+public class PixelKernelBenchmark {
+
+    @Param({"scalar", "vector"})
+    public String kernels;
+
+    private PixelKernels implementation;
+    private int[] src;
+    private int[] dst;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        implementation = kernels.equals("vector")
+            ? (PixelKernels) Class.forName("com.photooptimizer.imaging.VectorPixelKernels")
+                .getDeclaredConstructor().newInstance()
+            : new ScalarPixelKernels();
+        src = FilterEngine.readPixels(BenchmarkImages.photo(12));
+        dst = new int[src.length];
+    }
+
+    @Benchmark
+    public int[] grayscale() {
+        for (int start = 0; start < src.length; start += FilterEngine.CHUNK_PIXELS) {
+            implementation.grayscale(src, dst, start, Math.min(src.length, start + FilterEngine.CHUNK_PIXELS));
+        }
+        return dst;
+    }
+
+    @Benchmark
+    public int[] sepia() {
+        for (int start = 0; start < src.length; start += FilterEngine.CHUNK_PIXELS) {
+            implementation.sepia(src, dst, start, Math.min(src.length, start + FilterEngine.CHUNK_PIXELS));
+        }
+        return dst;
+    }
+}
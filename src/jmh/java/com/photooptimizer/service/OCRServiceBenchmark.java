@@ -0,0 +1,60 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.benchmark.BenchmarkImages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Image work around OCR: preprocessing, background sampling and text rendering
+ * (Tesseract itself is native and not measured here)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g", "-Djava.awt.headless=true", "--add-modules", "jdk.incubator.vector"})
+public class OCRServiceBenchmark {
+
+    @Param({"1", "12", "48"})
+    public int megapixels;
+
+    private OCRService ocrService;
+    private BufferedImage image;
+    private OCRService.TextRegion region;
+
+    @Setup
+    public void setUp() {
+        ocrService = new OCRService();
+        image = BenchmarkImages.photo(megapixels);
+        region = new OCRService.TextRegion("sample", image.getWidth() / 3, image.getHeight() / 2, 400, 60, 90f);
+    }
+
+    @Benchmark
+    public BufferedImage preprocessImage() {
+        return ocrService.preprocessImage(image);
+    }
+
+    @Benchmark
+    public Color sampleBackgroundColor() {
+        return ocrService.sampleBackgroundColor(image, region);
+    }
+
+    @Benchmark
+    public BufferedImage addTextToImage() {
+        return ocrService.addTextToImage(image, "Benchmark caption", region.x, region.y, "Arial", 48, Color.WHITE, "bold");
+    }
+}
@@ -0,0 +1,134 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.benchmark.BenchmarkImages;
+import com.photooptimizer.model.Photo;
+import com.photooptimizer.repository.PhotoBlobRepository;
+import com.photooptimizer.repository.PhotoRepository;
+import com.photooptimizer.storage.BlobStore;
+import com.photooptimizer.storage.FsyncPolicy;
+import com.photooptimizer.storage.LocalBlobStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PhotoService.uploadPhoto end to end on the file system (header probe and
+ * streaming hash included), with in-memory repositories in place of JPA so that only the service's own work is measured
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class PhotoServiceBenchmark {
+
+    @Param({"1", "12", "48"})
+    public int megapixels;
+
+    private PhotoService photoService;
+    private BlobStore blobStore;
+    private MockMultipartFile upload;
+    private Photo lastUpload;
+
+    @Setup
+    public void setUp() throws IOException {
+        AtomicLong ids = new AtomicLong();
+        PhotoRepository repository = (PhotoRepository) Proxy.newProxyInstance(
+            PhotoRepository.class.getClassLoader(), new Class<?>[] {PhotoRepository.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "save":
+                        Photo photo = (Photo) args[0];
+                        photo.setId(ids.incrementAndGet());
+                        return photo;
+                    case "toString":
+                        return "InMemoryPhotoRepository";
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        // Every upload is new content: the file is deleted after each invocation
+        PhotoBlobRepository blobRepository = (PhotoBlobRepository) Proxy.newProxyInstance(
+            PhotoBlobRepository.class.getClassLoader(), new Class<?>[] {PhotoBlobRepository.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "findById":
+                        return Optional.empty();
+                    case "save":
+                        return args[0];
+                    case "toString":
+                        return "InMemoryPhotoBlobRepository";
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        blobStore = new LocalBlobStore(Files.createTempDirectory("benchmark-store"), FsyncPolicy.FILE);
+        photoService = new PhotoService();
+        ReflectionTestUtils.setField(photoService, "blobStore", blobStore);
+        ReflectionTestUtils.setField(photoService, "photoRepository", repository);
+        ReflectionTestUtils.setField(photoService, "blobRepository", blobRepository);
+        ReflectionTestUtils.setField(photoService, "supportedFormats", List.of("jpg", "jpeg", "png"));
+        // No database behind the in-memory repositories, so run the transactional sections directly
+        ReflectionTestUtils.setField(photoService, "transactionTemplate", new TransactionTemplate() {
+            @Override
+            public <T> T execute(TransactionCallback<T> action) {
+                return action.doInTransaction(null);
+            }
+        });
+        // Renditions run in the background; keep them out of the measurement
+        ReflectionTestUtils.setField(photoService, "derivativeService", new DerivativeService() {
+            @Override
+            public void submit(Photo photo) {
+            }
+        });
+
+        byte[] jpeg = BenchmarkImages.encoded(BenchmarkImages.photo(megapixels), "jpeg");
+        upload = new MockMultipartFile("file", "benchmark.jpg", "image/jpeg", jpeg);
+    }
+
+    @Benchmark
+    public Photo uploadPhoto() throws IOException {
+        lastUpload = photoService.uploadPhoto(upload);
+        return lastUpload;
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteUpload() throws IOException {
+        if (lastUpload != null) {
+            blobStore.delete(blobStore.keyOf(Paths.get(lastUpload.getFilePath())));
+            lastUpload = null;
+        }
+    }
+}
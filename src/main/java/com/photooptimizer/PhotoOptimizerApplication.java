@@ -13,7 +13,7 @@ import org.springframework.scheduling.annotation.EnableScheduling;
  * Features:
  * - Photo upload and optimization
  * - Version management with history tracking
- * - Multiple format support (JPEG, PNG, WebP, etc.)
+ * - Multiple format support (JPEG, PNG, GIF, BMP)
  * - Thumbnail generation
  * - Google Drive integration for cloud storage
  * - Simple HTML frontend interface
@@ -0,0 +1,342 @@
+package com.photooptimizer.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache of derived (rendered) images
+ * Entries live on disk under a byte budget with LRU eviction. Every reader
+ * works from the file (decoders, file transfers), so nothing is kept on the
+ * heap; hot originals are held in memory by HotPhotoCache instead.
+ * Files are handed out as leases: an entry evicted while leased leaves the
+ * index at once, but its file stays until the last lease is closed.
+ */
+public class DerivedImageCache {
+
+    private final String name;
+    private final Path directory;
+    private final String extension;
+    private final long maxDiskBytes;
+    /** Names of files this cache wrote, without extension; null accepts any */
+    private final Pattern keyPattern;
+
+    /** Access-ordered: iteration starts at the least recently used entry */
+    private final LinkedHashMap<String, Long> diskEntries = new LinkedHashMap<>(64, 0.75f, true);
+    private long diskBytes;
+    /** Open leases per key */
+    private final Map<String, Integer> pins = new HashMap<>();
+    /** Leased entries that were evicted; their files go when the last lease closes */
+    private final Set<String> evictedWhilePinned = new HashSet<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter evictionCounter;
+
+    public DerivedImageCache(String name, Path directory, String extension,
+                             long maxDiskBytes, MeterRegistry meterRegistry) throws IOException {
+        this(name, directory, extension, null, maxDiskBytes, meterRegistry);
+    }
+
+    /**
+     * @param keyPattern format of this cache's keys; files in the directory
+     *        that do not match are left alone, never indexed or evicted
+     */
+    public DerivedImageCache(String name, Path directory, String extension, Pattern keyPattern,
+                             long maxDiskBytes, MeterRegistry meterRegistry) throws IOException {
+        this.name = name;
+        this.directory = directory;
+        // An empty extension means keys carry their own, for caches holding mixed formats
+        this.extension = extension.isEmpty() || extension.startsWith(".") ? extension : "." + extension;
+        this.maxDiskBytes = maxDiskBytes;
+        this.keyPattern = keyPattern;
+
+        this.hitCounter = Counter.builder("photo.cache.requests").tag("cache", name)
+            .tag("result", "hit").tag("tier", "disk").register(meterRegistry);
+        this.missCounter = Counter.builder("photo.cache.requests").tag("cache", name)
+            .tag("result", "miss").tag("tier", "none").register(meterRegistry);
+        this.evictionCounter = Counter.builder("photo.cache.evictions").tag("cache", name).register(meterRegistry);
+        Gauge.builder("photo.cache.disk.bytes", this, DerivedImageCache::getDiskBytes)
+            .tag("cache", name).baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("photo.cache.entries", this, DerivedImageCache::getEntryCount)
+            .tag("cache", name).register(meterRegistry);
+
+        Files.createDirectories(directory);
+        loadExistingEntries();
+    }
+
+    /**
+     * Lease on a cached entry's file, or null on a miss; the file exists
+     * until the lease is closed
+     */
+    public Lease acquire(String key) {
+        synchronized (this) {
+            if (diskEntries.get(key) != null) {
+                recordHit();
+                return pin(key);
+            }
+        }
+        recordMiss();
+        return null;
+    }
+
+    /**
+     * Writes an entry's content
+     */
+    @FunctionalInterface
+    public interface ContentWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Store encoded bytes under a key (write to a temp file, then rename into place)
+     * @return a lease on the stored file, taken before anything can evict it
+     */
+    public Lease put(String key, byte[] bytes) throws IOException {
+        Path temp = writeTemp(key, out -> out.write(bytes));
+        try {
+            synchronized (this) {
+                moveIntoPlace(temp, key);
+                addDiskEntry(key, bytes.length);
+                Lease lease = pin(key);
+                evictDisk();
+                return lease;
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Store an entry streamed straight to disk, for results too large to hold
+     * in memory
+     * @return a lease on the stored file, taken before anything can evict it
+     */
+    public Lease put(String key, ContentWriter writer) throws IOException {
+        Path temp = writeTemp(key, writer);
+        try {
+            long size = Files.size(temp);
+            synchronized (this) {
+                moveIntoPlace(temp, key);
+                addDiskEntry(key, size);
+                Lease lease = pin(key);
+                evictDisk();
+                return lease;
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Path writeTemp(String key, ContentWriter writer) throws IOException {
+        Path temp = Files.createTempFile(directory, key, ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024)) {
+            writer.writeTo(out);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    /**
+     * Rename under the lock, so a lease closing meanwhile cannot delete the new file
+     */
+    private void moveIntoPlace(Path temp, String key) throws IOException {
+        Path target = pathFor(key);
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void addDiskEntry(String key, long size) {
+        Long previous = diskEntries.put(key, size);
+        diskBytes += size - (previous != null ? previous : 0);
+        // Written again: the file is current, not one left for a lease
+        evictedWhilePinned.remove(key);
+    }
+
+    private Lease pin(String key) {
+        pins.merge(key, 1, Integer::sum);
+        return new Lease(this, key, pathFor(key));
+    }
+
+    private synchronized void unpin(String key) {
+        if (pins.merge(key, -1, Integer::sum) > 0) {
+            return;
+        }
+        pins.remove(key);
+        if (evictedWhilePinned.remove(key)) {
+            deleteQuietly(pathFor(key));
+        }
+    }
+
+    /**
+     * Remove an entry's file now, or when its last lease closes
+     */
+    private void deleteFile(String key) {
+        if (pins.containsKey(key)) {
+            evictedWhilePinned.add(key);
+        } else {
+            deleteQuietly(pathFor(key));
+        }
+    }
+
+    public String getName() { return name; }
+
+    public synchronized long getDiskBytes() { return diskBytes; }
+
+    public synchronized int getEntryCount() { return diskEntries.size(); }
+
+    /**
+     * Snapshot of hit/miss counters and disk usage
+     */
+    public Map<String, Object> getStats() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("cache", name);
+        stats.put("hits", hitCount);
+        stats.put("misses", misses.get());
+        stats.put("hitRatio", total == 0 ? 0.0 : (double) hitCount / total);
+        stats.put("evictions", evictions.get());
+        synchronized (this) {
+            stats.put("entries", diskEntries.size());
+            stats.put("diskBytes", diskBytes);
+            stats.put("maxDiskBytes", maxDiskBytes);
+        }
+        return stats;
+    }
+
+    private Path pathFor(String key) {
+        return directory.resolve(key + extension);
+    }
+
+    private void evictDisk() {
+        Iterator<Map.Entry<String, Long>> it = diskEntries.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            String key = eldest.getKey();
+            it.remove();
+            diskBytes -= eldest.getValue();
+            deleteFile(key);
+            evictions.incrementAndGet();
+            evictionCounter.increment();
+        }
+    }
+
+    /**
+     * Rebuild the index from files left by a previous run, oldest first
+     */
+    private void loadExistingEntries() throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.map(path -> path.getFileName().toString())
+                .filter(fileName -> fileName.endsWith(extension) && !fileName.endsWith(".tmp"))
+                .filter(fileName -> keyPattern == null
+                    || keyPattern.matcher(fileName.substring(0, fileName.length() - extension.length())).matches())
+                .map(directory::resolve)
+                .toList();
+        }
+        List<Map.Entry<Path, BasicFileAttributes>> existing = new ArrayList<>();
+        for (Path file : files) {
+            existing.add(Map.entry(file, Files.readAttributes(file, BasicFileAttributes.class)));
+        }
+        existing.sort((a, b) -> a.getValue().lastModifiedTime().compareTo(b.getValue().lastModifiedTime()));
+
+        synchronized (this) {
+            for (Map.Entry<Path, BasicFileAttributes> entry : existing) {
+                String fileName = entry.getKey().getFileName().toString();
+                String key = fileName.substring(0, fileName.length() - extension.length());
+                diskEntries.put(key, entry.getValue().size());
+                diskBytes += entry.getValue().size();
+            }
+            evictDisk();
+        }
+        System.out.println("Derived image cache '" + name + "' loaded " + diskEntries.size()
+            + " entries (" + diskBytes + " bytes) from " + directory);
+    }
+
+    private void recordHit() {
+        hits.incrementAndGet();
+        hitCounter.increment();
+    }
+
+    private void recordMiss() {
+        misses.incrementAndGet();
+        missCounter.increment();
+    }
+
+    /**
+     * A cached file held for reading, or a file outside any cache (of)
+     */
+    public static final class Lease implements AutoCloseable {
+        private final DerivedImageCache cache;
+        private final String key;
+        private final Path path;
+        private boolean closed;
+
+        private Lease(DerivedImageCache cache, String key, Path path) {
+            this.cache = cache;
+            this.key = key;
+            this.path = path;
+        }
+
+        /**
+         * Lease on a file no cache evicts, e.g. a stored original
+         */
+        public static Lease of(Path path) {
+            return new Lease(null, null, path);
+        }
+
+        public Path getPath() { return path; }
+
+        /**
+         * Whether the file may go once this lease is closed; it must then not
+         * be read after that (e.g. by sendfile once the handler returns)
+         */
+        public boolean isPinned() { return cache != null; }
+
+        @Override
+        public synchronized void close() {
+            if (cache != null && !closed) {
+                closed = true;
+                cache.unpin(key);
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Could not delete cache file " + path + ": " + e.getMessage());
+        }
+    }
+}
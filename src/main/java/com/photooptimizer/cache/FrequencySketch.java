@@ -0,0 +1,73 @@
+package com.photooptimizer.cache;
+
+/**
+ * Approximate access counts for TinyLFU admission
+ * A count-min sketch of four rows of small saturating counters. Once the
+ * number of recorded accesses reaches ten times the width, every counter is
+ * halved, so the counts track recent popularity rather than all-time totals.
+ * Not thread-safe; callers synchronize.
+ */
+final class FrequencySketch {
+
+    private static final int MAX_COUNT = 15;
+    private static final long[] SEEDS = {
+        0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L
+    };
+
+    private final byte[][] rows;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int expectedEntries) {
+        int width = Integer.highestOneBit(Math.min(Math.max(expectedEntries, 64), 1 << 24) * 2 - 1);
+        this.rows = new byte[SEEDS.length][width];
+        this.mask = width - 1;
+        this.sampleSize = 10 * width;
+    }
+
+    /**
+     * Record one access
+     */
+    void increment(long key) {
+        boolean added = false;
+        for (int i = 0; i < rows.length; i++) {
+            int index = indexOf(key, i);
+            if (rows[i][index] < MAX_COUNT) {
+                rows[i][index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            age();
+        }
+    }
+
+    /**
+     * Estimated recent accesses, never below the true count (up to saturation)
+     */
+    int frequency(long key) {
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < rows.length; i++) {
+            frequency = Math.min(frequency, rows[i][indexOf(key, i)]);
+        }
+        return frequency;
+    }
+
+    private void age() {
+        for (byte[] row : rows) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = (byte) (row[i] >>> 1);
+            }
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(long key, int row) {
+        long h = (key + SEEDS[row]) * 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 31;
+        h *= 0x94D049BB133111EBL;
+        h ^= h >>> 29;
+        return (int) h & mask;
+    }
+}
@@ -0,0 +1,299 @@
+package com.photooptimizer.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encoded bytes of frequently read originals, held off-heap
+ * Each entry is a direct ByteBuffer, so a large budget adds nothing to GC
+ * work; the budget counts against -XX:MaxDirectMemorySize. Admission is
+ * TinyLFU style: every lookup is recorded in a frequency sketch, and once the
+ * budget is full a new photo only gets in if it has been asked for more often
+ * than the least recently used entries it would displace. A burst of
+ * one-off reads (a crawler, an export) therefore cannot flush the hot set.
+ * Entries are keyed by photo id; an id's original never changes, so they
+ * only need invalidating when the photo is deleted or its record rewritten.
+ */
+public class HotPhotoCache {
+
+    private final String name;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+
+    /** Access-ordered: iteration starts at the least recently used entry */
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final FrequencySketch sketch;
+    /** Includes entries still being read from disk */
+    private long residentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter evictionCounter;
+    private final Counter rejectionCounter;
+
+    public HotPhotoCache(String name, long maxBytes, long maxEntryBytes, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.maxBytes = maxBytes;
+        // A direct buffer holds at most 2GB
+        this.maxEntryBytes = Math.min(Math.min(maxEntryBytes, maxBytes), Integer.MAX_VALUE);
+        // Sized for entries of about 64KB; bigger photos just leave the sketch sparser
+        this.sketch = new FrequencySketch((int) Math.min(maxBytes / (64 * 1024), 1 << 24));
+
+        this.hitCounter = Counter.builder("photo.cache.requests").tag("cache", name)
+            .tag("result", "hit").tag("tier", "memory").register(meterRegistry);
+        this.missCounter = Counter.builder("photo.cache.requests").tag("cache", name)
+            .tag("result", "miss").tag("tier", "none").register(meterRegistry);
+        this.evictionCounter = Counter.builder("photo.cache.evictions").tag("cache", name).register(meterRegistry);
+        this.rejectionCounter = Counter.builder("photo.cache.rejections").tag("cache", name).register(meterRegistry);
+        Gauge.builder("photo.cache.memory.bytes", this, HotPhotoCache::getResidentBytes)
+            .tag("cache", name).baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("photo.cache.entries", this, HotPhotoCache::getEntryCount)
+            .tag("cache", name).register(meterRegistry);
+        Gauge.builder("photo.cache.hit.ratio", this, HotPhotoCache::getHitRatio)
+            .tag("cache", name).register(meterRegistry);
+    }
+
+    /**
+     * Cached original of a photo, or null on a miss; every call counts
+     * towards the photo's admission frequency
+     */
+    public Entry get(Long id) {
+        Entry entry;
+        synchronized (this) {
+            sketch.increment(id);
+            entry = entries.get(id);
+        }
+        if (entry != null && entry.content != null) {
+            hits.incrementAndGet();
+            hitCounter.increment();
+            return entry;
+        }
+        misses.incrementAndGet();
+        missCounter.increment();
+        return null;
+    }
+
+    /**
+     * Read a photo's file into the cache if admission allows it
+     * @param etag entity tag to serve the bytes under, without quotes; may be null
+     * @return the new (or already cached) entry, or null if the file is too
+     *         big or not popular enough to displace what is cached
+     */
+    public Entry load(Long id, Path file, String etag, String format) throws IOException {
+        long size = Files.size(file);
+        if (size == 0 || size > maxEntryBytes) {
+            return null;
+        }
+        // Holds the budget while the file is read outside the lock
+        Entry reservation = new Entry(null, size, 0, etag, format);
+        synchronized (this) {
+            Entry existing = entries.get(id);
+            if (existing != null) {
+                return existing.content != null ? existing : null;
+            }
+            if (!admit(id, size)) {
+                rejections.incrementAndGet();
+                rejectionCounter.increment();
+                return null;
+            }
+            entries.put(id, reservation);
+            residentBytes += size;
+        }
+
+        Entry entry;
+        try {
+            entry = read(file, size, etag, format);
+        } catch (IOException | OutOfMemoryError e) {
+            synchronized (this) {
+                if (entries.remove(id, reservation)) {
+                    residentBytes -= size;
+                }
+            }
+            if (e instanceof IOException io) {
+                throw io;
+            }
+            // Direct memory limit below the configured budget
+            System.err.println("Hot photo cache '" + name + "' could not allocate " + size + " bytes: " + e.getMessage());
+            return null;
+        }
+        synchronized (this) {
+            // Invalidated while reading: serve these bytes once, but do not keep them
+            entries.replace(id, reservation, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Drop a photo's entry, e.g. when it is deleted or its record changes
+     */
+    public void invalidate(Long id) {
+        synchronized (this) {
+            Entry removed = entries.remove(id);
+            if (removed != null) {
+                residentBytes -= removed.length;
+            }
+        }
+    }
+
+    /**
+     * Make room for a candidate, evicting least recently used entries only if
+     * the candidate is more frequent than each of them
+     */
+    private boolean admit(Long id, long size) {
+        if (residentBytes + size <= maxBytes) {
+            return true;
+        }
+        int candidateFrequency = sketch.frequency(id);
+        List<Long> victims = new ArrayList<>();
+        long freed = 0;
+        for (Map.Entry<Long, Entry> eldest : entries.entrySet()) {
+            if (residentBytes - freed + size <= maxBytes) {
+                break;
+            }
+            if (eldest.getValue().content == null) {
+                // Still loading
+                continue;
+            }
+            if (sketch.frequency(eldest.getKey()) >= candidateFrequency) {
+                return false;
+            }
+            victims.add(eldest.getKey());
+            freed += eldest.getValue().length;
+        }
+        if (residentBytes - freed + size > maxBytes) {
+            return false;
+        }
+        for (Long victim : victims) {
+            residentBytes -= entries.remove(victim).length;
+            evictions.incrementAndGet();
+            evictionCounter.increment();
+        }
+        return true;
+    }
+
+    private static Entry read(Path file, long size, String etag, String format) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+        long lastModified;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            lastModified = Files.getLastModifiedTime(file).toMillis();
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading
+            }
+        }
+        if (buffer.hasRemaining()) {
+            throw new IOException("File changed while caching: " + file);
+        }
+        buffer.flip();
+        return new Entry(buffer.asReadOnlyBuffer(), size, lastModified, etag, format);
+    }
+
+    public String getName() { return name; }
+
+    public synchronized long getResidentBytes() { return residentBytes; }
+
+    public synchronized int getEntryCount() { return entries.size(); }
+
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    /**
+     * Snapshot of hit/miss counters and resident sizes
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("cache", name);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("hitRatio", getHitRatio());
+        stats.put("evictions", evictions.get());
+        stats.put("rejections", rejections.get());
+        synchronized (this) {
+            stats.put("entries", entries.size());
+            stats.put("residentBytes", residentBytes);
+            stats.put("maxBytes", maxBytes);
+        }
+        return stats;
+    }
+
+    /**
+     * A cached original and what is needed to serve it without the database
+     */
+    public static final class Entry {
+        private final ByteBuffer content;
+        private final long length;
+        private final long lastModified;
+        private final String etag;
+        private final String format;
+
+        private Entry(ByteBuffer content, long length, long lastModified, String etag, String format) {
+            this.content = content;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.etag = etag;
+            this.format = format;
+        }
+
+        /**
+         * Read-only view of the bytes with its own position, safe to hand to one reader
+         */
+        public ByteBuffer getContent() { return content.duplicate(); }
+
+        public InputStream openStream() {
+            ByteBuffer buffer = getContent();
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    if (!buffer.hasRemaining()) {
+                        return -1;
+                    }
+                    int n = Math.min(len, buffer.remaining());
+                    buffer.get(b, off, n);
+                    return n;
+                }
+
+                @Override
+                public int available() {
+                    return buffer.remaining();
+                }
+            };
+        }
+
+        public long getLength() { return length; }
+
+        public long getLastModified() { return lastModified; }
+
+        public String getEtag() { return etag; }
+
+        public String getFormat() { return format; }
+    }
+}
@@ -0,0 +1,75 @@
+package com.photooptimizer.config;
+
+import com.photooptimizer.cache.DerivedImageCache;
+import com.photooptimizer.cache.HotPhotoCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.regex.Pattern;
+
+/**
+ * Derived image cache configuration
+ */
+@Configuration
+public class CacheConfig {
+
+    // Key formats, so that only files a cache wrote itself are ever evicted
+    private static final Pattern FILTERED_KEYS = Pattern.compile("[0-9a-f]{64}_[0-9a-f]{32}");
+    private static final Pattern RENDITION_KEYS = Pattern.compile("([0-9a-f]{64}|photo-\\d+)_w\\w+_h\\w+_[a-z]+_q\\d+\\.[a-z]+");
+    private static final Pattern VERSION_KEYS = Pattern.compile("version-[0-9a-f]{64}");
+
+    /**
+     * Rendered filter results, keyed by source content hash and filter chain
+     */
+    @Bean
+    public DerivedImageCache filterResultCache(
+            @Value("${photo.cache.filtered.path:./uploads/edited/cache}") String path,
+            @Value("${photo.cache.filtered.max-disk-size:1GB}") DataSize maxDiskSize,
+            MeterRegistry meterRegistry) throws IOException {
+        return new DerivedImageCache("filtered", Paths.get(path), "png", FILTERED_KEYS,
+            maxDiskSize.toBytes(), meterRegistry);
+    }
+
+    /**
+     * Resized / re-encoded renditions served by /photo/{id}?width=..., keyed by
+     * source content hash and parameters; keys carry their own extension
+     */
+    @Bean
+    public DerivedImageCache renditionCache(
+            @Value("${photo.cache.renditions.path:./uploads/renditions}") String path,
+            @Value("${photo.cache.renditions.max-disk-size:2GB}") DataSize maxDiskSize,
+            MeterRegistry meterRegistry) throws IOException {
+        return new DerivedImageCache("renditions", Paths.get(path), "", RENDITION_KEYS,
+            maxDiskSize.toBytes(), meterRegistry);
+    }
+
+    /**
+     * Photo versions stored as tile deltas, materialized for reading and
+     * keyed by the delta's content hash; see VersionService
+     */
+    @Bean
+    public DerivedImageCache versionCache(
+            @Value("${photo.cache.versions.path:./uploads/cache/versions}") String path,
+            @Value("${photo.cache.versions.max-disk-size:1GB}") DataSize maxDiskSize,
+            MeterRegistry meterRegistry) throws IOException {
+        return new DerivedImageCache("versions", Paths.get(path), "png", VERSION_KEYS,
+            maxDiskSize.toBytes(), meterRegistry);
+    }
+
+    /**
+     * Originals of the most requested photos, held off-heap for /photo/{id}
+     * and the editor
+     */
+    @Bean
+    public HotPhotoCache hotPhotoCache(
+            @Value("${photo.cache.hot.max-memory-size:256MB}") DataSize maxMemorySize,
+            @Value("${photo.cache.hot.max-entry-size:16MB}") DataSize maxEntrySize,
+            MeterRegistry meterRegistry) {
+        return new HotPhotoCache("hot", maxMemorySize.toBytes(), maxEntrySize.toBytes(), meterRegistry);
+    }
+}
@@ -0,0 +1,37 @@
+package com.photooptimizer.config;
+
+import com.photooptimizer.storage.BlobStore;
+import com.photooptimizer.storage.FsyncPolicy;
+import com.photooptimizer.storage.LocalBlobStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Photo file storage configuration
+ */
+@Configuration
+public class StorageConfig {
+
+    /**
+     * Content-addressed store for originals, edits and versions
+     * Only stores whose locate() gives a real file can back the application,
+     * since renditions, downloads and the editor read photos by path; tests
+     * wire InMemoryBlobStore directly.
+     */
+    @Bean
+    public BlobStore blobStore(
+            @Value("${photo.storage.backend:local}") String backend,
+            @Value("${photo.storage.path:./uploads/store}") String path,
+            @Value("${photo.storage.fsync:file}") String fsync) throws IOException {
+        switch (backend.toLowerCase()) {
+            case "local":
+                return new LocalBlobStore(Paths.get(path), FsyncPolicy.valueOf(fsync.toUpperCase().replace('-', '_')));
+            default:
+                throw new IllegalArgumentException("Unknown photo.storage.backend: " + backend);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.photooptimizer.controller;
+
+import com.photooptimizer.service.BatchService;
+import com.photooptimizer.service.BatchService.Batch;
+import com.photooptimizer.util.CapacityExceededException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Apply one operation chain to many photos
+ */
+@RestController
+@RequestMapping("/batch")
+public class BatchController {
+
+    @Autowired
+    private BatchService batchService;
+
+    /**
+     * Submit a batch
+     * Body: {"ids": [1, 2, ...]} or {"query": "name contains"}, plus
+     * "operations": [{"type": "grayscale"}, {"type": "resize", "value": 1600}, {"type": "encode", "value": "jpeg:85"}]
+     */
+    @PostMapping
+    @SuppressWarnings("unchecked")
+    public ResponseEntity<?> submit(@RequestBody Map<String, Object> request) {
+        try {
+            List<Long> ids = new ArrayList<>();
+            Object rawIds = request.get("ids");
+            if (rawIds instanceof List<?> list) {
+                for (Object id : list) {
+                    ids.add(Long.valueOf(id.toString()));
+                }
+            }
+            Object query = request.get("query");
+            List<Map<String, Object>> operations = (List<Map<String, Object>>) request.get("operations");
+
+            Batch batch = batchService.submit(ids, query != null ? query.toString() : null, operations);
+            URI location = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .path("/{batchId}").buildAndExpand(batch.getId()).toUri();
+            return ResponseEntity.accepted().location(location).body(batch);
+        } catch (CapacityExceededException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, "30")
+                    .body(e.getMessage());
+        } catch (IllegalArgumentException | ClassCastException e) {
+            return ResponseEntity.badRequest().body("Invalid batch: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Progress, per-photo outputs and failures
+     */
+    @GetMapping("/{batchId}")
+    public ResponseEntity<Batch> getBatch(@PathVariable String batchId) {
+        Batch batch = batchService.getBatch(batchId);
+        if (batch == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(batch);
+    }
+
+    /**
+     * Cancel a batch; photos already in flight still finish
+     */
+    @DeleteMapping("/{batchId}")
+    public ResponseEntity<Batch> cancel(@PathVariable String batchId) {
+        Batch batch = batchService.cancel(batchId);
+        if (batch == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(batch);
+    }
+}
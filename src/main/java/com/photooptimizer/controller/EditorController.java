@@ -1,29 +1,40 @@
 package com.photooptimizer.controller;
 
+import com.photooptimizer.cache.DerivedImageCache;
+import com.photooptimizer.imaging.FilterPipeline;
+import com.photooptimizer.imaging.FilterStep;
 import com.photooptimizer.model.Photo;
 import com.photooptimizer.service.PhotoService;
+import com.photooptimizer.service.CanvasStateService;
 import com.photooptimizer.service.EditorService;
+import com.photooptimizer.service.JobService;
 import com.photooptimizer.service.OCRService;
 import com.photooptimizer.service.OCRService.TextRegion;
+import com.photooptimizer.service.PreviewService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.net.URI;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
-import java.io.File;
 
 /**
  * Photo Editor Controller
@@ -42,6 +53,18 @@ public class EditorController {
     @Autowired
     private OCRService ocrService;
     
+    @Autowired
+    private PreviewService previewService;
+    
+    @Autowired
+    private JobService jobService;
+    
+    @Autowired
+    private CanvasStateService canvasStateService;
+    
+    /** Suggested client back-off when the job queue is full or a synchronous call timed out */
+    private static final int RETRY_AFTER_SECONDS = 5;
+    
     /**
      * Display the photo editor interface
      */
@@ -56,7 +79,8 @@ public class EditorController {
         
         System.out.println("Photo found: " + photo.getOriginalName());
         model.addAttribute("photo", photo);
-        model.addAttribute("photoUrl", "/photo-optimizer/photo/" + id);
+        // The canvas is 800x600, so the screen-sized rendition is all it needs
+        model.addAttribute("photoUrl", "/photo-optimizer/photo/" + id + "/optimized");
         return "editor";
     }
     
@@ -129,14 +153,92 @@ public class EditorController {
             @RequestParam("filterType") String filterType,
             @RequestParam("filterValue") String filterValue) {
         try {
-            String result = editorService.applyFilter(id, filterType, filterValue);
+            String result = onJobPool(() -> editorService.applyFilter(id, filterType, filterValue));
             return ResponseEntity.ok(result);
+        } catch (JobService.QueueFullException e) {
+            return tooManyRequests(e);
+        } catch (TimeoutException e) {
+            return timedOut();
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Error applying filter: " + e.getMessage());
         }
     }
     
+    /**
+     * Apply an ordered chain of filters to photo in a single render
+     * Body: [{"type": "brightness", "value": 1.2}, {"type": "sepia"}, ...]
+     */
+    @PostMapping("/editor/filter-chain/{id}")
+    @ResponseBody
+    public ResponseEntity<String> applyFilterChain(
+            @PathVariable Long id,
+            @RequestBody List<Map<String, Object>> filters) {
+        try {
+            List<FilterStep> chain = FilterStep.fromRequest(filters);
+            String result = onJobPool(() -> editorService.applyFilterChain(id, chain));
+            return ResponseEntity.ok(result);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Invalid filter chain: " + e.getMessage());
+        } catch (JobService.QueueFullException e) {
+            return tooManyRequests(e);
+        } catch (TimeoutException e) {
+            return timedOut();
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error applying filter chain: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Preview a filter on a downscaled proxy; the encoded image is returned directly
+     */
+    @PostMapping("/editor/filter/{id}/preview")
+    public ResponseEntity<?> previewFilter(
+            @PathVariable Long id,
+            @RequestParam("filterType") String filterType,
+            @RequestParam(value = "filterValue", required = false) String filterValue,
+            @RequestParam(value = "format", required = false) String format) {
+        return preview(id, () -> List.of(new FilterStep(filterType, filterValue)), format);
+    }
+    
+    /**
+     * Preview a filter chain on a downscaled proxy; the encoded image is returned directly
+     */
+    @PostMapping("/editor/filter-chain/{id}/preview")
+    public ResponseEntity<?> previewFilterChain(
+            @PathVariable Long id,
+            @RequestBody List<Map<String, Object>> filters,
+            @RequestParam(value = "format", required = false) String format) {
+        return preview(id, () -> FilterStep.fromRequest(filters), format);
+    }
+    
+    private ResponseEntity<?> preview(Long id, Supplier<List<FilterStep>> chain, String format) {
+        try {
+            PreviewService.Preview preview = previewService.renderPreview(id, chain.get(), format);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(preview.contentType))
+                    .cacheControl(CacheControl.noStore())
+                    .header("X-Preview-Scale", String.valueOf(preview.scale))
+                    .header("X-Render-Time-Ms", String.valueOf(preview.renderMillis))
+                    .body(preview.bytes);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Invalid filter: " + e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error rendering preview: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Filter result cache statistics
+     */
+    @GetMapping("/editor/filter-cache/stats")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> filterCacheStats() {
+        return ResponseEntity.ok(editorService.getFilterCacheStats());
+    }
+    
     /**
      * Extract text from photo using OCR
      */
@@ -149,9 +251,13 @@ public class EditorController {
                 return ResponseEntity.notFound().build();
             }
             
-            String extractedText = ocrService.extractTextFromFile(photo.getFilePath());
+            String extractedText = onJobPool(() -> ocrText(photo));
             return ResponseEntity.ok(extractedText);
             
+        } catch (JobService.QueueFullException e) {
+            return tooManyRequests(e);
+        } catch (TimeoutException e) {
+            return timedOut();
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Error extracting text: " + e.getMessage());
@@ -165,8 +271,12 @@ public class EditorController {
     @ResponseBody
     public ResponseEntity<String> extractTextFromBase64(@RequestBody String base64ImageData) {
         try {
-            String extractedText = ocrService.extractTextFromBase64(base64ImageData);
+            String extractedText = onJobPool(() -> ocrService.extractTextFromBase64(base64ImageData));
             return ResponseEntity.ok(extractedText);
+        } catch (JobService.QueueFullException e) {
+            return tooManyRequests(e);
+        } catch (TimeoutException e) {
+            return timedOut();
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Error extracting text: " + e.getMessage());
@@ -185,8 +295,12 @@ public class EditorController {
                 return ResponseEntity.notFound().build();
             }
             
-            String extractedText = ocrService.extractTextFromFile(photo.getFilePath());
+            String extractedText = onJobPool(() -> ocrText(photo));
             return ResponseEntity.ok(extractedText);
+        } catch (JobService.QueueFullException e) {
+            return tooManyRequests(e);
+        } catch (TimeoutException e) {
+            return timedOut();
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Error extracting text: " + e.getMessage());
@@ -200,15 +314,13 @@ public class EditorController {
     @ResponseBody
     public ResponseEntity<String> saveCanvasState(@PathVariable Long id, @RequestBody String canvasState) {
         try {
-            Photo photo = photoService.getPhotoById(id);
-            if (photo == null) {
+            if (!canvasStateService.save(id, canvasState)) {
                 return ResponseEntity.notFound().build();
             }
             
-            photo.setCanvasState(canvasState);
-            photoService.savePhoto(photo);
-            
             return ResponseEntity.ok("Canvas state saved successfully");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(e.getMessage());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Error saving canvas state: " + e.getMessage());
@@ -222,12 +334,11 @@ public class EditorController {
     @ResponseBody
     public ResponseEntity<String> getCanvasState(@PathVariable Long id) {
         try {
-            Photo photo = photoService.getPhotoById(id);
-            if (photo == null) {
+            String canvasState = canvasStateService.load(id);
+            if (canvasState == null && photoService.getPhotoById(id) == null) {
                 return ResponseEntity.notFound().build();
             }
             
-            String canvasState = photo.getCanvasState();
             return ResponseEntity.ok(canvasState != null ? canvasState : "");
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -235,6 +346,40 @@ public class EditorController {
         }
     }
     
+    /**
+     * Saved versions of the canvas state, newest first; autosaves coalesced
+     * within photo.editor.canvas-state.max-staleness share one version
+     */
+    @GetMapping("/editor/state/{id}/versions")
+    @ResponseBody
+    public ResponseEntity<?> getCanvasStateVersions(@PathVariable Long id) {
+        try {
+            return ResponseEntity.ok(canvasStateService.listVersions(id));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error listing canvas state versions: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Canvas state as of an earlier version
+     */
+    @GetMapping("/editor/state/{id}/versions/{version}")
+    @ResponseBody
+    public ResponseEntity<String> getCanvasStateVersion(@PathVariable Long id, @PathVariable int version) {
+        try {
+            String canvasState = canvasStateService.loadVersion(id, version);
+            if (canvasState == null) {
+                return ResponseEntity.notFound().build();
+            }
+            
+            return ResponseEntity.ok(canvasState);
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error getting canvas state version: " + e.getMessage());
+        }
+    }
+    
     /**
      * Detect text regions in image
      */
@@ -257,12 +402,19 @@ public class EditorController {
                 return ResponseEntity.ok(new java.util.ArrayList<>());
             }
             
-            List<TextRegion> textRegions = ocrService.detectTextRegions(photo.getFilePath());
+            List<TextRegion> textRegions = onJobPool(() -> {
+                try (DerivedImageCache.Lease source = photoService.getOriginalFile(photo)) {
+                    return ocrService.detectTextRegions(source.getPath().toString());
+                }
+            });
             System.out.println("Text regions detected: " + textRegions.size());
             
             // Always return success with empty list if no text regions found
             return ResponseEntity.ok(textRegions);
             
+        } catch (JobService.QueueFullException e) {
+            // Busy is not a failure of OCR; the client should retry rather than see no text
+            return tooManyRequests(e);
         } catch (Exception e) {
             System.err.println("Error in detectTextRegions endpoint: " + e.getMessage());
             e.printStackTrace();
@@ -324,82 +476,89 @@ public class EditorController {
                 return ResponseEntity.notFound().build();
             }
             
-            String originalText = (String) request.get("originalText");
-            String newText = (String) request.get("newText");
-            String fontName = (String) request.getOrDefault("fontName", "Arial");
-            Integer fontSize = (Integer) request.getOrDefault("fontSize", 20);
-            String color = (String) request.getOrDefault("color", "#000000");
-            String fontStyle = (String) request.getOrDefault("fontStyle", "normal");
-            
-            // Load original image
-            BufferedImage originalImage = ImageIO.read(new File(photo.getFilePath()));
-            
-            // Detect text regions
-            List<TextRegion> textRegions = ocrService.detectTextRegions(photo.getFilePath());
-            
-            // Find the region with the original text
-            TextRegion targetRegion = null;
-            for (TextRegion region : textRegions) {
-                if (region.text.equalsIgnoreCase(originalText)) {
-                    targetRegion = region;
-                    break;
-                }
-            }
-            
-            if (targetRegion == null) {
-                return ResponseEntity.badRequest().body("Text not found in image: " + originalText);
-            }
-            
-            // Remove original text (simple white fill)
-            BufferedImage imageWithoutText = new BufferedImage(
-                originalImage.getWidth(),
-                originalImage.getHeight(),
-                originalImage.getType()
-            );
-            java.awt.Graphics2D g2d = imageWithoutText.createGraphics();
-            g2d.drawImage(originalImage, 0, 0, null);
-            g2d.setColor(java.awt.Color.WHITE);
-            g2d.fillRect(targetRegion.x, targetRegion.y, targetRegion.width, targetRegion.height);
-            g2d.dispose();
-            
-            // Add new text
-            BufferedImage resultImage = ocrService.addTextToImage(
-                imageWithoutText, 
-                newText, 
-                targetRegion.x, 
-                targetRegion.y + targetRegion.height, // Position at bottom of original text
-                fontName, 
-                fontSize, 
-                java.awt.Color.decode(color),
-                fontStyle
-            );
-            
-            // Save the edited image
-            String editedFileName = "edited_" + System.currentTimeMillis() + ".png";
-            Path editedPath = Paths.get("./uploads/edited/" + editedFileName);
-            Files.createDirectories(editedPath.getParent());
-            ImageIO.write(resultImage, "png", editedPath.toFile());
-            
-            // Create new photo record for edited version
-            Photo editedPhoto = new Photo();
-            editedPhoto.setOriginalName(photo.getOriginalName() + " (Text Edited)");
-            editedPhoto.setFileName(editedFileName);
-            editedPhoto.setFilePath(editedPath.toString());
-            editedPhoto.setFileSize(editedPath.toFile().length());
-            editedPhoto.setFormat("png");
-            editedPhoto.setUploadedAt(java.time.LocalDateTime.now());
-            editedPhoto.setIsActive(true);
-            
-            Photo savedPhoto = photoService.savePhoto(editedPhoto);
-            
-            return ResponseEntity.ok("Text edited successfully! New photo ID: " + savedPhoto.getId());
+            return ResponseEntity.ok(onJobPool(() -> editText(photo, request)));
             
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (JobService.QueueFullException e) {
+            return tooManyRequests(e);
+        } catch (TimeoutException e) {
+            return timedOut();
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Error editing text: " + e.getMessage());
         }
     }
     
+    private String editText(Photo photo, Map<String, Object> request) throws IOException {
+        String originalText = (String) request.get("originalText");
+        String newText = (String) request.get("newText");
+        String fontName = (String) request.getOrDefault("fontName", "Arial");
+        Integer fontSize = (Integer) request.getOrDefault("fontSize", 20);
+        String color = (String) request.getOrDefault("color", "#000000");
+        String fontStyle = (String) request.getOrDefault("fontStyle", "normal");
+        
+        // Load original image
+        BufferedImage originalImage = photoService.readImage(photo);
+        
+        // Detect text regions on the same decode
+        List<TextRegion> textRegions = ocrService.detectTextRegions(originalImage);
+        
+        // Find the region with the original text
+        TextRegion targetRegion = null;
+        for (TextRegion region : textRegions) {
+            if (region.text.equalsIgnoreCase(originalText)) {
+                targetRegion = region;
+                break;
+            }
+        }
+        
+        if (targetRegion == null) {
+            throw new IllegalArgumentException("Text not found in image: " + originalText);
+        }
+        
+        // Remove original text (simple white fill)
+        BufferedImage imageWithoutText = new BufferedImage(
+            originalImage.getWidth(),
+            originalImage.getHeight(),
+            originalImage.getType()
+        );
+        java.awt.Graphics2D g2d = imageWithoutText.createGraphics();
+        g2d.drawImage(originalImage, 0, 0, null);
+        g2d.setColor(java.awt.Color.WHITE);
+        g2d.fillRect(targetRegion.x, targetRegion.y, targetRegion.width, targetRegion.height);
+        g2d.dispose();
+        
+        // Add new text
+        BufferedImage resultImage = ocrService.addTextToImage(
+            imageWithoutText, 
+            newText, 
+            targetRegion.x, 
+            targetRegion.y + targetRegion.height, // Position at bottom of original text
+            fontName, 
+            fontSize, 
+            java.awt.Color.decode(color),
+            fontStyle
+        );
+        
+        // New version of the photo; the PNG goes to the blob store
+        String editedFileName = "edited_" + System.currentTimeMillis() + ".png";
+        Photo editedPhoto = new Photo();
+        editedPhoto.setOriginalName(photo.getOriginalName() + " (Text Edited)");
+        editedPhoto.setFileName(editedFileName);
+        editedPhoto.setFormat("png");
+        editedPhoto.setWidth(resultImage.getWidth());
+        editedPhoto.setHeight(resultImage.getHeight());
+        editedPhoto.setUploadedAt(java.time.LocalDateTime.now());
+        editedPhoto.setIsActive(true);
+        
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ImageIO.write(resultImage, "png", encoded);
+        Photo savedPhoto = photoService.saveNewVersion(photo, editedPhoto, encoded.toByteArray(), "png");
+        
+        return "Text edited successfully! New photo ID: " + savedPhoto.getId();
+    }
+    
     /**
      * Add new text to image
      */
@@ -412,52 +571,193 @@ public class EditorController {
                 return ResponseEntity.notFound().build();
             }
             
-            String text = (String) request.get("text");
-            String fontName = (String) request.getOrDefault("fontName", "Arial");
-            Integer fontSize = (Integer) request.getOrDefault("fontSize", 20);
-            String color = (String) request.getOrDefault("color", "#000000");
-            String fontStyle = (String) request.getOrDefault("fontStyle", "normal");
-            Integer x = (Integer) request.getOrDefault("x", 50);
-            Integer y = (Integer) request.getOrDefault("y", 50);
-            
-            // Load original image
-            BufferedImage originalImage = ImageIO.read(new File(photo.getFilePath()));
-            
-            // Add new text to image
-            BufferedImage resultImage = ocrService.addTextToImage(
-                originalImage, 
-                text, 
-                x, 
-                y, 
-                fontName, 
-                fontSize, 
-                java.awt.Color.decode(color),
-                fontStyle
-            );
-            
-            // Save the edited image
-            String editedFileName = "added_text_" + System.currentTimeMillis() + ".png";
-            Path editedPath = Paths.get("./uploads/edited/" + editedFileName);
-            Files.createDirectories(editedPath.getParent());
-            ImageIO.write(resultImage, "png", editedPath.toFile());
-            
-            // Create new photo record for edited version
-            Photo editedPhoto = new Photo();
-            editedPhoto.setOriginalName(photo.getOriginalName() + " (Text Added)");
-            editedPhoto.setFileName(editedFileName);
-            editedPhoto.setFilePath(editedPath.toString());
-            editedPhoto.setFileSize(editedPath.toFile().length());
-            editedPhoto.setFormat("png");
-            editedPhoto.setUploadedAt(java.time.LocalDateTime.now());
-            editedPhoto.setIsActive(true);
-            
-            Photo savedPhoto = photoService.savePhoto(editedPhoto);
-            
-            return ResponseEntity.ok("Text added successfully! New photo ID: " + savedPhoto.getId());
+            return ResponseEntity.ok(onJobPool(() -> addText(photo, request)));
             
+        } catch (JobService.QueueFullException e) {
+            return tooManyRequests(e);
+        } catch (TimeoutException e) {
+            return timedOut();
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Error adding text: " + e.getMessage());
         }
     }
+    
+    private String addText(Photo photo, Map<String, Object> request) throws IOException {
+        String text = (String) request.get("text");
+        String fontName = (String) request.getOrDefault("fontName", "Arial");
+        Integer fontSize = (Integer) request.getOrDefault("fontSize", 20);
+        String color = (String) request.getOrDefault("color", "#000000");
+        String fontStyle = (String) request.getOrDefault("fontStyle", "normal");
+        Integer x = (Integer) request.getOrDefault("x", 50);
+        Integer y = (Integer) request.getOrDefault("y", 50);
+        
+        // Load original image
+        BufferedImage originalImage = photoService.readImage(photo);
+        
+        // Add new text to image
+        BufferedImage resultImage = ocrService.addTextToImage(
+            originalImage, 
+            text, 
+            x, 
+            y, 
+            fontName, 
+            fontSize, 
+            java.awt.Color.decode(color),
+            fontStyle
+        );
+        
+        // New version of the photo; the PNG goes to the blob store
+        String editedFileName = "added_text_" + System.currentTimeMillis() + ".png";
+        Photo editedPhoto = new Photo();
+        editedPhoto.setOriginalName(photo.getOriginalName() + " (Text Added)");
+        editedPhoto.setFileName(editedFileName);
+        editedPhoto.setFormat("png");
+        editedPhoto.setWidth(resultImage.getWidth());
+        editedPhoto.setHeight(resultImage.getHeight());
+        editedPhoto.setUploadedAt(java.time.LocalDateTime.now());
+        editedPhoto.setIsActive(true);
+        
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ImageIO.write(resultImage, "png", encoded);
+        Photo savedPhoto = photoService.saveNewVersion(photo, editedPhoto, encoded.toByteArray(), "png");
+        
+        return "Text added successfully! New photo ID: " + savedPhoto.getId();
+    }
+    
+    // ------------------------------------------------------------------
+    // Background variants: queue the work and return a job id right away
+    // ------------------------------------------------------------------
+    
+    /**
+     * Apply a filter in the background
+     */
+    @PostMapping("/editor/filter/{id}/async")
+    @ResponseBody
+    public ResponseEntity<?> applyFilterAsync(
+            @PathVariable Long id,
+            @RequestParam("filterType") String filterType,
+            @RequestParam("filterValue") String filterValue) {
+        try {
+            // Reject bad filters now rather than in the job
+            FilterPipeline.compile(List.of(new FilterStep(filterType, filterValue)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Invalid filter: " + e.getMessage());
+        }
+        return submitJob("filter", id, photo -> editorService.applyFilter(id, filterType, filterValue));
+    }
+    
+    /**
+     * Apply a filter chain in the background
+     */
+    @PostMapping("/editor/filter-chain/{id}/async")
+    @ResponseBody
+    public ResponseEntity<?> applyFilterChainAsync(
+            @PathVariable Long id,
+            @RequestBody List<Map<String, Object>> filters) {
+        List<FilterStep> chain;
+        try {
+            chain = FilterStep.fromRequest(filters);
+            FilterPipeline.compile(chain);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Invalid filter chain: " + e.getMessage());
+        }
+        return submitJob("filter-chain", id, photo -> editorService.applyFilterChain(id, chain));
+    }
+    
+    /**
+     * Extract text with OCR in the background
+     */
+    @PostMapping("/editor/ocr/{id}/async")
+    @ResponseBody
+    public ResponseEntity<?> extractTextAsync(@PathVariable Long id) {
+        return submitJob("ocr", id, this::ocrText);
+    }
+    
+    /**
+     * Replace text in the image in the background
+     */
+    @PostMapping("/editor/edit-text/{id}/async")
+    @ResponseBody
+    public ResponseEntity<?> editTextInImageAsync(@PathVariable Long id, @RequestBody Map<String, Object> request) {
+        return submitJob("edit-text", id, photo -> editText(photo, request));
+    }
+    
+    /**
+     * Add text to the image in the background
+     */
+    @PostMapping("/editor/add-text/{id}/async")
+    @ResponseBody
+    public ResponseEntity<?> addNewTextToImageAsync(@PathVariable Long id, @RequestBody Map<String, Object> request) {
+        return submitJob("add-text", id, photo -> addText(photo, request));
+    }
+    
+    /**
+     * OCR of the photo's original, read while its file is leased
+     */
+    private String ocrText(Photo photo) throws IOException {
+        try (DerivedImageCache.Lease source = photoService.getOriginalFile(photo)) {
+            return ocrService.extractTextFromFile(source.getPath().toString());
+        }
+    }
+    
+    /**
+     * Work done by a job on the photo it was submitted for
+     */
+    @FunctionalInterface
+    private interface PhotoWork {
+        String run(Photo photo) throws Exception;
+    }
+    
+    /**
+     * 202 with the job id and where to poll, 404 for unknown photos, 429 when the job queue is full
+     */
+    private ResponseEntity<?> submitJob(String type, Long id, PhotoWork work) {
+        Photo photo = photoService.getPhotoById(id);
+        if (photo == null) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            JobService.Job job = jobService.submit(type, id, () -> work.run(photo));
+            URI statusUri = ServletUriComponentsBuilder.fromCurrentContextPath()
+                    .path("/jobs/{jobId}").buildAndExpand(job.getId()).toUri();
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("jobId", job.getId());
+            response.put("status", job.getStatus());
+            response.put("statusUrl", statusUri.toString());
+            response.put("resultUrl", statusUri + "/result");
+            return ResponseEntity.accepted().location(statusUri).body(response);
+        } catch (JobService.QueueFullException e) {
+            return tooManyRequests(e);
+        }
+    }
+    
+    /**
+     * Run heavy work on the bounded job pool and wait for its result, so the
+     * synchronous endpoints hold a servlet thread only while waiting. A failure
+     * of the work itself is rethrown unwrapped for the endpoint to map as before.
+     */
+    private <T> T onJobPool(Callable<T> work) throws Exception {
+        try {
+            return jobService.call(work);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+    
+    private static ResponseEntity<String> tooManyRequests(JobService.QueueFullException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(RETRY_AFTER_SECONDS))
+                .body(e.getMessage());
+    }
+    
+    private static ResponseEntity<String> timedOut() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(RETRY_AFTER_SECONDS))
+                .body("Operation did not finish in time; use the /async endpoint for long-running work");
+    }
 }
@@ -0,0 +1,241 @@
+package com.photooptimizer.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+
+/**
+ * Streams image files to the client without loading them onto the heap
+ * (or straight from an off-heap buffer when the bytes are already cached).
+ * Handles conditional requests (ETag / Last-Modified, 304 and 412) and a
+ * single byte range (206 / 416). The body goes out through the container's
+ * sendfile when Tomcat offers it, otherwise through FileChannel.transferTo.
+ */
+@Component
+public class FileServer {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    @Value("${photo.serving.immutable-max-age:365d}")
+    private Duration immutableMaxAge;
+
+    @Value("${photo.serving.use-sendfile:true}")
+    private boolean useSendfile;
+
+    /**
+     * Write the file, or a 304/206/412/416 as the request headers call for
+     * @param etag strong entity tag derived from the content, without quotes;
+     *        null falls back to a weak tag from size and modification time
+     * @param immutable whether this URL always serves these bytes; such
+     *        responses are cacheable for a year without revalidation
+     * @throws NoSuchFileException if the file does not exist
+     */
+    public void serve(HttpServletRequest request, HttpServletResponse response,
+                      Path file, String etag, String contentType, boolean immutable) throws IOException {
+        serve(request, response, file, etag, contentType, immutable, true);
+    }
+
+    /**
+     * @param sendfile false if the file may be gone once the handler returns,
+     *        which is when Tomcat's sendfile reads it
+     */
+    public void serve(HttpServletRequest request, HttpServletResponse response, Path file, String etag,
+                      String contentType, boolean immutable, boolean sendfile) throws IOException {
+        long length = Files.size(file);
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        long[] span = prepare(request, response, length, lastModified, etag, contentType, immutable);
+        if (span == null) {
+            return;
+        }
+        long start = span[0];
+        long count = span[1];
+
+        if (sendfile && useSendfile && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // Tomcat writes the file from the kernel once the handler returns
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + count);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            OutputStream out = response.getOutputStream();
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, target);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
+                remaining -= sent;
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Same as for a file, with the bytes already in memory
+     * @param content the whole entity; its position and limit are left alone
+     */
+    public void serve(HttpServletRequest request, HttpServletResponse response, ByteBuffer content,
+                      long lastModified, String etag, String contentType, boolean immutable) throws IOException {
+        long[] span = prepare(request, response, content.remaining(), lastModified, etag, contentType, immutable);
+        if (span == null) {
+            return;
+        }
+        ByteBuffer body = content.duplicate();
+        body.position(content.position() + (int) span[0]);
+        body.limit(body.position() + (int) span[1]);
+        OutputStream out = response.getOutputStream();
+        WritableByteChannel target = Channels.newChannel(out);
+        while (body.hasRemaining()) {
+            target.write(body);
+        }
+        out.flush();
+    }
+
+    /**
+     * Caching headers, conditional request and range handling
+     * @return {start, count} of the body to send, or null if the response is complete
+     */
+    private long[] prepare(HttpServletRequest request, HttpServletResponse response, long length, long lastModified,
+                           String etag, String contentType, boolean immutable) {
+        String entityTag = etag != null ? "\"" + etag + "\"" : "W/\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, immutable
+            ? CacheControl.maxAge(immutableMaxAge).cachePublic().immutable().getHeaderValue()
+            : CacheControl.noCache().getHeaderValue());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        // Spring evaluates If-Match only for unsafe methods, but it applies to GET as well
+        if (!ifMatchAllows(request, entityTag)) {
+            response.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+            return null;
+        }
+        // Sets ETag and Last-Modified, and answers 304/412 itself
+        if (new ServletWebRequest(request, response).checkNotModified(entityTag, lastModified)) {
+            return null;
+        }
+        response.setContentType(contentType);
+
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null && length > 0 && ifRangeMatches(request, entityTag, lastModified)) {
+            long[] bounds = parseRange(range, length);
+            if (bounds == null) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return null;
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+        long count = end - start + 1;
+        response.setContentLengthLong(count);
+        if ("HEAD".equalsIgnoreCase(request.getMethod()) || count <= 0) {
+            return null;
+        }
+        return new long[] {start, count};
+    }
+
+    /**
+     * If-Match is absent, "*" or lists the entity's tag; weak tags never match
+     */
+    private static boolean ifMatchAllows(HttpServletRequest request, String entityTag) {
+        String ifMatch = request.getHeader(HttpHeaders.IF_MATCH);
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return true;
+        }
+        if (entityTag.startsWith("W/")) {
+            return false;
+        }
+        for (String tag : ifMatch.split(",")) {
+            if (tag.trim().equals(entityTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A Range is honoured only if If-Range is absent or still matches the entity
+     */
+    private static boolean ifRangeMatches(HttpServletRequest request, String entityTag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // Weak tags never match for ranges
+            return !entityTag.startsWith("W/") && ifRange.equals(entityTag);
+        }
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parse a single "bytes=" range against the file length
+     * @return {start, end} inclusive, an empty array to ignore the header and
+     *         send everything (malformed or multiple ranges), or null if unsatisfiable
+     */
+    static long[] parseRange(String header, long length) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // Suffix range: the last n bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                return new long[] {Math.max(0, length - suffix), length - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            if (start >= length) {
+                return null;
+            }
+            if (end < start) {
+                return new long[0];
+            }
+            return new long[] {start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.photooptimizer.controller;
+
+import com.photooptimizer.service.IngestService;
+import com.photooptimizer.service.IngestService.Result;
+import com.photooptimizer.util.CapacityExceededException;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Bulk import from a ZIP archive sent as the raw request body
+ * (e.g. curl --data-binary @library.zip -H "Content-Type: application/zip" .../ingest)
+ */
+@RestController
+public class IngestController {
+
+    @Autowired
+    private IngestService ingestService;
+
+    /**
+     * Import every supported image in the archive; responds once all are stored
+     */
+    @PostMapping("/ingest")
+    public ResponseEntity<?> ingest(HttpServletRequest request) {
+        try (InputStream archive = request.getInputStream()) {
+            Result result = ingestService.ingest(archive);
+            if (result.getError() != null) {
+                return ResponseEntity.badRequest().body(result);
+            }
+            return ResponseEntity.ok(result);
+        } catch (CapacityExceededException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, "60")
+                    .body(e.getMessage());
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error reading archive: " + e.getMessage());
+        }
+    }
+}
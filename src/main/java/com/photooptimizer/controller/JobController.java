@@ -0,0 +1,65 @@
+package com.photooptimizer.controller;
+
+import com.photooptimizer.service.JobService;
+import com.photooptimizer.service.JobService.Job;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Status and results of background jobs submitted through the editor's /async endpoints
+ */
+@RestController
+@RequestMapping("/jobs")
+public class JobController {
+
+    @Autowired
+    private JobService jobService;
+
+    /**
+     * Job status
+     */
+    @GetMapping("/{jobId}")
+    public ResponseEntity<Job> getJob(@PathVariable String jobId) {
+        Job job = jobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    /**
+     * Job result: 200 with the result once done, 202 with the status while
+     * queued or running, 500 with the error if the job failed
+     */
+    @GetMapping("/{jobId}/result")
+    public ResponseEntity<?> getResult(@PathVariable String jobId) {
+        Job job = jobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        switch (job.getStatus()) {
+            case SUCCEEDED:
+                return ResponseEntity.ok(job.getResult());
+            case FAILED:
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                        .body("Job failed: " + job.getError());
+            default:
+                return ResponseEntity.accepted().body(job);
+        }
+    }
+
+    /**
+     * Worker pool and queue statistics
+     */
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> getStats() {
+        return ResponseEntity.ok(jobService.getStats());
+    }
+}
@@ -1,10 +1,17 @@
 package com.photooptimizer.controller;
 
+import com.photooptimizer.cache.DerivedImageCache;
+import com.photooptimizer.cache.HotPhotoCache;
+import com.photooptimizer.imaging.ImageEncoding;
+import com.photooptimizer.imaging.QualityTarget;
 import com.photooptimizer.model.Photo;
+import com.photooptimizer.service.DerivativeService;
 import com.photooptimizer.service.PhotoService;
+import com.photooptimizer.service.RenditionService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -13,9 +20,13 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Simple photo controller for web interface
@@ -26,10 +37,20 @@ public class PhotoController {
     @Autowired
     private PhotoService photoService;
     
+    @Autowired
+    private DerivativeService derivativeService;
+    
+    @Autowired
+    private RenditionService renditionService;
+    
+    @Autowired
+    private FileServer fileServer;
+    
+    /**
+     * The page fetches its photos from /api/photos, one page at a time
+     */
     @GetMapping("/")
     public String index(Model model) {
-        List<Photo> photos = photoService.getAllPhotos();
-        model.addAttribute("photos", photos);
         return "index";
     }
     
@@ -44,6 +65,8 @@ public class PhotoController {
             photoService.uploadPhoto(file);
             return ResponseEntity.ok("Photo uploaded successfully!");
             
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         } catch (IOException e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Error uploading photo: " + e.getMessage());
@@ -62,35 +85,219 @@ public class PhotoController {
         }
     }
     
+    /**
+     * Active photos, newest first; pass the returned nextCursor to get the following page
+     */
     @GetMapping("/api/photos")
     @ResponseBody
-    public ResponseEntity<List<Photo>> getAllPhotosApi() {
-        List<Photo> photos = photoService.getAllPhotos();
-        return ResponseEntity.ok(photos);
+    public ResponseEntity<?> getAllPhotosApi(
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        try {
+            return ResponseEntity.ok(photoService.getPhotoPage(cursor, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+    
+    /**
+     * The version tree of a photo: its root and every version made from it,
+     * each with the photo it was made from
+     */
+    @GetMapping("/api/photos/{id}/versions")
+    @ResponseBody
+    public ResponseEntity<?> getVersions(@PathVariable Long id) {
+        Photo photo = photoService.getPhotoById(id);
+        if (photo == null) {
+            return ResponseEntity.notFound().build();
+        }
+        List<Map<String, Object>> versions = new ArrayList<>();
+        for (Photo version : photoService.getLineage(photo)) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("id", version.getId());
+            entry.put("parentId", version.getParentId());
+            entry.put("originalName", version.getOriginalName());
+            entry.put("uploadedAt", version.getUploadedAt());
+            entry.put("fileSize", version.getFileSize());
+            entry.put("storedAsDelta", version.getDeltaPath() != null);
+            entry.put("active", version.getIsActive());
+            versions.add(entry);
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("rootId", photo.getRootId() != null ? photo.getRootId() : photo.getId());
+        response.put("versions", versions);
+        return ResponseEntity.ok(response);
     }
     
+    /**
+     * The original, or a rendition when any of width, height, fit (contain,
+     * cover, fill), format or quality is given; content-addressed files never
+     * change under their URL, so they are served as immutable
+     */
     @GetMapping("/photo/{id}")
-    public ResponseEntity<byte[]> getPhoto(@PathVariable Long id) {
+    public void getPhoto(
+            @PathVariable Long id,
+            @RequestParam(value = "width", required = false) Integer width,
+            @RequestParam(value = "height", required = false) Integer height,
+            @RequestParam(value = "fit", required = false) String fit,
+            @RequestParam(value = "format", required = false) String format,
+            @RequestParam(value = "quality", required = false) Integer quality,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        boolean original = width == null && height == null && fit == null && format == null && quality == null;
+        if (original) {
+            // Hot originals are served from memory without touching the database
+            HotPhotoCache.Entry cached = photoService.getCachedOriginal(id);
+            if (cached != null) {
+                serveCached(request, response, cached);
+                return;
+            }
+        }
         Photo photo = photoService.getPhotoById(id);
-        if (photo != null) {
-            try {
-                Path imagePath = Paths.get(photo.getFilePath());
-                byte[] imageBytes = Files.readAllBytes(imagePath);
-                
-                String contentType = "image/" + photo.getFormat();
-                if (photo.getFormat().equalsIgnoreCase("jpg")) {
-                    contentType = "image/jpeg";
-                }
-                
-                return ResponseEntity.ok()
-                        .contentType(MediaType.parseMediaType(contentType))
-                        .body(imageBytes);
-            } catch (IOException e) {
-                return ResponseEntity.notFound().build();
+        if (photo == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        boolean immutable = photo.getContentHash() != null;
+        if (original) {
+            HotPhotoCache.Entry cached = photoService.cacheOriginal(photo);
+            if (cached != null) {
+                serveCached(request, response, cached);
+            } else {
+                serveFile(request, response, photoService.getOriginalFile(photo), photo.getContentHash(), immutable);
             }
+            return;
+        }
+        
+        RenditionService.Spec spec;
+        try {
+            spec = renditionService.parseSpec(photo, width, height, fit, format, quality);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        String key = renditionService.cacheKey(photo, spec);
+        serveFile(request, response, renditionService.getRendition(photo, spec),
+            key.substring(0, key.lastIndexOf('.')), immutable);
+    }
+    
+    /**
+     * Render and cache statistics for /photo/{id}?width=...
+     */
+    @GetMapping("/api/renditions/stats")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> getRenditionStats() {
+        return ResponseEntity.ok(renditionService.getStats());
+    }
+    
+    /**
+     * Gallery-sized rendition, or the original until it has been generated
+     */
+    @GetMapping("/photo/{id}/thumbnail")
+    public void getThumbnail(@PathVariable Long id, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Photo photo = photoService.getPhotoById(id);
+        if (photo == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        serveRendition(request, response, photo, "thumbnail", photo.getThumbnailPath());
+    }
+    
+    /**
+     * Screen-sized rendition, or the original until it has been generated
+     */
+    @GetMapping("/photo/{id}/optimized")
+    public void getOptimized(@PathVariable Long id, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Photo photo = photoService.getPhotoById(id);
+        if (photo == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        serveRendition(request, response, photo, "optimized", photo.getRenditionPath());
+    }
+    
+    /**
+     * Renditions of hashed photos are named after the content they were
+     * rendered from, so kind + file name is a strong entity tag. The URL can
+     * switch from the original to the rendition, so clients revalidate (a
+     * cheap 304) instead of caching it as immutable.
+     */
+    private void serveRendition(HttpServletRequest request, HttpServletResponse response,
+                                Photo photo, String kind, String renditionPath) throws IOException {
+        String hash = photo.getContentHash();
+        if (renditionPath != null && Files.exists(Paths.get(renditionPath))) {
+            Path rendition = Paths.get(renditionPath);
+            String fileName = rendition.getFileName().toString();
+            String etag = hash != null ? kind + "-" + fileName.substring(0, fileName.lastIndexOf('.')) : null;
+            serveFile(request, response, DerivedImageCache.Lease.of(rendition), etag, false);
         } else {
+            serveFile(request, response, photoService.getOriginalFile(photo), hash != null ? "original-" + hash : null, false);
+        }
+    }
+    
+    private void serveCached(HttpServletRequest request, HttpServletResponse response,
+                             HotPhotoCache.Entry cached) throws IOException {
+        fileServer.serve(request, response, cached.getContent(), cached.getLastModified(), cached.getEtag(),
+            ImageEncoding.contentType(cached.getFormat()), cached.getEtag() != null);
+    }
+    
+    /**
+     * Serve and close the lease; a leased cache file may be removed once it is
+     * closed, so it is written out before returning rather than by sendfile
+     */
+    private void serveFile(HttpServletRequest request, HttpServletResponse response,
+                           DerivedImageCache.Lease image, String etag, boolean immutable) throws IOException {
+        try (image) {
+            String fileName = image.getPath().getFileName().toString();
+            String format = fileName.substring(fileName.lastIndexOf('.') + 1);
+            fileServer.serve(request, response, image.getPath(), etag, ImageEncoding.contentType(format), immutable,
+                !image.isPinned());
+        } catch (NoSuchFileException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        }
+    }
+    
+    /**
+     * Re-encode the optimized rendition for an explicit target:
+     * ssim (e.g. 0.99), psnr in dB (e.g. 42) or bytes (maximum size)
+     */
+    @PostMapping("/photo/{id}/optimize")
+    @ResponseBody
+    public ResponseEntity<?> optimizePhoto(
+            @PathVariable Long id,
+            @RequestParam(value = "ssim", required = false) Double ssim,
+            @RequestParam(value = "psnr", required = false) Double psnr,
+            @RequestParam(value = "bytes", required = false) Long bytes) {
+        Photo photo = photoService.getPhotoById(id);
+        if (photo == null) {
             return ResponseEntity.notFound().build();
         }
+        try {
+            QualityTarget target;
+            if (bytes != null) {
+                target = QualityTarget.bytes(bytes);
+            } else if (psnr != null) {
+                target = QualityTarget.psnr(psnr);
+            } else if (ssim != null) {
+                target = QualityTarget.ssim(ssim);
+            } else {
+                return ResponseEntity.badRequest().body("One of ssim, psnr or bytes is required");
+            }
+            
+            Photo optimized = derivativeService.optimize(photo, target);
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("target", target.toString());
+            response.put("renditionPath", optimized.getRenditionPath());
+            response.put("quality", optimized.getOptimizationQuality());
+            response.put("originalSize", optimized.getFileSize());
+            response.put("optimizedSize", optimized.getOptimizedSize());
+            response.put("bytesSaved", optimized.getBytesSaved());
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error optimizing photo: " + e.getMessage());
+        }
     }
     
     @GetMapping("/photo/{id}/metadata")
@@ -0,0 +1,146 @@
+package com.photooptimizer.controller;
+
+import com.photooptimizer.model.Photo;
+import com.photooptimizer.service.ChunkedUploadService;
+import com.photooptimizer.service.ChunkedUploadService.Session;
+import com.photooptimizer.util.CapacityExceededException;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * Resumable chunked uploads for files too large, or connections too flaky,
+ * for a single multipart POST to /upload
+ * POST /uploads starts a session, PUT /uploads/{id}/chunks/{index} sends the
+ * raw bytes of one chunk (any order, in parallel), GET /uploads/{id} lists
+ * what is still missing and POST /uploads/{id}/complete turns it into a photo.
+ */
+@RestController
+@RequestMapping("/uploads")
+public class UploadController {
+
+    private static final int RETRY_AFTER_SECONDS = 30;
+
+    @Autowired
+    private ChunkedUploadService uploadService;
+
+    /**
+     * Start an upload: {"fileName": "...", "size": bytes, "chunkSize": bytes (optional),
+     * "sha256": "hex of the whole file" (optional)}
+     */
+    @PostMapping
+    public ResponseEntity<?> initiate(@RequestBody Map<String, Object> request) {
+        try {
+            Object size = request.get("size");
+            Object chunkSize = request.get("chunkSize");
+            if (!(size instanceof Number)) {
+                return ResponseEntity.badRequest().body("size is required");
+            }
+            Session session = uploadService.initiate(
+                (String) request.get("fileName"),
+                ((Number) size).longValue(),
+                chunkSize instanceof Number ? ((Number) chunkSize).longValue() : null,
+                (String) request.get("sha256"));
+            URI location = ServletUriComponentsBuilder.fromCurrentRequest()
+                .path("/{id}").buildAndExpand(session.getUploadId()).toUri();
+            return ResponseEntity.created(location).body(session);
+        } catch (IllegalArgumentException | ClassCastException e) {
+            return ResponseEntity.badRequest().body("Invalid upload: " + e.getMessage());
+        } catch (CapacityExceededException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(RETRY_AFTER_SECONDS))
+                    .body(e.getMessage());
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error starting upload: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Upload status: received and missing chunks and the contiguous offset to resume from
+     */
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<Session> getStatus(@PathVariable String uploadId) {
+        Session session = uploadService.getSession(uploadId);
+        if (session == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(session);
+    }
+
+    /**
+     * Send one chunk as the raw request body, optionally with its SHA-256 in X-Chunk-SHA256
+     */
+    @PutMapping("/{uploadId}/chunks/{index}")
+    public ResponseEntity<?> putChunk(
+            @PathVariable String uploadId,
+            @PathVariable int index,
+            @RequestHeader(value = "X-Chunk-SHA256", required = false) String sha256,
+            HttpServletRequest request) {
+        try (InputStream body = request.getInputStream()) {
+            Session session = uploadService.writeChunk(uploadId, index, body, sha256);
+            if (session == null) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok(session);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error writing chunk: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Finish the upload once every chunk is in; returns the new photo
+     */
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<?> complete(@PathVariable String uploadId) {
+        try {
+            Photo photo = uploadService.complete(uploadId);
+            if (photo == null) {
+                return ResponseEntity.notFound().build();
+            }
+            URI location = ServletUriComponentsBuilder.fromCurrentContextPath()
+                .path("/photo/{id}").buildAndExpand(photo.getId()).toUri();
+            return ResponseEntity.created(location).body(photo);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error completing upload: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Abandon an upload and free its space
+     */
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Void> abort(@PathVariable String uploadId) {
+        if (!uploadService.abort(uploadId)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -0,0 +1,141 @@
+package com.photooptimizer.imaging;
+
+/**
+ * Separable sliding-window box blur
+ * Horizontal window sums are computed with a running sum per row and folded
+ * into running column sums as the window slides down, so every pixel costs a
+ * constant number of additions no matter how large the radius is.
+ * Windows are clipped to the image bounds and averaged over the pixels they
+ * actually cover, matching the original 2D box blur exactly.
+ */
+final class BoxBlur {
+
+    /** Number of box passes used to approximate a Gaussian */
+    static final int GAUSSIAN_PASSES = 3;
+
+    private BoxBlur() {
+    }
+
+    /**
+     * One box blur pass from src to dst (both packed 0xRRGGBB, row-major)
+     * @param round round averages to nearest instead of truncating
+     */
+    static void pass(int[] src, int[] dst, int width, int height, int radius, boolean round) {
+        // A window wider than the image covers the same pixels as one exactly as wide
+        int r = Math.min(radius, Math.max(width, height));
+        if (r == 0) {
+            System.arraycopy(src, 0, dst, 0, width * height);
+            return;
+        }
+
+        // Each band primes its column sums with 2r + 1 rows, so keep bands at least that tall
+        FilterEngine.forEachBand(width, height, 2 * r + 1, (from, to) -> {
+            long[] sumR = new long[width];
+            long[] sumG = new long[width];
+            long[] sumB = new long[width];
+
+            int top = Math.max(0, from - r);
+            int bottom = Math.min(height - 1, from + r);
+            for (int y = top; y <= bottom; y++) {
+                accumulateRow(src, y, width, r, sumR, sumG, sumB, 1);
+            }
+
+            for (int y = from; y < to; y++) {
+                int rows = bottom - top + 1;
+                int out = y * width;
+                for (int x = 0; x < width; x++) {
+                    long count = (long) rows * (Math.min(width - 1, x + r) - Math.max(0, x - r) + 1);
+                    long bias = round ? count >> 1 : 0;
+                    int red = (int) ((sumR[x] + bias) / count);
+                    int green = (int) ((sumG[x] + bias) / count);
+                    int blue = (int) ((sumB[x] + bias) / count);
+                    dst[out + x] = (red << 16) | (green << 8) | blue;
+                }
+
+                if (y + 1 == to) {
+                    break;
+                }
+                // Slide the vertical window down by one row
+                if (y + 1 + r < height) {
+                    bottom = y + 1 + r;
+                    accumulateRow(src, bottom, width, r, sumR, sumG, sumB, 1);
+                }
+                if (y - r >= 0) {
+                    accumulateRow(src, y - r, width, r, sumR, sumG, sumB, -1);
+                    top = y - r + 1;
+                }
+            }
+        });
+    }
+
+    /**
+     * Gaussian approximation from src to dst: three rounded box passes
+     */
+    static void gaussian(int[] src, int[] dst, int width, int height, double sigma) {
+        int[] radii = gaussianRadii(sigma);
+        int[] scratch = new int[width * height];
+        // src -> dst -> scratch -> dst
+        pass(src, dst, width, height, radii[0], true);
+        pass(dst, scratch, width, height, radii[1], true);
+        pass(scratch, dst, width, height, radii[2], true);
+    }
+
+    /**
+     * Add (sign = 1) or remove (sign = -1) the horizontal window sums of one row
+     */
+    private static void accumulateRow(int[] src, int row, int width, int r,
+                                      long[] sumR, long[] sumG, long[] sumB, int sign) {
+        int base = row * width;
+        int red = 0, green = 0, blue = 0;
+        for (int x = 0, last = Math.min(width - 1, r); x <= last; x++) {
+            int rgb = src[base + x];
+            red += (rgb >> 16) & 0xFF;
+            green += (rgb >> 8) & 0xFF;
+            blue += rgb & 0xFF;
+        }
+
+        for (int x = 0; x < width; x++) {
+            sumR[x] += sign * red;
+            sumG[x] += sign * green;
+            sumB[x] += sign * blue;
+
+            int enter = x + r + 1;
+            if (enter < width) {
+                int rgb = src[base + enter];
+                red += (rgb >> 16) & 0xFF;
+                green += (rgb >> 8) & 0xFF;
+                blue += rgb & 0xFF;
+            }
+            int leave = x - r;
+            if (leave >= 0) {
+                int rgb = src[base + leave];
+                red -= (rgb >> 16) & 0xFF;
+                green -= (rgb >> 8) & 0xFF;
+                blue -= rgb & 0xFF;
+            }
+        }
+    }
+
+    /**
+     * Radii of the box passes whose combination approximates a Gaussian of the
+     * given standard deviation (see "Fast Almost-Gaussian Filtering", Kovesi)
+     */
+    static int[] gaussianRadii(double sigma) {
+        int n = GAUSSIAN_PASSES;
+        double idealWidth = Math.sqrt(12 * sigma * sigma / n + 1);
+        int lower = (int) Math.floor(idealWidth);
+        if (lower % 2 == 0) {
+            lower--;
+        }
+        int upper = lower + 2;
+        double idealLowerPasses = (12 * sigma * sigma - n * lower * lower - 4 * n * lower - 3 * n) / (-4.0 * lower - 4);
+        long lowerPasses = Math.round(idealLowerPasses);
+
+        int[] radii = new int[n];
+        for (int i = 0; i < n; i++) {
+            int size = i < lowerPasses ? lower : upper;
+            radii[i] = (size - 1) / 2;
+        }
+        return radii;
+    }
+}
@@ -0,0 +1,294 @@
+package com.photooptimizer.imaging;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Raster-backed filter engine
+ * Works directly on packed RGB int arrays in row-major order and splits
+ * large images into row bands that run in parallel on a fork-join pool.
+ * Results are pixel-identical to the original getRGB/setRGB filters.
+ */
+public final class FilterEngine {
+
+    /** Images smaller than this (in pixels) are processed on the calling thread */
+    static final int PARALLEL_THRESHOLD = 256 * 1024;
+
+    /** Approximate number of pixels handled by one fork-join leaf task */
+    static final int TILE_PIXELS = 64 * 1024;
+
+    /** Pixels pushed through a fused chain of point operations at a time (16 KB, fits L1) */
+    static final int CHUNK_PIXELS = 4 * 1024;
+
+    private FilterEngine() {
+    }
+
+    /**
+     * Work over a half-open range of rows
+     */
+    @FunctionalInterface
+    public interface RowBandTask {
+        void run(int fromRow, int toRow);
+    }
+
+    /**
+     * Run a task over all rows of an image, in parallel bands for large images
+     */
+    public static void forEachBand(int width, int height, RowBandTask task) {
+        forEachBand(width, height, 1, task);
+    }
+
+    /**
+     * Run a task over all rows of an image, never handing a task fewer than
+     * minRowsPerTask rows (for kernels whose per-band setup cost grows with a radius)
+     */
+    public static void forEachBand(int width, int height, int minRowsPerTask, RowBandTask task) {
+        long pixels = (long) width * height;
+        if (pixels < PARALLEL_THRESHOLD || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            task.run(0, height);
+            return;
+        }
+        int rowsPerTile = Math.max(minRowsPerTask, TILE_PIXELS / Math.max(1, width));
+        ForkJoinPool.commonPool().invoke(new BandAction(task, 0, height, rowsPerTile));
+    }
+
+    private static final class BandAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RowBandTask task;
+        private final int fromRow;
+        private final int toRow;
+        private final int rowsPerTile;
+
+        BandAction(RowBandTask task, int fromRow, int toRow, int rowsPerTile) {
+            this.task = task;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.rowsPerTile = rowsPerTile;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow <= rowsPerTile) {
+                task.run(fromRow, toRow);
+                return;
+            }
+            int mid = (fromRow + toRow) >>> 1;
+            invokeAll(new BandAction(task, fromRow, mid, rowsPerTile),
+                      new BandAction(task, mid, toRow, rowsPerTile));
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Raster access
+    // ------------------------------------------------------------------
+
+    /**
+     * Get the pixels of an image as packed 0xRRGGBB ints in row-major order.
+     * Tightly packed int images are returned without copying and must be
+     * treated as read-only; byte images are unpacked straight from their
+     * DataBuffer; anything else goes through one bulk getRGB conversion.
+     */
+    public static int[] readPixels(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        WritableRaster raster = image.getRaster();
+
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+                if (isTightlyPacked(raster, 1) && raster.getDataBuffer().getOffset() == 0) {
+                    return ((DataBufferInt) raster.getDataBuffer()).getData();
+                }
+                break;
+            case BufferedImage.TYPE_3BYTE_BGR:
+                if (isTightlyPacked(raster, 3)) {
+                    return unpackBytes(raster, width, height, 3);
+                }
+                break;
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                if (isTightlyPacked(raster, 4)) {
+                    return unpackBytes(raster, width, height, 4);
+                }
+                break;
+            default:
+                break;
+        }
+
+        // Color models may convert through shared, non thread-safe transforms,
+        // so the generic path stays on the calling thread
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    /**
+     * Create an empty TYPE_INT_RGB image, the output format of every filter
+     */
+    public static BufferedImage newRgbImage(int width, int height) {
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Backing array of an image created by {@link #newRgbImage(int, int)}
+     */
+    public static int[] pixelsOf(BufferedImage rgbImage) {
+        return ((DataBufferInt) rgbImage.getRaster().getDataBuffer()).getData();
+    }
+
+    private static boolean isTightlyPacked(WritableRaster raster, int pixelStride) {
+        if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+                || raster.getDataBuffer().getNumBanks() != 1) {
+            return false;
+        }
+        SampleModel sampleModel = raster.getSampleModel();
+        int width = raster.getWidth();
+        if (sampleModel instanceof SinglePixelPackedSampleModel packed) {
+            return pixelStride == 1 && packed.getScanlineStride() == width;
+        }
+        if (sampleModel instanceof ComponentSampleModel component) {
+            return component.getPixelStride() == pixelStride
+                && component.getScanlineStride() == width * pixelStride;
+        }
+        return false;
+    }
+
+    private static int[] unpackBytes(WritableRaster raster, int width, int height, int pixelStride) {
+        byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+        int offset = raster.getDataBuffer().getOffset();
+        // BGR / ABGR: blue sits at (pixelStride - 3), red at (pixelStride - 1)
+        int blue = offset + pixelStride - 3;
+        int[] pixels = new int[width * height];
+        forEachBand(width, height, (from, to) -> {
+            int src = blue + from * width * pixelStride;
+            for (int i = from * width, end = to * width; i < end; i++, src += pixelStride) {
+                pixels[i] = ((data[src + 2] & 0xFF) << 16) | ((data[src + 1] & 0xFF) << 8) | (data[src] & 0xFF);
+            }
+        });
+        return pixels;
+    }
+
+    // ------------------------------------------------------------------
+    // Filters
+    // ------------------------------------------------------------------
+
+    /**
+     * Scale every channel by a factor, clamping to [0, 255]
+     */
+    public static BufferedImage brightness(BufferedImage image, float factor) {
+        return pointFilter(image, PointOps.scale(factor));
+    }
+
+    /**
+     * Contrast filter (channel scaling, same arithmetic as brightness)
+     */
+    public static BufferedImage contrast(BufferedImage image, float factor) {
+        return pointFilter(image, PointOps.scale(factor));
+    }
+
+    /**
+     * Luma grayscale filter
+     */
+    public static BufferedImage grayscale(BufferedImage image) {
+        return pointFilter(image, PointOps.GRAYSCALE);
+    }
+
+    /**
+     * Luma grayscale as a single-channel TYPE_BYTE_GRAY image (e.g. for OCR input)
+     */
+    public static BufferedImage grayscaleBytes(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] src = readPixels(image);
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] dst = ((DataBufferByte) result.getRaster().getDataBuffer()).getData();
+        forEachBand(width, height, (from, to) -> {
+            int[] chunk = new int[CHUNK_PIXELS];
+            int end = to * width;
+            for (int start = from * width; start < end; start += CHUNK_PIXELS) {
+                int length = Math.min(CHUNK_PIXELS, end - start);
+                System.arraycopy(src, start, chunk, 0, length);
+                PointOps.GRAYSCALE.apply(chunk, chunk, 0, length);
+                for (int i = 0; i < length; i++) {
+                    dst[start + i] = (byte) chunk[i];
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Sepia tone filter
+     */
+    public static BufferedImage sepia(BufferedImage image) {
+        return pointFilter(image, PointOps.SEPIA);
+    }
+
+    /**
+     * Apply point operations in order, fused into a single traversal
+     */
+    public static BufferedImage pointFilter(BufferedImage image, PointOp... ops) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage result = newRgbImage(width, height);
+        applyPointOps(readPixels(image), pixelsOf(result), width, height, ops);
+        return result;
+    }
+
+    /**
+     * Run point operations from src into dst. The first operation reads src and
+     * the rest work in place on dst one small chunk at a time, so a chain of
+     * operations touches each pixel while it is still in cache.
+     */
+    static void applyPointOps(int[] src, int[] dst, int width, int height, PointOp... ops) {
+        if (ops.length == 0) {
+            throw new IllegalArgumentException("At least one point operation is required");
+        }
+        forEachBand(width, height, (from, to) -> {
+            int end = to * width;
+            for (int start = from * width; start < end; start += CHUNK_PIXELS) {
+                int stop = Math.min(end, start + CHUNK_PIXELS);
+                ops[0].apply(src, dst, start, stop);
+                for (int k = 1; k < ops.length; k++) {
+                    ops[k].apply(dst, dst, start, stop);
+                }
+            }
+        });
+    }
+
+    /**
+     * Box blur over a (2 * radius + 1)^2 window clipped to the image bounds
+     */
+    public static BufferedImage blur(BufferedImage image, int radius) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("Blur radius must not be negative");
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] src = readPixels(image);
+        BufferedImage result = newRgbImage(width, height);
+        BoxBlur.pass(src, pixelsOf(result), width, height, radius, false);
+        return result;
+    }
+
+    /**
+     * Gaussian blur approximated by repeated box blur passes
+     * @param sigma standard deviation in pixels
+     */
+    public static BufferedImage gaussianBlur(BufferedImage image, double sigma) {
+        if (!(sigma >= 0)) {
+            throw new IllegalArgumentException("Gaussian sigma must not be negative");
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] src = readPixels(image);
+        BufferedImage result = newRgbImage(width, height);
+        BoxBlur.gaussian(src, pixelsOf(result), width, height, sigma);
+        return result;
+    }
+}
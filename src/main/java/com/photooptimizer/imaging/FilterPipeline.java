@@ -0,0 +1,186 @@
+package com.photooptimizer.imaging;
+
+import com.photooptimizer.imaging.PointOps.ChannelLut;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Filter chain compiled into as few image traversals as possible
+ * Consecutive point operations are fused into one per-pixel pass, and
+ * adjacent brightness/contrast/levels steps are folded into a single
+ * 256-entry lookup table. Neighbourhood filters (blurs) each take a pass
+ * of their own.
+ */
+public final class FilterPipeline {
+
+    /**
+     * One traversal of the image from src into dst
+     */
+    @FunctionalInterface
+    private interface Stage {
+        void apply(int[] src, int[] dst, int width, int height);
+    }
+
+    private final List<Stage> stages;
+    private final String signature;
+    private final int haloRows;
+
+    private FilterPipeline(List<Stage> stages, String signature, int haloRows) {
+        this.stages = stages;
+        this.signature = signature;
+        this.haloRows = haloRows;
+    }
+
+    /**
+     * Compile a filter chain, validating every step before any pixels are touched
+     */
+    public static FilterPipeline compile(List<FilterStep> steps) {
+        return compile(steps, 1.0);
+    }
+
+    /**
+     * Compile a filter chain for an image scaled by the given factor relative to
+     * the original (e.g. a preview proxy); blur radii are scaled to match so the
+     * result looks like a downscaled full-resolution render
+     */
+    public static FilterPipeline compile(List<FilterStep> steps, double scale) {
+        if (steps == null || steps.isEmpty()) {
+            throw new IllegalArgumentException("Filter chain is empty");
+        }
+
+        List<Stage> stages = new ArrayList<>();
+        List<PointOp> pending = new ArrayList<>();
+        StringJoiner signature = new StringJoiner(";");
+        int haloRows = 0;
+        for (FilterStep step : steps) {
+            switch (step.getType()) {
+                case "brightness":
+                case "contrast": {
+                    float factor = Float.parseFloat(step.getValue());
+                    addLut(pending, PointOps.scale(factor));
+                    signature.add(step.getType() + ":" + factor);
+                    break;
+                }
+                case "levels": {
+                    String[] parts = step.getValue().split(",");
+                    if (parts.length < 2 || parts.length > 3) {
+                        throw new IllegalArgumentException("Levels value must be 'black,white' or 'black,white,gamma'");
+                    }
+                    int black = Integer.parseInt(parts[0].trim());
+                    int white = Integer.parseInt(parts[1].trim());
+                    double gamma = parts.length == 3 ? Double.parseDouble(parts[2].trim()) : 1.0;
+                    addLut(pending, PointOps.levels(black, white, gamma));
+                    signature.add("levels:" + black + "," + white + "," + gamma);
+                    break;
+                }
+                case "grayscale":
+                case "sepia":
+                    pending.add(step.getType().equals("grayscale") ? PointOps.GRAYSCALE : PointOps.SEPIA);
+                    signature.add(step.getType());
+                    break;
+                case "blur":
+                case "box-blur": {
+                    int radius = Integer.parseInt(step.getValue());
+                    if (radius < 0) {
+                        throw new IllegalArgumentException("Blur radius must not be negative");
+                    }
+                    int scaledRadius = (int) Math.round(radius * scale);
+                    haloRows += scaledRadius;
+                    flushPointOps(stages, pending);
+                    stages.add((src, dst, width, height) -> BoxBlur.pass(src, dst, width, height, scaledRadius, false));
+                    signature.add("blur:" + radius);
+                    break;
+                }
+                case "gaussian-blur": {
+                    double sigma = Double.parseDouble(step.getValue());
+                    if (!(sigma >= 0)) {
+                        throw new IllegalArgumentException("Gaussian sigma must not be negative");
+                    }
+                    double scaledSigma = sigma * scale;
+                    for (int r : BoxBlur.gaussianRadii(scaledSigma)) {
+                        haloRows += r;
+                    }
+                    flushPointOps(stages, pending);
+                    stages.add((src, dst, width, height) -> BoxBlur.gaussian(src, dst, width, height, scaledSigma));
+                    signature.add("gaussian-blur:" + sigma);
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown filter type: " + step.getType());
+            }
+        }
+        flushPointOps(stages, pending);
+        return new FilterPipeline(stages, signature.toString(), haloRows);
+    }
+
+    /**
+     * Canonical form of the chain: aliases resolved, values re-rendered from
+     * their parsed numbers and ignored values dropped, so equivalent requests
+     * ("1.20" vs "1.2", "box-blur" vs "blur") produce the same string
+     */
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * Rows of context an output row depends on above and below it; a strip of
+     * the image rendered with this many extra rows on each side is exact
+     */
+    public int getHaloRows() {
+        return haloRows;
+    }
+
+    /**
+     * Number of full image traversals this pipeline performs
+     */
+    public int getPassCount() {
+        return stages.size();
+    }
+
+    /**
+     * Run the pipeline, returning a new TYPE_INT_RGB image
+     */
+    public BufferedImage apply(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage result = FilterEngine.newRgbImage(width, height);
+        apply(FilterEngine.readPixels(image), FilterEngine.pixelsOf(result), width, height);
+        return result;
+    }
+
+    /**
+     * Run the pipeline over packed pixels; src is never modified
+     */
+    public void apply(int[] src, int[] out, int width, int height) {
+        int[] scratch = stages.size() > 1 ? new int[width * height] : null;
+        // Ping-pong between out and scratch so that the last stage lands in out
+        int[] dst = stages.size() % 2 == 1 ? out : scratch;
+        int[] input = src;
+        for (Stage stage : stages) {
+            stage.apply(input, dst, width, height);
+            input = dst;
+            dst = dst == out ? scratch : out;
+        }
+    }
+
+    private static void addLut(List<PointOp> pending, ChannelLut lut) {
+        int last = pending.size() - 1;
+        if (last >= 0 && pending.get(last) instanceof ChannelLut previous) {
+            pending.set(last, previous.andThen(lut));
+        } else {
+            pending.add(lut);
+        }
+    }
+
+    private static void flushPointOps(List<Stage> stages, List<PointOp> pending) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        PointOp[] ops = pending.toArray(new PointOp[0]);
+        pending.clear();
+        stages.add((src, dst, width, height) -> FilterEngine.applyPointOps(src, dst, width, height, ops));
+    }
+}
@@ -0,0 +1,47 @@
+package com.photooptimizer.imaging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One entry of a filter chain: a filter type and its (possibly empty) value
+ */
+public final class FilterStep {
+
+    private final String type;
+    private final String value;
+
+    public FilterStep(String type, String value) {
+        if (type == null || type.isBlank()) {
+            throw new IllegalArgumentException("Filter type is required");
+        }
+        this.type = type.trim().toLowerCase();
+        this.value = value != null ? value.trim() : "";
+    }
+
+    /**
+     * Build a chain from request JSON of the form [{"type": "...", "value": ...}, ...]
+     */
+    public static List<FilterStep> fromRequest(List<Map<String, Object>> filters) {
+        if (filters == null || filters.isEmpty()) {
+            throw new IllegalArgumentException("Filter chain is empty");
+        }
+        List<FilterStep> chain = new ArrayList<>(filters.size());
+        for (Map<String, Object> filter : filters) {
+            Object type = filter.get("type");
+            Object value = filter.get("value");
+            chain.add(new FilterStep(type != null ? type.toString() : null, value != null ? value.toString() : null));
+        }
+        return chain;
+    }
+
+    public String getType() { return type; }
+
+    public String getValue() { return value; }
+
+    @Override
+    public String toString() {
+        return value.isEmpty() ? type : type + ":" + value;
+    }
+}
@@ -0,0 +1,54 @@
+package com.photooptimizer.imaging;
+
+import org.imgscalr.Scalr;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Decoding helpers that avoid materializing more pixels than needed
+ */
+public final class ImageDecoding {
+
+    private ImageDecoding() {
+    }
+
+    /**
+     * Decode with source subsampling so that large originals are never fully
+     * decoded, then resize so the longest edge is at most maxEdge
+     */
+    public static BufferedImage readDownscaled(File file, int maxEdge) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                throw new IOException("Cannot open image: " + file);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + file);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int longestEdge = Math.max(reader.getWidth(0), reader.getHeight(0));
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, longestEdge / maxEdge);
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage image = reader.read(0, param);
+
+                if (Math.max(image.getWidth(), image.getHeight()) > maxEdge) {
+                    image = Scalr.resize(image, Scalr.Method.BALANCED, maxEdge);
+                }
+                return image;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
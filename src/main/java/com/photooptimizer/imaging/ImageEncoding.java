@@ -0,0 +1,90 @@
+package com.photooptimizer.imaging;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+/**
+ * Encoding helpers with explicit quality control
+ */
+public final class ImageEncoding {
+
+    private ImageEncoding() {
+    }
+
+    /**
+     * Encode to a byte array
+     * @param quality 0..1 for lossy formats, ignored by lossless ones
+     */
+    public static byte[] encode(BufferedImage image, String format, float quality) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        write(image, format, quality, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Encode straight into an output stream
+     * @param quality 0..1 for lossy formats, ignored by lossless ones
+     */
+    public static void write(BufferedImage image, String format, float quality, OutputStream out) throws IOException {
+        String normalized = normalizeFormat(format);
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(normalized);
+        if (!writers.hasNext()) {
+            throw new IllegalArgumentException("No encoder available for format: " + format);
+        }
+        ImageWriter writer = writers.next();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed() && isLossy(normalized)) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(Math.max(0f, Math.min(1f, quality)));
+            }
+            // JPEG has no alpha channel
+            BufferedImage source = normalized.equals("jpeg") && image.getColorModel().hasAlpha() ? dropAlpha(image) : image;
+            writer.write(null, new IIOImage(source, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Canonical ImageIO format name ("jpg" -> "jpeg")
+     */
+    public static String normalizeFormat(String format) {
+        String lower = format.toLowerCase();
+        return lower.equals("jpg") ? "jpeg" : lower;
+    }
+
+    /**
+     * MIME type for a format name
+     */
+    public static String contentType(String format) {
+        return "image/" + normalizeFormat(format);
+    }
+
+    /**
+     * Whether the format's encoder takes a quality setting
+     */
+    public static boolean isLossy(String format) {
+        String normalized = normalizeFormat(format);
+        return normalized.equals("jpeg") || normalized.equals("webp");
+    }
+
+    private static BufferedImage dropAlpha(BufferedImage image) {
+        BufferedImage rgb = FilterEngine.newRgbImage(image.getWidth(), image.getHeight());
+        int[] src = FilterEngine.readPixels(image);
+        int[] dst = FilterEngine.pixelsOf(rgb);
+        for (int i = 0; i < src.length; i++) {
+            dst[i] = src[i] & 0xFFFFFF;
+        }
+        return rgb;
+    }
+}
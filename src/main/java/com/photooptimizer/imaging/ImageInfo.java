@@ -0,0 +1,63 @@
+package com.photooptimizer.imaging;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Format and dimensions of an image, read from its header only
+ */
+public final class ImageInfo {
+
+    private final String format;
+    private final int width;
+    private final int height;
+
+    public ImageInfo(String format, int width, int height) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Probe an image file without decoding any pixels
+     */
+    public static ImageInfo probe(File file) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                throw new IOException("Cannot open image: " + file);
+            }
+            return probe(input);
+        }
+    }
+
+    /**
+     * Probe an already opened image stream without decoding any pixels
+     */
+    public static ImageInfo probe(ImageInputStream input) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            throw new IOException("Unsupported image format");
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(input, true, true);
+            return new ImageInfo(reader.getFormatName().toLowerCase(), reader.getWidth(0), reader.getHeight(0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    public String getFormat() { return format; }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    public long getPixelCount() {
+        return (long) width * height;
+    }
+}
@@ -0,0 +1,94 @@
+package com.photooptimizer.imaging;
+
+/**
+ * Full-reference quality metrics between an image and its re-encoded copy
+ */
+public final class ImageQuality {
+
+    private static final int WINDOW = 8;
+    private static final int STRIDE = 4;
+    private static final double C1 = (0.01 * 255) * (0.01 * 255);
+    private static final double C2 = (0.03 * 255) * (0.03 * 255);
+
+    private ImageQuality() {
+    }
+
+    /**
+     * Mean SSIM of the luma channel over 8x8 windows placed every 4 pixels
+     * @return 1.0 for identical images, lower for more visible loss
+     */
+    public static double ssim(int[] reference, int[] distorted, int width, int height) {
+        checkSizes(reference, distorted, width, height);
+        // Images smaller than a window are compared as one window
+        int window = Math.min(WINDOW, Math.min(width, height));
+        float[] x = luma(reference, width * height);
+        float[] y = luma(distorted, width * height);
+        double n = window * window;
+        double total = 0;
+        int windows = 0;
+        for (int top = 0; top + window <= height; top += STRIDE) {
+            for (int left = 0; left + window <= width; left += STRIDE) {
+                double sumX = 0, sumY = 0, sumXX = 0, sumYY = 0, sumXY = 0;
+                for (int row = top; row < top + window; row++) {
+                    int base = row * width + left;
+                    for (int i = base; i < base + window; i++) {
+                        double a = x[i];
+                        double b = y[i];
+                        sumX += a;
+                        sumY += b;
+                        sumXX += a * a;
+                        sumYY += b * b;
+                        sumXY += a * b;
+                    }
+                }
+                double meanX = sumX / n;
+                double meanY = sumY / n;
+                double varX = sumXX / n - meanX * meanX;
+                double varY = sumYY / n - meanY * meanY;
+                double covariance = sumXY / n - meanX * meanY;
+                total += ((2 * meanX * meanY + C1) * (2 * covariance + C2))
+                    / ((meanX * meanX + meanY * meanY + C1) * (varX + varY + C2));
+                windows++;
+            }
+        }
+        return total / windows;
+    }
+
+    /**
+     * PSNR in dB over the R, G and B channels
+     * @return positive infinity for identical images
+     */
+    public static double psnr(int[] reference, int[] distorted, int width, int height) {
+        checkSizes(reference, distorted, width, height);
+        long squaredError = 0;
+        for (int i = 0; i < width * height; i++) {
+            int a = reference[i];
+            int b = distorted[i];
+            int dr = ((a >> 16) & 0xFF) - ((b >> 16) & 0xFF);
+            int dg = ((a >> 8) & 0xFF) - ((b >> 8) & 0xFF);
+            int db = (a & 0xFF) - (b & 0xFF);
+            squaredError += dr * dr + dg * dg + db * db;
+        }
+        if (squaredError == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double mse = (double) squaredError / (3.0 * width * height);
+        return 10 * Math.log10(255.0 * 255.0 / mse);
+    }
+
+    private static float[] luma(int[] pixels, int count) {
+        float[] luma = new float[count];
+        for (int i = 0; i < count; i++) {
+            int rgb = pixels[i];
+            luma[i] = 0.299f * ((rgb >> 16) & 0xFF) + 0.587f * ((rgb >> 8) & 0xFF) + 0.114f * (rgb & 0xFF);
+        }
+        return luma;
+    }
+
+    private static void checkSizes(int[] reference, int[] distorted, int width, int height) {
+        int pixels = width * height;
+        if (reference.length < pixels || distorted.length < pixels) {
+            throw new IllegalArgumentException("Pixel arrays are smaller than " + width + "x" + height);
+        }
+    }
+}
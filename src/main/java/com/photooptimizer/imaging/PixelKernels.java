@@ -0,0 +1,69 @@
+package com.photooptimizer.imaging;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Per-pixel arithmetic of the grayscale and sepia filters over packed 0xRRGGBB ints
+ * Two implementations exist: plain scalar loops, and data-parallel loops on
+ * the incubating Vector API that are only used when the JVM was started with
+ * --add-modules jdk.incubator.vector. Both produce identical pixels.
+ * (Brightness, contrast and levels stay 256-entry lookup tables: three table
+ * loads per pixel are already cheaper than vectorized float arithmetic.)
+ */
+public interface PixelKernels {
+
+    /**
+     * Luma grayscale
+     */
+    void grayscale(int[] src, int[] dst, int from, int to);
+
+    /**
+     * Sepia tone
+     */
+    void sepia(int[] src, int[] dst, int from, int to);
+
+    String getName();
+
+    /**
+     * Pick the fastest implementation this JVM supports. The vector kernels are
+     * loaded reflectively so that nothing links against jdk.incubator.vector
+     * unless the module is present, and they are checked against the scalar
+     * kernels once before being trusted. -Dphoto.simd=false forces scalar code.
+     */
+    static PixelKernels select() {
+        PixelKernels scalar = new ScalarPixelKernels();
+        if (!Boolean.parseBoolean(System.getProperty("photo.simd", "true"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            System.out.println("Pixel kernels: " + scalar.getName());
+            return scalar;
+        }
+        try {
+            PixelKernels vector = (PixelKernels) Class.forName("com.photooptimizer.imaging.VectorPixelKernels")
+                .getDeclaredConstructor().newInstance();
+            if (sameResults(scalar, vector)) {
+                System.out.println("Pixel kernels: " + vector.getName());
+                return vector;
+            }
+            System.err.println("Vector pixel kernels disagree with scalar kernels, using scalar code");
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.err.println("Vector pixel kernels unavailable, using scalar code: " + e);
+        }
+        return scalar;
+    }
+
+    private static boolean sameResults(PixelKernels expected, PixelKernels actual) {
+        // Odd length so that the vector tail loops run as well
+        int[] src = new Random(42).ints(1027).toArray();
+        int[] a = new int[src.length];
+        int[] b = new int[src.length];
+        expected.grayscale(src, a, 0, src.length);
+        actual.grayscale(src, b, 0, src.length);
+        if (!Arrays.equals(a, b)) {
+            return false;
+        }
+        expected.sepia(src, a, 0, src.length);
+        actual.sepia(src, b, 0, src.length);
+        return Arrays.equals(a, b);
+    }
+}
@@ -0,0 +1,12 @@
+package com.photooptimizer.imaging;
+
+/**
+ * Per-pixel filter operation over a range of packed 0xRRGGBB pixels
+ * Implementations must allow src and dst to be the same array so that
+ * several operations can be fused over one cache-resident chunk.
+ */
+@FunctionalInterface
+public interface PointOp {
+
+    void apply(int[] src, int[] dst, int from, int to);
+}
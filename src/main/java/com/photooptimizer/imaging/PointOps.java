@@ -0,0 +1,88 @@
+package com.photooptimizer.imaging;
+
+/**
+ * Point operations used by the filter engine
+ * Channel-wise operations (brightness, contrast, levels) are 256-entry lookup
+ * tables so that adjacent ones can be folded into a single table.
+ */
+public final class PointOps {
+
+    /** Kernels picked once per JVM: Vector API when available, scalar loops otherwise */
+    private static final PixelKernels KERNELS = PixelKernels.select();
+
+    /** Luma grayscale */
+    public static final PointOp GRAYSCALE = KERNELS::grayscale;
+
+    /** Sepia tone */
+    public static final PointOp SEPIA = KERNELS::sepia;
+
+    private PointOps() {
+    }
+
+    /**
+     * Kernels in use by the grayscale and sepia filters
+     */
+    public static PixelKernels kernels() {
+        return KERNELS;
+    }
+
+    /**
+     * Multiply every channel by a factor, clamping to [0, 255]
+     */
+    public static ChannelLut scale(float factor) {
+        int[] table = new int[256];
+        for (int c = 0; c < 256; c++) {
+            table[c] = (int) Math.min(255, Math.max(0, c * factor));
+        }
+        return new ChannelLut(table);
+    }
+
+    /**
+     * Stretch [black, white] to [0, 255] with an optional gamma correction
+     */
+    public static ChannelLut levels(int black, int white, double gamma) {
+        if (black < 0 || white > 255 || black >= white) {
+            throw new IllegalArgumentException("Levels need 0 <= black < white <= 255");
+        }
+        if (!(gamma > 0)) {
+            throw new IllegalArgumentException("Levels gamma must be positive");
+        }
+        int[] table = new int[256];
+        for (int c = 0; c < 256; c++) {
+            double normalized = Math.min(1.0, Math.max(0.0, (c - black) / (double) (white - black)));
+            table[c] = (int) Math.round(255 * Math.pow(normalized, 1.0 / gamma));
+        }
+        return new ChannelLut(table);
+    }
+
+    /**
+     * Same table applied to the red, green and blue channel
+     */
+    public static final class ChannelLut implements PointOp {
+        private final int[] table;
+
+        ChannelLut(int[] table) {
+            this.table = table;
+        }
+
+        /**
+         * Table equivalent to applying this one and then next
+         */
+        public ChannelLut andThen(ChannelLut next) {
+            int[] folded = new int[256];
+            for (int c = 0; c < 256; c++) {
+                folded[c] = next.table[table[c]];
+            }
+            return new ChannelLut(folded);
+        }
+
+        @Override
+        public void apply(int[] src, int[] dst, int from, int to) {
+            int[] lut = table;
+            for (int i = from; i < to; i++) {
+                int rgb = src[i];
+                dst[i] = (lut[(rgb >> 16) & 0xFF] << 16) | (lut[(rgb >> 8) & 0xFF] << 8) | lut[rgb & 0xFF];
+            }
+        }
+    }
+}
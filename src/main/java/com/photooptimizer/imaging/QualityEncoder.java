@@ -0,0 +1,229 @@
+package com.photooptimizer.imaging;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Re-encodes an image at the lowest encoder quality that still meets a
+ * {@link QualityTarget}
+ * The quality is binary-searched on a small probe of the image (a few
+ * encode/decode round trips of ~0.25 MP), and only the chosen quality is
+ * used for the full-size encode. Lossless formats are encoded once with the
+ * configured deflate level.
+ */
+public final class QualityEncoder {
+
+    /** Edge of one full-resolution tile of the search probe */
+    private static final int PROBE_TILE = 64;
+
+    /** Corrective full encodes when a byte target is missed on the real image */
+    private static final int MAX_BYTE_CORRECTIONS = 3;
+    private static final int BYTE_CORRECTION_STEP = 5;
+
+    private final int minQuality;
+    private final int maxQuality;
+    private final int probeEdge;
+    private final int pngCompression;
+
+    /**
+     * @param minQuality lowest encoder quality the search may pick, 1..100
+     * @param maxQuality highest encoder quality, 1..100
+     * @param probeEdge edge of the square search probe in pixels
+     * @param pngCompression deflate level 0..9 for lossless output
+     */
+    public QualityEncoder(int minQuality, int maxQuality, int probeEdge, int pngCompression) {
+        if (minQuality < 1 || maxQuality > 100 || minQuality > maxQuality) {
+            throw new IllegalArgumentException("Invalid quality range " + minQuality + ".." + maxQuality);
+        }
+        this.minQuality = minQuality;
+        this.maxQuality = maxQuality;
+        this.probeEdge = probeEdge;
+        this.pngCompression = pngCompression;
+    }
+
+    /**
+     * Encode the image in the given format to meet the target
+     */
+    public Result encode(BufferedImage image, String format, QualityTarget target) throws IOException {
+        String normalized = ImageEncoding.normalizeFormat(format);
+        if (!ImageEncoding.isLossy(normalized)) {
+            return new Result(encodeLossless(image, normalized), 100, Double.NaN, 0);
+        }
+        if (target.getKind() == QualityTarget.Kind.FIXED) {
+            return new Result(encodeAt(image, normalized, maxQuality), maxQuality, Double.NaN, 0);
+        }
+
+        Probe probe = new Probe(image, normalized);
+        if (target.getKind() == QualityTarget.Kind.BYTES) {
+            return encodeToSize(image, normalized, (long) target.getValue(), probe);
+        }
+
+        // Lowest quality whose probe meets the threshold; metrics grow with quality
+        int low = minQuality;
+        int high = maxQuality;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (probe.metric(mid, target.getKind()) >= target.getValue()) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        double metric = probe.metric(low, target.getKind());
+        return new Result(encodeAt(image, normalized, low), low, metric, probe.encodes());
+    }
+
+    private Result encodeToSize(BufferedImage image, String format, long maxBytes, Probe probe) throws IOException {
+        // Highest quality whose probe, scaled up by pixel count, fits the budget
+        double pixelRatio = (double) image.getWidth() * image.getHeight() / probe.pixelCount();
+        int low = minQuality;
+        int high = maxQuality;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (probe.bytes(mid).length * pixelRatio <= maxBytes) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        // The estimate is only an estimate: step down while the real encode is too big
+        int quality = low;
+        byte[] bytes = encodeAt(image, format, quality);
+        for (int i = 0; i < MAX_BYTE_CORRECTIONS && bytes.length > maxBytes && quality > minQuality; i++) {
+            quality = Math.max(minQuality, quality - BYTE_CORRECTION_STEP);
+            bytes = encodeAt(image, format, quality);
+        }
+        return new Result(bytes, quality, Double.NaN, probe.encodes());
+    }
+
+    /**
+     * Start of the index-th of count tiles of the given size spread evenly over length pixels
+     */
+    private static int alignedOffset(int index, int count, int length, int tile) {
+        int span = length - tile;
+        int offset = count > 1 ? (int) ((long) span * index / (count - 1)) : span / 2;
+        return Math.min(span, offset & ~15);
+    }
+
+    private static byte[] encodeAt(BufferedImage image, String format, int quality) throws IOException {
+        return ImageEncoding.encode(image, format, quality / 100f);
+    }
+
+    private byte[] encodeLossless(BufferedImage image, String format) throws IOException {
+        if (!format.equals("png") || image.getColorModel().hasAlpha()) {
+            return ImageEncoding.encode(image, format, 1f);
+        }
+        // Our own writer honours the configured deflate level; ImageIO's does not
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        StreamingPngWriter writer = new StreamingPngWriter(out, image.getWidth(), image.getHeight(), pngCompression);
+        writer.writeRows(FilterEngine.readPixels(image), 0, image.getHeight());
+        writer.finish();
+        return out.toByteArray();
+    }
+
+    /**
+     * Small copy of the image and its encodes, one per quality tried
+     */
+    private final class Probe {
+        private final BufferedImage image;
+        private final int[] pixels;
+        private final String format;
+        private final Map<Integer, byte[]> encoded = new HashMap<>();
+
+        Probe(BufferedImage source, String format) {
+            this.image = source.getWidth() > probeEdge || source.getHeight() > probeEdge
+                ? mosaic(source)
+                : source;
+            this.pixels = FilterEngine.readPixels(image);
+            this.format = format;
+        }
+
+        /**
+         * probeEdge x probeEdge image of full-resolution tiles taken on an even
+         * grid across the source
+         * Tiles keep the source's fine detail, which a downscaled copy would
+         * average away (and so overrate every quality). Tiles are placed on
+         * 16-pixel boundaries so no JPEG block straddles two of them. Along an
+         * edge shorter than a tile (a strip-shaped image), tiles span the whole edge.
+         */
+        private BufferedImage mosaic(BufferedImage source) {
+            int tileWidth = Math.min(PROBE_TILE, source.getWidth());
+            int tileHeight = Math.min(PROBE_TILE, source.getHeight());
+            int columns = Math.max(1, Math.min(source.getWidth(), probeEdge) / tileWidth);
+            int rows = Math.max(1, Math.min(source.getHeight(), probeEdge) / tileHeight);
+            BufferedImage mosaic = FilterEngine.newRgbImage(columns * tileWidth, rows * tileHeight);
+            int[] src = FilterEngine.readPixels(source);
+            int[] dst = FilterEngine.pixelsOf(mosaic);
+            for (int row = 0; row < rows; row++) {
+                int sourceY = alignedOffset(row, rows, source.getHeight(), tileHeight);
+                for (int column = 0; column < columns; column++) {
+                    int sourceX = alignedOffset(column, columns, source.getWidth(), tileWidth);
+                    for (int y = 0; y < tileHeight; y++) {
+                        System.arraycopy(src, (sourceY + y) * source.getWidth() + sourceX,
+                            dst, (row * tileHeight + y) * mosaic.getWidth() + column * tileWidth, tileWidth);
+                    }
+                }
+            }
+            return mosaic;
+        }
+
+        byte[] bytes(int quality) throws IOException {
+            byte[] bytes = encoded.get(quality);
+            if (bytes == null) {
+                bytes = encodeAt(image, format, quality);
+                encoded.put(quality, bytes);
+            }
+            return bytes;
+        }
+
+        double metric(int quality, QualityTarget.Kind kind) throws IOException {
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(bytes(quality)));
+            int[] decodedPixels = FilterEngine.readPixels(decoded);
+            return kind == QualityTarget.Kind.SSIM
+                ? ImageQuality.ssim(pixels, decodedPixels, image.getWidth(), image.getHeight())
+                : ImageQuality.psnr(pixels, decodedPixels, image.getWidth(), image.getHeight());
+        }
+
+        long pixelCount() {
+            return (long) image.getWidth() * image.getHeight();
+        }
+
+        int encodes() {
+            return encoded.size();
+        }
+    }
+
+    /**
+     * Encoded bytes and how they were obtained
+     */
+    public static final class Result {
+        private final byte[] bytes;
+        private final int quality;
+        private final double metric;
+        private final int probeEncodes;
+
+        Result(byte[] bytes, int quality, double metric, int probeEncodes) {
+            this.bytes = bytes;
+            this.quality = quality;
+            this.metric = metric;
+            this.probeEncodes = probeEncodes;
+        }
+
+        public byte[] getBytes() { return bytes; }
+
+        /** Encoder quality used, 1..100 (100 for lossless output) */
+        public int getQuality() { return quality; }
+
+        /** SSIM or PSNR measured on the probe at that quality, NaN when not measured */
+        public double getMetric() { return metric; }
+
+        /** Encodes of the probe spent on the search */
+        public int getProbeEncodes() { return probeEncodes; }
+    }
+}
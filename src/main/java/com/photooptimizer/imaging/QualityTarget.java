@@ -0,0 +1,78 @@
+package com.photooptimizer.imaging;
+
+/**
+ * What a re-encode has to achieve: a minimum SSIM or PSNR against the
+ * source, a maximum encoded size, or simply a fixed encoder quality
+ */
+public final class QualityTarget {
+
+    /**
+     * Kind of target
+     */
+    public enum Kind {
+        SSIM, PSNR, BYTES, FIXED
+    }
+
+    private final Kind kind;
+    private final double value;
+
+    private QualityTarget(Kind kind, double value) {
+        this.kind = kind;
+        this.value = value;
+    }
+
+    /**
+     * Lowest quality whose SSIM is at least the threshold (e.g. 0.985)
+     */
+    public static QualityTarget ssim(double threshold) {
+        if (!(threshold > 0 && threshold <= 1)) {
+            throw new IllegalArgumentException("SSIM target must be in (0, 1]: " + threshold);
+        }
+        return new QualityTarget(Kind.SSIM, threshold);
+    }
+
+    /**
+     * Lowest quality whose PSNR is at least the threshold in dB (e.g. 40)
+     */
+    public static QualityTarget psnr(double decibels) {
+        if (!(decibels > 0)) {
+            throw new IllegalArgumentException("PSNR target must be positive: " + decibels);
+        }
+        return new QualityTarget(Kind.PSNR, decibels);
+    }
+
+    /**
+     * Highest quality whose output fits in the given number of bytes
+     */
+    public static QualityTarget bytes(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Byte target must be positive: " + maxBytes);
+        }
+        return new QualityTarget(Kind.BYTES, maxBytes);
+    }
+
+    /**
+     * No search: always the maximum quality
+     */
+    public static QualityTarget fixed() {
+        return new QualityTarget(Kind.FIXED, 0);
+    }
+
+    public Kind getKind() { return kind; }
+
+    public double getValue() { return value; }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case SSIM:
+                return "ssim>=" + value;
+            case PSNR:
+                return "psnr>=" + value + "dB";
+            case BYTES:
+                return "bytes<=" + (long) value;
+            default:
+                return "fixed";
+        }
+    }
+}
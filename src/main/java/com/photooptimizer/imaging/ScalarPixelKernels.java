@@ -0,0 +1,35 @@
+package com.photooptimizer.imaging;
+
+/**
+ * Plain loop pixel kernels, the reference arithmetic of the point filters
+ */
+final class ScalarPixelKernels implements PixelKernels {
+
+    @Override
+    public void grayscale(int[] src, int[] dst, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int rgb = src[i];
+            int gray = (int) (0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF) + 0.114 * (rgb & 0xFF));
+            dst[i] = (gray << 16) | (gray << 8) | gray;
+        }
+    }
+
+    @Override
+    public void sepia(int[] src, int[] dst, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int rgb = src[i];
+            int r = (rgb >> 16) & 0xFF;
+            int g = (rgb >> 8) & 0xFF;
+            int b = rgb & 0xFF;
+            int newR = Math.min(255, (int) (0.393 * r + 0.769 * g + 0.189 * b));
+            int newG = Math.min(255, (int) (0.349 * r + 0.686 * g + 0.168 * b));
+            int newB = Math.min(255, (int) (0.272 * r + 0.534 * g + 0.131 * b));
+            dst[i] = (newR << 16) | (newG << 8) | newB;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+}
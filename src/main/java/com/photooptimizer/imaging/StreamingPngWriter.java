@@ -0,0 +1,213 @@
+package com.photooptimizer.imaging;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Incremental 8-bit RGB PNG encoder
+ * Rows are filtered, deflated and flushed in IDAT chunks as they arrive, so
+ * an image of any height can be written while holding only a few rows.
+ * (ImageIO's PNG writer needs the whole image up front.)
+ */
+public final class StreamingPngWriter {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int IDAT_CHUNK_SIZE = 64 * 1024;
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final Deflater deflater;
+    private final DeflaterOutputStream idat;
+
+    private byte[] previousRow;
+    private byte[] currentRow;
+    private final byte[][] candidates = new byte[5][];
+    private int rowsWritten;
+
+    /**
+     * Write the PNG signature and header
+     * @param compressionLevel deflate level 0..9
+     */
+    public StreamingPngWriter(OutputStream out, int width, int height, int compressionLevel) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        this.previousRow = new byte[width * 3];
+        this.currentRow = new byte[width * 3];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = new byte[width * 3 + 1];
+        }
+
+        this.out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;  // bit depth
+        header[9] = 2;  // color type: truecolor
+        header[10] = 0; // deflate
+        header[11] = 0; // adaptive filtering
+        header[12] = 0; // no interlace
+        writeChunk("IHDR", header, header.length);
+
+        this.deflater = new Deflater(Math.max(0, Math.min(9, compressionLevel)));
+        this.idat = new DeflaterOutputStream(new IdatOutputStream(), deflater, IDAT_CHUNK_SIZE);
+    }
+
+    /**
+     * Append rows of packed 0xRRGGBB pixels
+     */
+    public void writeRows(int[] pixels, int offset, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IllegalStateException("More rows written than the declared height " + height);
+        }
+        for (int row = 0; row < rows; row++) {
+            int base = offset + row * width;
+            for (int x = 0, i = 0; x < width; x++) {
+                int rgb = pixels[base + x];
+                currentRow[i++] = (byte) (rgb >> 16);
+                currentRow[i++] = (byte) (rgb >> 8);
+                currentRow[i++] = (byte) rgb;
+            }
+            byte[] filtered = filterRow(currentRow, previousRow);
+            idat.write(filtered, 0, filtered.length);
+
+            byte[] swap = previousRow;
+            previousRow = currentRow;
+            currentRow = swap;
+            rowsWritten++;
+        }
+    }
+
+    /**
+     * Flush the compressed stream and write the trailer; does not close the target stream
+     */
+    public void finish() throws IOException {
+        if (rowsWritten != height) {
+            throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows were written");
+        }
+        idat.finish();
+        idat.flush();
+        deflater.end();
+        writeChunk("IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    /**
+     * Pick the PNG filter with the smallest sum of absolute values (the usual
+     * adaptive heuristic) and return the filter byte followed by the row
+     */
+    private byte[] filterRow(byte[] row, byte[] prior) {
+        int length = row.length;
+        long bestSum = Long.MAX_VALUE;
+        byte[] best = null;
+        for (int type = 0; type < 5; type++) {
+            byte[] candidate = candidates[type];
+            candidate[0] = (byte) type;
+            long sum = 0;
+            for (int i = 0; i < length; i++) {
+                int raw = row[i] & 0xFF;
+                int left = i >= 3 ? row[i - 3] & 0xFF : 0;
+                int up = rowsWritten > 0 ? prior[i] & 0xFF : 0;
+                int upLeft = rowsWritten > 0 && i >= 3 ? prior[i - 3] & 0xFF : 0;
+                int predicted;
+                switch (type) {
+                    case 1: predicted = left; break;
+                    case 2: predicted = up; break;
+                    case 3: predicted = (left + up) >> 1; break;
+                    case 4: predicted = paeth(left, up, upLeft); break;
+                    default: predicted = 0; break;
+                }
+                byte value = (byte) (raw - predicted);
+                candidate[i + 1] = value;
+                sum += Math.abs((int) value);
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Collects deflated bytes and emits them as IDAT chunks
+     */
+    private final class IdatOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[IDAT_CHUNK_SIZE];
+        private int count;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushChunk();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk("IDAT", buffer, count);
+                count = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.photooptimizer.imaging;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Pixel-level delta between an image and the image it was edited from
+ * Both are cut into square tiles; only tiles with a changed pixel are stored,
+ * as the XOR of the two ARGB values, which is zero wherever the edit left a
+ * pixel alone and deflates to almost nothing. A text overlay on a photo
+ * touches a handful of tiles, so the delta is a small fraction of a full copy.
+ * Format (deflated): magic, base id, width, height, tile size, alpha flag, then per
+ * changed tile its index (row-major) and its XORed pixels, then -1.
+ */
+public final class TileDelta {
+
+    public static final String EXTENSION = "ptd";
+
+    private static final int MAGIC = 0x50544431; // "PTD1"
+    private static final int END = -1;
+
+    private TileDelta() {
+    }
+
+    /**
+     * Delta that turns base into target, or null if their dimensions differ
+     * @param baseId names the base, so that the same change made to different
+     *        bases never gives the same bytes (and stored blob)
+     */
+    public static byte[] encode(BufferedImage base, BufferedImage target, int tileSize, String baseId) {
+        int width = target.getWidth();
+        int height = target.getHeight();
+        if (base.getWidth() != width || base.getHeight() != height) {
+            return null;
+        }
+        int tilesAcross = (width + tileSize - 1) / tileSize;
+        int tilesDown = (height + tileSize - 1) / tileSize;
+
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new DeflaterOutputStream(delta, deflater, 8192), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(baseId);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(tileSize);
+            out.writeBoolean(target.getColorModel().hasAlpha());
+            // One band of tiles at a time, so neither image is copied whole
+            int[] basePixels = new int[width * tileSize];
+            int[] targetPixels = new int[width * tileSize];
+            for (int ty = 0; ty < tilesDown; ty++) {
+                int y = ty * tileSize;
+                int rows = Math.min(tileSize, height - y);
+                base.getRGB(0, y, width, rows, basePixels, 0, width);
+                target.getRGB(0, y, width, rows, targetPixels, 0, width);
+                for (int tx = 0; tx < tilesAcross; tx++) {
+                    int x = tx * tileSize;
+                    int columns = Math.min(tileSize, width - x);
+                    if (sameTile(basePixels, targetPixels, width, x, columns, rows)) {
+                        continue;
+                    }
+                    out.writeInt(ty * tilesAcross + tx);
+                    for (int row = 0; row < rows; row++) {
+                        int offset = row * width + x;
+                        for (int column = 0; column < columns; column++) {
+                            out.writeInt(basePixels[offset + column] ^ targetPixels[offset + column]);
+                        }
+                    }
+                }
+            }
+            out.writeInt(END);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            deflater.end();
+        }
+        return delta.toByteArray();
+    }
+
+    /**
+     * Rebuild the target from the base and a delta made by encode
+     * @throws IllegalStateException if the delta is corrupt or does not fit the base
+     */
+    public static BufferedImage apply(BufferedImage base, byte[] delta) {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(delta)), 64 * 1024))) {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalStateException("Not a tile delta");
+            }
+            in.readUTF();
+            int width = in.readInt();
+            int height = in.readInt();
+            int tileSize = in.readInt();
+            boolean alpha = in.readBoolean();
+            if (width != base.getWidth() || height != base.getHeight()) {
+                throw new IllegalStateException("Tile delta is for a " + width + "x" + height
+                    + " image, base is " + base.getWidth() + "x" + base.getHeight());
+            }
+            if (tileSize < 1) {
+                throw new IllegalStateException("Corrupt tile delta header");
+            }
+            int tilesAcross = (width + tileSize - 1) / tileSize;
+            int tilesDown = (height + tileSize - 1) / tileSize;
+
+            BufferedImage result = new BufferedImage(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            int[] pixels = new int[width * tileSize];
+            int next = in.readInt();
+            for (int ty = 0; ty < tilesDown; ty++) {
+                int y = ty * tileSize;
+                int rows = Math.min(tileSize, height - y);
+                base.getRGB(0, y, width, rows, pixels, 0, width);
+                // Tiles were written in row-major order, so this band's come next
+                while (next != END && next / tilesAcross == ty) {
+                    int x = (next % tilesAcross) * tileSize;
+                    int columns = Math.min(tileSize, width - x);
+                    for (int row = 0; row < rows; row++) {
+                        int offset = row * width + x;
+                        for (int column = 0; column < columns; column++) {
+                            pixels[offset + column] ^= in.readInt();
+                        }
+                    }
+                    next = in.readInt();
+                }
+                result.setRGB(0, y, width, rows, pixels, 0, width);
+            }
+            if (next != END) {
+                throw new IllegalStateException("Corrupt tile delta: tile " + next + " is out of range");
+            }
+            return result;
+        } catch (EOFException | ZipException e) {
+            throw new IllegalStateException("Corrupt tile delta", e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean sameTile(int[] base, int[] target, int stride, int x, int columns, int rows) {
+        for (int row = 0; row < rows; row++) {
+            int offset = row * stride + x;
+            for (int column = 0; column < columns; column++) {
+                if (base[offset + column] != target[offset + column]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
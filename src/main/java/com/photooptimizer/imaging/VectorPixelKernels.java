@@ -0,0 +1,90 @@
+package com.photooptimizer.imaging;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Pixel kernels on the incubating Vector API
+ * Only loaded through {@link PixelKernels#select()}. Every lane performs the
+ * same IEEE operations in the same order as the scalar arithmetic (no fused
+ * multiply-add), so the results are bit-identical; the remainder of each
+ * range that does not fill a vector runs through the scalar kernels.
+ * JDK 17 does not compile double to int lane conversions into vector
+ * instructions, so truncation uses the add-2^52 trick instead, which is exact
+ * for the small non-negative values produced here. Loop bodies are written
+ * out without helper methods so that C2 keeps every vector in registers.
+ */
+final class VectorPixelKernels implements PixelKernels {
+
+    /** Double lanes for the luma/sepia weights, and int lanes of half the width and the same count */
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS =
+        VectorSpecies.of(int.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+
+    /** Adding this leaves a small non-negative value rounded to an integer in the low mantissa bits */
+    private static final double DOUBLE_ROUNDER = 0x1.0p52;
+    private static final long DOUBLE_ROUNDER_BITS = Double.doubleToLongBits(DOUBLE_ROUNDER);
+
+    private final ScalarPixelKernels tail = new ScalarPixelKernels();
+
+    @Override
+    public void grayscale(int[] src, int[] dst, int from, int to) {
+        int i = from;
+        for (int bound = from + INTS.loopBound(to - from); i < bound; i += INTS.length()) {
+            IntVector rgb = IntVector.fromArray(INTS, src, i);
+            DoubleVector r = (DoubleVector) rgb.lanewise(VectorOperators.LSHR, 16).and(0xFF)
+                .convertShape(VectorOperators.I2D, DOUBLES, 0);
+            DoubleVector g = (DoubleVector) rgb.lanewise(VectorOperators.LSHR, 8).and(0xFF)
+                .convertShape(VectorOperators.I2D, DOUBLES, 0);
+            DoubleVector b = (DoubleVector) rgb.and(0xFF).convertShape(VectorOperators.I2D, DOUBLES, 0);
+            DoubleVector luma = r.mul(0.299).add(g.mul(0.587)).add(b.mul(0.114));
+
+            // (int) luma
+            DoubleVector rounded = luma.add(DOUBLE_ROUNDER).sub(DOUBLE_ROUNDER);
+            rounded = rounded.sub(1.0, rounded.compare(VectorOperators.GT, luma));
+            IntVector gray = (IntVector) rounded.add(DOUBLE_ROUNDER).reinterpretAsLongs().sub(DOUBLE_ROUNDER_BITS)
+                .convertShape(VectorOperators.L2I, INTS, 0);
+
+            gray.lanewise(VectorOperators.LSHL, 16).or(gray.lanewise(VectorOperators.LSHL, 8)).or(gray).intoArray(dst, i);
+        }
+        tail.grayscale(src, dst, i, to);
+    }
+
+    @Override
+    public void sepia(int[] src, int[] dst, int from, int to) {
+        int i = from;
+        for (int bound = from + INTS.loopBound(to - from); i < bound; i += INTS.length()) {
+            IntVector rgb = IntVector.fromArray(INTS, src, i);
+            DoubleVector r = (DoubleVector) rgb.lanewise(VectorOperators.LSHR, 16).and(0xFF)
+                .convertShape(VectorOperators.I2D, DOUBLES, 0);
+            DoubleVector g = (DoubleVector) rgb.lanewise(VectorOperators.LSHR, 8).and(0xFF)
+                .convertShape(VectorOperators.I2D, DOUBLES, 0);
+            DoubleVector b = (DoubleVector) rgb.and(0xFF).convertShape(VectorOperators.I2D, DOUBLES, 0);
+            DoubleVector toneR = r.mul(0.393).add(g.mul(0.769)).add(b.mul(0.189));
+            DoubleVector toneG = r.mul(0.349).add(g.mul(0.686)).add(b.mul(0.168));
+            DoubleVector toneB = r.mul(0.272).add(g.mul(0.534)).add(b.mul(0.131));
+
+            // Math.min(255, (int) tone)
+            DoubleVector roundedR = toneR.add(DOUBLE_ROUNDER).sub(DOUBLE_ROUNDER);
+            DoubleVector roundedG = toneG.add(DOUBLE_ROUNDER).sub(DOUBLE_ROUNDER);
+            DoubleVector roundedB = toneB.add(DOUBLE_ROUNDER).sub(DOUBLE_ROUNDER);
+            roundedR = roundedR.sub(1.0, roundedR.compare(VectorOperators.GT, toneR)).min(255.0);
+            roundedG = roundedG.sub(1.0, roundedG.compare(VectorOperators.GT, toneG)).min(255.0);
+            roundedB = roundedB.sub(1.0, roundedB.compare(VectorOperators.GT, toneB)).min(255.0);
+            LongVector packed = roundedR.add(DOUBLE_ROUNDER).reinterpretAsLongs().sub(DOUBLE_ROUNDER_BITS).lanewise(VectorOperators.LSHL, 16)
+                .or(roundedG.add(DOUBLE_ROUNDER).reinterpretAsLongs().sub(DOUBLE_ROUNDER_BITS).lanewise(VectorOperators.LSHL, 8))
+                .or(roundedB.add(DOUBLE_ROUNDER).reinterpretAsLongs().sub(DOUBLE_ROUNDER_BITS));
+            ((IntVector) packed.convertShape(VectorOperators.L2I, INTS, 0)).intoArray(dst, i);
+        }
+        tail.sepia(src, dst, i, to);
+    }
+
+    @Override
+    public String getName() {
+        return "vector (" + INTS.length() + " lanes)";
+    }
+}
@@ -0,0 +1,51 @@
+package com.photooptimizer.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Editor canvas document of a photo, kept apart from the photo row so that
+ * metadata reads never carry it; the JSON is stored deflated
+ */
+@Entity
+@Table(name = "canvas_states")
+public class CanvasState {
+    
+    @Id
+    private Long photoId;
+    
+    /** Deflate-compressed UTF-8 JSON */
+    @Lob
+    @Column(nullable = false)
+    private byte[] state;
+    
+    /** Length of the JSON in bytes before compression */
+    @Column(nullable = false)
+    private Integer rawSize;
+    
+    @Column(nullable = false)
+    private LocalDateTime updatedAt;
+    
+    // Constructors
+    public CanvasState() {}
+    
+    public CanvasState(Long photoId, byte[] state, Integer rawSize) {
+        this.photoId = photoId;
+        this.state = state;
+        this.rawSize = rawSize;
+        this.updatedAt = LocalDateTime.now();
+    }
+    
+    // Getters and Setters
+    public Long getPhotoId() { return photoId; }
+    public void setPhotoId(Long photoId) { this.photoId = photoId; }
+    
+    public byte[] getState() { return state; }
+    public void setState(byte[] state) { this.state = state; }
+    
+    public Integer getRawSize() { return rawSize; }
+    public void setRawSize(Integer rawSize) { this.rawSize = rawSize; }
+    
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
@@ -0,0 +1,67 @@
+package com.photooptimizer.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * One saved version of a photo's canvas document: either a full snapshot or
+ * a binary delta against the previous version
+ */
+@Entity
+@Table(name = "canvas_state_versions", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_canvas_state_versions_photo_version", columnNames = {"photoId", "version"})
+})
+public class CanvasStateVersion {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(nullable = false)
+    private Long photoId;
+    
+    /** 1, 2, 3... per photo */
+    @Column(nullable = false)
+    private Integer version;
+    
+    /** Whether data is the whole document rather than a delta */
+    @Column(nullable = false)
+    private Boolean snapshot;
+    
+    /** Deflated UTF-8 JSON for snapshots, deflated ByteDelta otherwise */
+    @Lob
+    @Column(nullable = false)
+    private byte[] data;
+    
+    /** Length of the document at this version in bytes */
+    @Column(nullable = false)
+    private Integer rawSize;
+    
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+    
+    // Constructors
+    public CanvasStateVersion() {}
+    
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    
+    public Long getPhotoId() { return photoId; }
+    public void setPhotoId(Long photoId) { this.photoId = photoId; }
+    
+    public Integer getVersion() { return version; }
+    public void setVersion(Integer version) { this.version = version; }
+    
+    public Boolean getSnapshot() { return snapshot; }
+    public void setSnapshot(Boolean snapshot) { this.snapshot = snapshot; }
+    
+    public byte[] getData() { return data; }
+    public void setData(byte[] data) { this.data = data; }
+    
+    public Integer getRawSize() { return rawSize; }
+    public void setRawSize(Integer rawSize) { this.rawSize = rawSize; }
+    
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
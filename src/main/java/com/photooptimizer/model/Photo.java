@@ -7,7 +7,14 @@ import java.time.LocalDateTime;
  * Simple Photo entity for storing photo information
  */
 @Entity
-@Table(name = "photos")
+@Table(name = "photos", indexes = {
+    @Index(name = "idx_photos_content_hash", columnList = "contentHash"),
+    // Listing order; serves the keyset seek of PhotoRepository.findActiveSummaries*
+    @Index(name = "idx_photos_active_uploaded", columnList = "isActive, uploadedAt, id"),
+    // Version graph: PhotoRepository.findByRootIdOrderByIdAsc (lineage) and the delta versions of a parent
+    @Index(name = "idx_photos_root", columnList = "rootId"),
+    @Index(name = "idx_photos_parent", columnList = "parentId")
+})
 public class Photo {
     
     @Id
@@ -23,12 +30,20 @@ public class Photo {
     @Column(nullable = false)
     private String filePath;
     
+    /** Latest edited or batch output of this photo */
     private String optimizedPath;
     private String thumbnailPath;
     
+    /** Screen-sized rendition written by DerivativeService, kept apart from the edited and batch outputs */
+    private String renditionPath;
+    
     @Column(nullable = false)
     private Long fileSize;
     
+    /** Hex SHA-256 of the uploaded bytes; photos with the same hash share one file */
+    @Column(length = 64)
+    private String contentHash;
+    
     private String format;
     private Integer width;
     private Integer height;
@@ -38,13 +53,35 @@ public class Photo {
     
     private LocalDateTime optimizedAt;
     
+    /** Size of the optimized rendition in bytes */
+    private Long optimizedSize;
+    
+    /** Encoder quality (1-100) picked for the optimized rendition */
+    private Integer optimizationQuality;
+    
+    /** fileSize - optimizedSize; negative if the rendition came out larger */
+    private Long bytesSaved;
+    
     @Column(nullable = false)
     private Boolean isActive = true;
     
     private String googleDriveId;
     
-    @Column(columnDefinition = "TEXT")
-    private String canvasState;
+    /** Photo this one is a version of; null for uploads */
+    private Long parentId;
+    
+    /** First photo of the version tree; null for uploads, which are their own root */
+    private Long rootId;
+    
+    /**
+     * Stored tile delta against the parent when the version is kept as one;
+     * filePath is then where it is materialized, see VersionService.resolve
+     */
+    private String deltaPath;
+    
+    /** Hex SHA-256 of the stored delta, the blob deltaPath points at; contentHash stays that of the image */
+    @Column(length = 64)
+    private String deltaHash;
     
     // Constructors
     public Photo() {}
@@ -76,9 +113,15 @@ public class Photo {
     public String getThumbnailPath() { return thumbnailPath; }
     public void setThumbnailPath(String thumbnailPath) { this.thumbnailPath = thumbnailPath; }
     
+    public String getRenditionPath() { return renditionPath; }
+    public void setRenditionPath(String renditionPath) { this.renditionPath = renditionPath; }
+    
     public Long getFileSize() { return fileSize; }
     public void setFileSize(Long fileSize) { this.fileSize = fileSize; }
     
+    public String getContentHash() { return contentHash; }
+    public void setContentHash(String contentHash) { this.contentHash = contentHash; }
+    
     public String getFormat() { return format; }
     public void setFormat(String format) { this.format = format; }
     
@@ -94,12 +137,30 @@ public class Photo {
     public LocalDateTime getOptimizedAt() { return optimizedAt; }
     public void setOptimizedAt(LocalDateTime optimizedAt) { this.optimizedAt = optimizedAt; }
     
+    public Long getOptimizedSize() { return optimizedSize; }
+    public void setOptimizedSize(Long optimizedSize) { this.optimizedSize = optimizedSize; }
+    
+    public Integer getOptimizationQuality() { return optimizationQuality; }
+    public void setOptimizationQuality(Integer optimizationQuality) { this.optimizationQuality = optimizationQuality; }
+    
+    public Long getBytesSaved() { return bytesSaved; }
+    public void setBytesSaved(Long bytesSaved) { this.bytesSaved = bytesSaved; }
+    
     public Boolean getIsActive() { return isActive; }
     public void setIsActive(Boolean isActive) { this.isActive = isActive; }
     
     public String getGoogleDriveId() { return googleDriveId; }
     public void setGoogleDriveId(String googleDriveId) { this.googleDriveId = googleDriveId; }
     
-    public String getCanvasState() { return canvasState; }
-    public void setCanvasState(String canvasState) { this.canvasState = canvasState; }
+    public Long getParentId() { return parentId; }
+    public void setParentId(Long parentId) { this.parentId = parentId; }
+    
+    public Long getRootId() { return rootId; }
+    public void setRootId(Long rootId) { this.rootId = rootId; }
+    
+    public String getDeltaPath() { return deltaPath; }
+    public void setDeltaPath(String deltaPath) { this.deltaPath = deltaPath; }
+    
+    public String getDeltaHash() { return deltaHash; }
+    public void setDeltaHash(String deltaHash) { this.deltaHash = deltaHash; }
 }
@@ -0,0 +1,56 @@
+package com.photooptimizer.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * A stored file, shared by every photo with the same content
+ */
+@Entity
+@Table(name = "photo_blobs")
+public class PhotoBlob {
+    
+    /** Hex SHA-256 of the file content */
+    @Id
+    @Column(length = 64)
+    private String contentHash;
+    
+    @Column(nullable = false)
+    private String filePath;
+    
+    @Column(nullable = false)
+    private Long fileSize;
+    
+    /** Number of active photos using this file */
+    @Column(nullable = false)
+    private Integer refCount = 1;
+    
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+    
+    // Constructors
+    public PhotoBlob() {}
+    
+    public PhotoBlob(String contentHash, String filePath, Long fileSize) {
+        this.contentHash = contentHash;
+        this.filePath = filePath;
+        this.fileSize = fileSize;
+        this.createdAt = LocalDateTime.now();
+    }
+    
+    // Getters and Setters
+    public String getContentHash() { return contentHash; }
+    public void setContentHash(String contentHash) { this.contentHash = contentHash; }
+    
+    public String getFilePath() { return filePath; }
+    public void setFilePath(String filePath) { this.filePath = filePath; }
+    
+    public Long getFileSize() { return fileSize; }
+    public void setFileSize(Long fileSize) { this.fileSize = fileSize; }
+    
+    public Integer getRefCount() { return refCount; }
+    public void setRefCount(Integer refCount) { this.refCount = refCount; }
+    
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
@@ -0,0 +1,27 @@
+package com.photooptimizer.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * The columns a photo listing shows, and nothing else
+ */
+public interface PhotoSummary {
+    
+    Long getId();
+    
+    String getOriginalName();
+    
+    Long getFileSize();
+    
+    String getFormat();
+    
+    Integer getWidth();
+    
+    Integer getHeight();
+    
+    LocalDateTime getUploadedAt();
+    
+    Long getOptimizedSize();
+    
+    Long getBytesSaved();
+}
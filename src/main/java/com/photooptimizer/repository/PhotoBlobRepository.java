@@ -0,0 +1,32 @@
+package com.photooptimizer.repository;
+
+import com.photooptimizer.model.PhotoBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Repository for deduplicated photo files, keyed by content hash
+ */
+@Repository
+public interface PhotoBlobRepository extends JpaRepository<PhotoBlob, String> {
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE PhotoBlob b SET b.refCount = b.refCount + 1 WHERE b.contentHash = :hash")
+    int incrementRefCount(@Param("hash") String hash);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE PhotoBlob b SET b.refCount = b.refCount - 1 WHERE b.contentHash = :hash AND b.refCount > 0")
+    int decrementRefCount(@Param("hash") String hash);
+    
+    /** Remove the row once its last reference is dropped; 0 while it is still referenced */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM PhotoBlob b WHERE b.contentHash = :hash AND b.refCount <= 0")
+    int deleteUnreferenced(@Param("hash") String hash);
+}
@@ -1,8 +1,13 @@
 package com.photooptimizer.repository;
 
 import com.photooptimizer.model.Photo;
+import com.photooptimizer.model.PhotoSummary;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
@@ -13,7 +18,37 @@ public interface PhotoRepository extends JpaRepository<Photo, Long> {
     
     List<Photo> findByIsActiveTrueOrderByUploadedAtDesc();
     
+    String SUMMARY_COLUMNS = "SELECT p.id AS id, p.originalName AS originalName, p.fileSize AS fileSize, "
+        + "p.format AS format, p.width AS width, p.height AS height, p.uploadedAt AS uploadedAt, "
+        + "p.optimizedSize AS optimizedSize, p.bytesSaved AS bytesSaved FROM Photo p ";
+    
+    /**
+     * First page of active photos, newest first; the page size comes from the Pageable
+     */
+    @Query(SUMMARY_COLUMNS + "WHERE p.isActive = true ORDER BY p.uploadedAt DESC, p.id DESC")
+    List<PhotoSummary> findActiveSummaries(Pageable page);
+    
+    /**
+     * Active photos strictly after (uploadedAt, id) in listing order
+     */
+    @Query(SUMMARY_COLUMNS + "WHERE p.isActive = true AND (p.uploadedAt < :uploadedAt "
+        + "OR (p.uploadedAt = :uploadedAt AND p.id < :id)) ORDER BY p.uploadedAt DESC, p.id DESC")
+    List<PhotoSummary> findActiveSummariesAfter(@Param("uploadedAt") LocalDateTime uploadedAt,
+                                                @Param("id") Long id, Pageable page);
+    
     List<Photo> findByOriginalNameContainingIgnoreCase(String name);
     
     Photo findByFileName(String fileName);
+    
+    List<Photo> findTop100ByIsActiveTrueAndRenditionPathIsNullAndIdGreaterThanOrderByIdAsc(Long id);
+    
+    /**
+     * Every version descending from a root photo, oldest first; the root itself is not included
+     */
+    List<Photo> findByRootIdOrderByIdAsc(Long rootId);
+    
+    /**
+     * Active versions stored as tile deltas against the given photo
+     */
+    List<Photo> findByParentIdAndDeltaPathIsNotNullAndIsActiveTrue(Long parentId);
 }
@@ -0,0 +1,525 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.cache.DerivedImageCache;
+import com.photooptimizer.imaging.FilterPipeline;
+import com.photooptimizer.imaging.FilterStep;
+import com.photooptimizer.imaging.ImageDecoding;
+import com.photooptimizer.imaging.ImageEncoding;
+import com.photooptimizer.model.Photo;
+import com.photooptimizer.repository.PhotoRepository;
+import com.photooptimizer.util.CapacityExceededException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.imgscalr.Scalr;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applies one operation chain to many photos
+ * Photos are loaded with one query, decoded ahead of the workers on a separate
+ * pool, rendered with a global concurrency limit and their database rows are
+ * updated in JDBC batches. Batches run one at a time so the limit holds no
+ * matter how many are submitted.
+ */
+@Service
+public class BatchService {
+
+    private static final String UPDATE_OPTIMIZED_PATH =
+        "UPDATE photos SET optimized_path = ?, optimized_at = ? WHERE id = ?";
+
+    @Autowired
+    private PhotoRepository photoRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private VersionService versionService;
+
+    @Value("${photo.batch.concurrency:0}")
+    private int concurrency;
+
+    @Value("${photo.batch.decode-threads:2}")
+    private int decodeThreads;
+
+    @Value("${photo.batch.prefetch:4}")
+    private int prefetch;
+
+    @Value("${photo.batch.write-batch-size:50}")
+    private int writeBatchSize;
+
+    @Value("${photo.batch.max-photos:1000}")
+    private int maxPhotos;
+
+    @Value("${photo.batch.queue-capacity:10}")
+    private int queueCapacity;
+
+    @Value("${photo.batch.retention:30m}")
+    private Duration retention;
+
+    private final String batchDir = "./uploads/batch/";
+
+    private ThreadPoolExecutor coordinator;
+    private ExecutorService decoders;
+    private ExecutorService workers;
+
+    private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void start() {
+        concurrency = concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors();
+        coordinator = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), daemonThreads("photo-batch"), new ThreadPoolExecutor.AbortPolicy());
+        // Unbounded queues are fine here: the coordinator never has more than
+        // concurrency + prefetch photos in flight
+        decoders = new ThreadPoolExecutor(decodeThreads, decodeThreads, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), daemonThreads("photo-batch-decode"));
+        workers = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), daemonThreads("photo-batch-worker"));
+        System.out.println("Batch processing started with " + concurrency + " workers, "
+            + decodeThreads + " decoders and " + prefetch + " photos of decode-ahead");
+    }
+
+    @PreDestroy
+    public void stop() {
+        coordinator.shutdownNow();
+        decoders.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Queue a batch over explicit ids, or over every active photo whose name
+     * contains the query when no ids are given
+     * @throws IllegalArgumentException for a bad operation chain or selection
+     * @throws CapacityExceededException when too many batches are waiting
+     */
+    public Batch submit(List<Long> ids, String query, List<Map<String, Object>> operations) {
+        Plan plan = Plan.parse(operations);
+        List<Long> photoIds = selectPhotos(ids, query);
+        if (photoIds.isEmpty()) {
+            throw new IllegalArgumentException("No photos selected");
+        }
+        if (photoIds.size() > maxPhotos) {
+            throw new IllegalArgumentException("Batch of " + photoIds.size() + " photos exceeds the limit of " + maxPhotos);
+        }
+
+        Batch batch = new Batch(UUID.randomUUID().toString(), photoIds.size(), plan.describe());
+        batches.put(batch.getId(), batch);
+        try {
+            coordinator.execute(() -> run(batch, photoIds, plan));
+        } catch (RejectedExecutionException e) {
+            batches.remove(batch.getId());
+            throw new CapacityExceededException("Batch queue is full (" + queueCapacity + " waiting), retry later");
+        }
+        return batch;
+    }
+
+    /**
+     * Batch by id, or null if unknown or already purged
+     */
+    public Batch getBatch(String batchId) {
+        return batches.get(batchId);
+    }
+
+    /**
+     * Stop handing out further photos; photos already in flight still finish
+     */
+    public Batch cancel(String batchId) {
+        Batch batch = batches.get(batchId);
+        if (batch != null) {
+            batch.cancelRequested = true;
+        }
+        return batch;
+    }
+
+    /**
+     * Forget finished batches once they have been kept for the retention period
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void purgeFinishedBatches() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(retention);
+        batches.values().removeIf(batch -> batch.getFinishedAt() != null && batch.getFinishedAt().isBefore(cutoff));
+    }
+
+    private List<Long> selectPhotos(List<Long> ids, String query) {
+        if (ids != null && !ids.isEmpty()) {
+            return new ArrayList<>(new LinkedHashSet<>(ids));
+        }
+        if (query == null || query.isBlank()) {
+            throw new IllegalArgumentException("Either ids or query is required");
+        }
+        List<Long> matches = new ArrayList<>();
+        for (Photo photo : photoRepository.findByOriginalNameContainingIgnoreCase(query.trim())) {
+            if (Boolean.TRUE.equals(photo.getIsActive())) {
+                matches.add(photo.getId());
+            }
+        }
+        return matches;
+    }
+
+    private void run(Batch batch, List<Long> photoIds, Plan plan) {
+        batch.markRunning();
+        Path outputDir = Paths.get(batchDir, batch.getId());
+        PathWriter writer = new PathWriter();
+        try {
+            Files.createDirectories(outputDir);
+
+            // One query for the whole selection instead of a findById per photo
+            Map<Long, Photo> photos = new LinkedHashMap<>();
+            for (Photo photo : photoRepository.findAllById(photoIds)) {
+                photos.put(photo.getId(), photo);
+            }
+
+            Semaphore inFlight = new Semaphore(concurrency + prefetch);
+            List<CompletableFuture<?>> pending = new ArrayList<>(photoIds.size());
+            for (Long photoId : photoIds) {
+                Photo photo = photos.get(photoId);
+                if (photo == null || !Boolean.TRUE.equals(photo.getIsActive())) {
+                    batch.recordFailure(photoId, "Photo not found");
+                    continue;
+                }
+                inFlight.acquire();
+                if (batch.cancelRequested) {
+                    inFlight.release();
+                    break;
+                }
+                pending.add(CompletableFuture
+                    .supplyAsync(() -> decode(photo, plan), decoders)
+                    .thenApplyAsync(image -> render(photo, image, plan, outputDir), workers)
+                    .whenComplete((path, error) -> {
+                        inFlight.release();
+                        if (error != null) {
+                            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                            batch.recordFailure(photoId, cause.getMessage() != null ? cause.getMessage() : cause.toString());
+                        } else {
+                            batch.recordSuccess(photoId, path);
+                            writer.add(photoId, path);
+                        }
+                    }));
+            }
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).exceptionally(error -> null).join();
+            writer.flush();
+            batch.markFinished(null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batch.markFinished("Interrupted");
+        } catch (Exception e) {
+            System.err.println("Batch " + batch.getId() + " failed: " + e.getMessage());
+            batch.markFinished(e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+
+    /**
+     * Runs on the decode pool, ahead of the workers
+     */
+    private BufferedImage decode(Photo photo, Plan plan) {
+        try (DerivedImageCache.Lease lease = versionService.resolve(photo)) {
+            File source = lease.getPath().toFile();
+            // A leading resize can be folded into the decode
+            if (plan.before == null && plan.maxEdge > 0) {
+                return ImageDecoding.readDownscaled(source, plan.maxEdge);
+            }
+            BufferedImage image = ImageIO.read(source);
+            if (image == null) {
+                throw new IOException("Unsupported image format: " + photo.getOriginalName());
+            }
+            return image;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private String render(Photo photo, BufferedImage image, Plan plan, Path outputDir) {
+        try {
+            if (plan.before != null) {
+                image = plan.before.apply(image);
+            }
+            if (plan.maxEdge > 0 && Math.max(image.getWidth(), image.getHeight()) > plan.maxEdge) {
+                image = Scalr.resize(image, Scalr.Method.BALANCED, plan.maxEdge);
+            }
+            if (plan.after != null) {
+                image = plan.after.apply(image);
+            }
+
+            String format = plan.format != null ? plan.format
+                : ImageEncoding.normalizeFormat(photo.getFormat() != null ? photo.getFormat() : "png");
+            Path output = outputDir.resolve(photo.getId() + "." + (format.equals("jpeg") ? "jpg" : format));
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output), 64 * 1024)) {
+                ImageEncoding.write(image, format, plan.quality / 100f, out);
+            }
+            return output.toString();
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Collects finished photos and updates their rows writeBatchSize at a time
+     * Rows of a failed intermediate flush stay buffered for the final flush,
+     * which fails the batch if the database is still unavailable.
+     */
+    private final class PathWriter {
+        private final List<Object[]> rows = new ArrayList<>();
+
+        synchronized void add(Long photoId, String path) {
+            rows.add(new Object[] {path, Timestamp.valueOf(LocalDateTime.now()), photoId});
+            if (rows.size() >= writeBatchSize) {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    System.err.println("Batch update of " + rows.size() + " photos failed, retrying later: " + e.getMessage());
+                }
+            }
+        }
+
+        synchronized void flush() {
+            if (!rows.isEmpty()) {
+                jdbcTemplate.batchUpdate(UPDATE_OPTIMIZED_PATH, rows);
+                rows.clear();
+            }
+        }
+    }
+
+    /**
+     * A validated operation chain: filters, an optional resize between them and
+     * an optional output encoding
+     */
+    static final class Plan {
+        final FilterPipeline before;
+        final int maxEdge;
+        final FilterPipeline after;
+        final String format;
+        /** Encoder quality, 1-100 as for /photo/{id}?quality= */
+        final int quality;
+        private final String description;
+
+        private Plan(FilterPipeline before, int maxEdge, FilterPipeline after, String format, int quality, String description) {
+            this.before = before;
+            this.maxEdge = maxEdge;
+            this.after = after;
+            this.format = format;
+            this.quality = quality;
+            this.description = description;
+        }
+
+        /**
+         * Parse [{"type": "...", "value": ...}, ...] where type is any filter,
+         * "resize" (value = longest edge in pixels, at most once) or
+         * "encode" (value = "format" or "format:quality" with quality 1-100, last)
+         */
+        static Plan parse(List<Map<String, Object>> operations) {
+            List<FilterStep> steps = FilterStep.fromRequest(operations);
+            List<FilterStep> before = new ArrayList<>();
+            List<FilterStep> after = new ArrayList<>();
+            int maxEdge = 0;
+            String format = null;
+            int quality = 85;
+            for (int i = 0; i < steps.size(); i++) {
+                FilterStep step = steps.get(i);
+                switch (step.getType()) {
+                    case "resize":
+                        if (maxEdge > 0) {
+                            throw new IllegalArgumentException("Only one resize per batch");
+                        }
+                        maxEdge = parsePositiveInt(step.getValue(), "resize");
+                        break;
+                    case "encode":
+                        if (i != steps.size() - 1) {
+                            throw new IllegalArgumentException("encode must be the last operation");
+                        }
+                        String[] parts = step.getValue().split(":", 2);
+                        format = ImageEncoding.normalizeFormat(parts[0]);
+                        if (!ImageIO.getImageWritersByFormatName(format).hasNext()) {
+                            throw new IllegalArgumentException("No encoder available for format: " + parts[0]);
+                        }
+                        if (parts.length > 1) {
+                            quality = parsePositiveInt(parts[1], "encode quality");
+                            if (quality > 100) {
+                                throw new IllegalArgumentException("encode quality must be between 1 and 100");
+                            }
+                        }
+                        break;
+                    default:
+                        (maxEdge > 0 ? after : before).add(step);
+                }
+            }
+            return new Plan(
+                before.isEmpty() ? null : FilterPipeline.compile(before),
+                maxEdge,
+                after.isEmpty() ? null : FilterPipeline.compile(after),
+                format,
+                quality,
+                steps.toString());
+        }
+
+        private static int parsePositiveInt(String value, String operation) {
+            try {
+                int parsed = Integer.parseInt(value);
+                if (parsed > 0) {
+                    return parsed;
+                }
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+            throw new IllegalArgumentException("Invalid " + operation + " value: " + value);
+        }
+
+        String describe() {
+            return description;
+        }
+    }
+
+    /**
+     * Lifecycle of a batch
+     */
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, COMPLETED_WITH_ERRORS, CANCELLED, FAILED
+    }
+
+    /**
+     * Aggregate progress of a batch and the outcome of every photo in it
+     */
+    public static class Batch {
+        private final String id;
+        private final int total;
+        private final String operations;
+        private final LocalDateTime submittedAt = LocalDateTime.now();
+        private final AtomicInteger succeeded = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final Map<Long, String> outputs = new ConcurrentHashMap<>();
+        private final List<Failure> failures = Collections.synchronizedList(new ArrayList<>());
+        private volatile Status status = Status.QUEUED;
+        private volatile LocalDateTime startedAt;
+        private volatile LocalDateTime finishedAt;
+        private volatile String error;
+        volatile boolean cancelRequested;
+
+        Batch(String id, int total, String operations) {
+            this.id = id;
+            this.total = total;
+            this.operations = operations;
+        }
+
+        void markRunning() {
+            startedAt = LocalDateTime.now();
+            status = Status.RUNNING;
+        }
+
+        void recordSuccess(Long photoId, String path) {
+            outputs.put(photoId, path);
+            succeeded.incrementAndGet();
+        }
+
+        void recordFailure(Long photoId, String message) {
+            failures.add(new Failure(photoId, message));
+            failed.incrementAndGet();
+        }
+
+        void markFinished(String error) {
+            this.error = error;
+            finishedAt = LocalDateTime.now();
+            if (error != null) {
+                status = Status.FAILED;
+            } else if (cancelRequested) {
+                status = Status.CANCELLED;
+            } else {
+                status = failed.get() > 0 ? Status.COMPLETED_WITH_ERRORS : Status.COMPLETED;
+            }
+        }
+
+        public String getId() { return id; }
+
+        public String getOperations() { return operations; }
+
+        public Status getStatus() { return status; }
+
+        public int getTotal() { return total; }
+
+        public int getProcessed() { return succeeded.get() + failed.get(); }
+
+        public int getSucceeded() { return succeeded.get(); }
+
+        public int getFailed() { return failed.get(); }
+
+        public double getProgress() {
+            return total == 0 ? 1.0 : (double) getProcessed() / total;
+        }
+
+        public LocalDateTime getSubmittedAt() { return submittedAt; }
+
+        public LocalDateTime getStartedAt() { return startedAt; }
+
+        public LocalDateTime getFinishedAt() { return finishedAt; }
+
+        public String getError() { return error; }
+
+        public Map<Long, String> getOutputs() { return outputs; }
+
+        public List<Failure> getFailures() {
+            synchronized (failures) {
+                return new ArrayList<>(failures);
+            }
+        }
+    }
+
+    /**
+     * A photo that could not be processed and why
+     */
+    public static class Failure {
+        private final Long photoId;
+        private final String error;
+
+        Failure(Long photoId, String error) {
+            this.photoId = photoId;
+            this.error = error;
+        }
+
+        public Long getPhotoId() { return photoId; }
+
+        public String getError() { return error; }
+    }
+}
@@ -0,0 +1,449 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.repository.PhotoRepository;
+import com.photooptimizer.util.ByteDelta;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Editor canvas documents, stored deflated in canvas_states, one row per photo
+ * Reading or writing a document touches only its own row: the photo row is
+ * never loaded or rewritten, so photo reads stay small however large the
+ * canvas JSON grows.
+ * Saves are write-behind: the editor autosaves every few seconds, so only the
+ * latest document per photo is kept in memory and written in a JDBC batch once
+ * it has waited max-staleness. Saves that arrive before then replace the
+ * pending one (coalesced) and never reach the database. Reads see pending
+ * documents, and everything pending is written on shutdown.
+ * Every write also appends a version to canvas_state_versions: a full
+ * snapshot every snapshot-interval versions, otherwise a ByteDelta against
+ * the previous version. Successive saves differ in a few objects, so history
+ * costs about the size of the changes. A historical version is rebuilt by
+ * replaying deltas from the nearest snapshot at or before it.
+ */
+@Service
+public class CanvasStateService {
+
+    private static final String UPSERT_STATE =
+        "MERGE INTO canvas_states (photo_id, state, raw_size, updated_at) KEY (photo_id) VALUES (?, ?, ?, ?)";
+    private static final String SELECT_STATE = "SELECT state, raw_size FROM canvas_states WHERE photo_id = ?";
+    private static final String INSERT_VERSION = "INSERT INTO canvas_state_versions"
+        + " (photo_id, version, snapshot, data, raw_size, created_at) VALUES (?, ?, ?, ?, ?, ?)";
+    /** Current document and version numbers of each photo in an IN list */
+    private static final String SELECT_HEADS = "SELECT s.photo_id, s.state, s.raw_size, v.latest, v.last_snapshot"
+        + " FROM canvas_states s JOIN (SELECT photo_id, MAX(version) AS latest,"
+        + " MAX(CASE WHEN snapshot THEN version END) AS last_snapshot FROM canvas_state_versions"
+        + " WHERE photo_id IN (%s) GROUP BY photo_id) v ON v.photo_id = s.photo_id";
+    /** The nearest snapshot at or before a version, and the deltas after it */
+    private static final String SELECT_REPLAY = "SELECT version, snapshot, data, raw_size FROM canvas_state_versions"
+        + " WHERE photo_id = ? AND version <= ? AND version >= (SELECT MAX(version) FROM canvas_state_versions"
+        + " WHERE photo_id = ? AND snapshot = TRUE AND version <= ?) ORDER BY version";
+    private static final String SELECT_VERSIONS = "SELECT version, snapshot, raw_size, OCTET_LENGTH(data) AS stored_size,"
+        + " created_at FROM canvas_state_versions WHERE photo_id = ? ORDER BY version DESC";
+
+    /** How often pending documents are checked for being due */
+    private static final long FLUSH_TICK_MILLIS = 250;
+
+    @Autowired
+    private PhotoRepository photoRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${photo.editor.canvas-state.compression-level:6}")
+    private int compressionLevel;
+
+    @Value("${photo.editor.canvas-state.max-size:16MB}")
+    private DataSize maxSize;
+
+    @Value("${photo.editor.canvas-state.max-staleness:2s}")
+    private Duration maxStaleness;
+
+    @Value("${photo.editor.canvas-state.max-buffered-size:64MB}")
+    private DataSize maxBufferedSize;
+
+    @Value("${photo.editor.canvas-state.write-batch-size:100}")
+    private int writeBatchSize;
+
+    @Value("${photo.editor.canvas-state.history.enabled:true}")
+    private boolean historyEnabled;
+
+    @Value("${photo.editor.canvas-state.history.snapshot-interval:50}")
+    private int snapshotInterval;
+
+    /** Latest unwritten document per photo */
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    /** Serializes flushes so an older document can never overwrite a newer one */
+    private final Object flushLock = new Object();
+
+    private Counter saveCounter;
+    private Counter coalescedCounter;
+    private Counter writtenCounter;
+    private Counter flushCounter;
+    private Counter snapshotCounter;
+    private Counter deltaCounter;
+
+    @PostConstruct
+    public void start() {
+        saveCounter = Counter.builder("photo.canvas.saves").register(meterRegistry);
+        coalescedCounter = Counter.builder("photo.canvas.saves.coalesced")
+            .description("Saves replaced by a newer one before being written").register(meterRegistry);
+        writtenCounter = Counter.builder("photo.canvas.rows.written").register(meterRegistry);
+        flushCounter = Counter.builder("photo.canvas.flushes").register(meterRegistry);
+        snapshotCounter = Counter.builder("photo.canvas.versions").tag("kind", "snapshot").register(meterRegistry);
+        deltaCounter = Counter.builder("photo.canvas.versions").tag("kind", "delta").register(meterRegistry);
+        Gauge.builder("photo.canvas.pending", pending, Map::size).register(meterRegistry);
+        Gauge.builder("photo.canvas.pending.bytes", bufferedBytes, AtomicLong::get).baseUnit("bytes").register(meterRegistry);
+        migrateInlineStates();
+    }
+
+    /**
+     * Write everything still pending before the database goes away
+     */
+    @PreDestroy
+    public void stop() {
+        flush(true);
+    }
+
+    /**
+     * Move documents left in the old inline photos.canvas_state column
+     */
+    private void migrateInlineStates() {
+        Integer columns = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS"
+            + " WHERE TABLE_NAME = 'PHOTOS' AND COLUMN_NAME = 'CANVAS_STATE'", Integer.class);
+        if (columns == null || columns == 0) {
+            return;
+        }
+        List<Object[]> batch = new ArrayList<>();
+        long[] moved = {0};
+        jdbcTemplate.query("SELECT id, canvas_state FROM photos WHERE canvas_state IS NOT NULL", rs -> {
+            batch.add(row(rs.getLong(1), rs.getString(2).getBytes(StandardCharsets.UTF_8)));
+            if (batch.size() == 100) {
+                jdbcTemplate.batchUpdate(UPSERT_STATE, batch);
+                moved[0] += batch.size();
+                batch.clear();
+            }
+        });
+        if (!batch.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPSERT_STATE, batch);
+            moved[0] += batch.size();
+        }
+        jdbcTemplate.execute("ALTER TABLE photos DROP COLUMN canvas_state");
+        System.out.println("Moved " + moved[0] + " canvas states out of the photos table");
+    }
+
+    /**
+     * Store a photo's canvas document, replacing the previous one; it is
+     * written to the database within max-staleness
+     * @return false if there is no such photo
+     * @throws IllegalArgumentException if the document exceeds max-size
+     */
+    public boolean save(Long photoId, String json) {
+        byte[] raw = json.getBytes(StandardCharsets.UTF_8);
+        if (raw.length > maxSize.toBytes()) {
+            throw new IllegalArgumentException("Canvas state exceeds " + maxSize.toMegabytes() + "MB");
+        }
+        // A photo with a pending document was checked when that was saved
+        if (!pending.containsKey(photoId) && !photoRepository.existsById(photoId)) {
+            return false;
+        }
+        saveCounter.increment();
+        Pending previous = pending.put(photoId, new Pending(raw, System.nanoTime()));
+        bufferedBytes.addAndGet(raw.length - (previous != null ? previous.raw.length : 0));
+        // Only a document the flusher has not taken yet is never written
+        if (previous != null && previous.taken.compareAndSet(false, true)) {
+            coalescedCounter.increment();
+        }
+        if (bufferedBytes.get() > maxBufferedSize.toBytes()) {
+            // Too much waiting: write it all now rather than grow without bound
+            flush(true);
+        }
+        return true;
+    }
+
+    /**
+     * A photo's canvas document, or null if none was saved
+     */
+    public String load(Long photoId) {
+        Pending unwritten = pending.get(photoId);
+        if (unwritten != null) {
+            return new String(unwritten.raw, StandardCharsets.UTF_8);
+        }
+        List<String> states = jdbcTemplate.query(SELECT_STATE,
+            (rs, i) -> new String(inflate(rs.getBytes(1), rs.getInt(2)), StandardCharsets.UTF_8), photoId);
+        return states.isEmpty() ? null : states.get(0);
+    }
+
+    /**
+     * Write documents that have waited max-staleness (less one tick, so none waits longer)
+     */
+    @Scheduled(fixedDelay = FLUSH_TICK_MILLIS)
+    public void flushDue() {
+        if (!pending.isEmpty()) {
+            flush(false);
+        }
+    }
+
+    /**
+     * @param all write every pending document, not just the due ones
+     */
+    void flush(boolean all) {
+        synchronized (flushLock) {
+            long dueBefore = System.nanoTime() - Math.max(0, maxStaleness.toNanos() - FLUSH_TICK_MILLIS * 1_000_000);
+            List<Long> ids = new ArrayList<>();
+            List<Pending> documents = new ArrayList<>();
+            for (Map.Entry<Long, Pending> entry : pending.entrySet()) {
+                Pending document = entry.getValue();
+                if (!all && document.savedAt - dueBefore > 0) {
+                    continue;
+                }
+                // Lost to a newer save, which is in the map instead
+                if (!document.taken.compareAndSet(false, true)) {
+                    continue;
+                }
+                ids.add(entry.getKey());
+                documents.add(document);
+                if (ids.size() == writeBatchSize) {
+                    write(ids, documents);
+                }
+            }
+            if (!ids.isEmpty()) {
+                write(ids, documents);
+            }
+        }
+    }
+
+    private void write(List<Long> ids, List<Pending> documents) {
+        try {
+            // The state row is the base of the next delta, so both are written together
+            transactionTemplate.executeWithoutResult(status -> {
+                Map<Long, Head> heads = historyEnabled ? heads(ids) : Map.of();
+                Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+                List<Object[]> stateRows = new ArrayList<>();
+                List<Object[]> versionRows = new ArrayList<>();
+                for (int i = 0; i < ids.size(); i++) {
+                    byte[] raw = documents.get(i).raw;
+                    byte[] compressed = compress(raw, compressionLevel);
+                    stateRows.add(new Object[] {ids.get(i), compressed, raw.length, now});
+                    if (historyEnabled) {
+                        Object[] version = versionRow(ids.get(i), raw, compressed, heads.get(ids.get(i)), now);
+                        if (version != null) {
+                            versionRows.add(version);
+                        }
+                    }
+                }
+                if (!versionRows.isEmpty()) {
+                    jdbcTemplate.batchUpdate(INSERT_VERSION, versionRows);
+                }
+                jdbcTemplate.batchUpdate(UPSERT_STATE, stateRows);
+            });
+            flushCounter.increment();
+            writtenCounter.increment(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                // Saved again meanwhile: keep the newer document pending
+                if (pending.remove(ids.get(i), documents.get(i))) {
+                    bufferedBytes.addAndGet(-documents.get(i).raw.length);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Left pending; the next tick retries, unless a newer save replaces them first
+            documents.forEach(document -> document.taken.set(false));
+            System.err.println("Could not write " + ids.size() + " canvas states: " + e.getMessage());
+        } finally {
+            ids.clear();
+            documents.clear();
+        }
+    }
+
+    /**
+     * Next version of a document: a delta against the current one, or a
+     * snapshot when one is due or the delta would not save much
+     * @return the row, or null if the document has not changed
+     */
+    private Object[] versionRow(Long photoId, byte[] raw, byte[] compressed, Head head, Timestamp now) {
+        if (head == null) {
+            snapshotCounter.increment();
+            return new Object[] {photoId, 1, true, compressed, raw.length, now};
+        }
+        if (Arrays.equals(head.document, raw)) {
+            return null;
+        }
+        int version = head.latest + 1;
+        if (version - head.lastSnapshot < snapshotInterval) {
+            byte[] delta = compress(ByteDelta.diff(head.document, raw), compressionLevel);
+            if (delta.length < compressed.length / 2) {
+                deltaCounter.increment();
+                return new Object[] {photoId, version, false, delta, raw.length, now};
+            }
+        }
+        snapshotCounter.increment();
+        return new Object[] {photoId, version, true, compressed, raw.length, now};
+    }
+
+    /**
+     * Current document and version numbers of the photos that have history
+     */
+    private Map<Long, Head> heads(List<Long> ids) {
+        Map<Long, Head> heads = new HashMap<>();
+        String sql = String.format(SELECT_HEADS, String.join(",", Collections.nCopies(ids.size(), "?")));
+        jdbcTemplate.query(sql, rs -> {
+            heads.put(rs.getLong(1), new Head(inflate(rs.getBytes(2), rs.getInt(3)), rs.getInt(4), rs.getInt(5)));
+        }, ids.toArray());
+        return heads;
+    }
+
+    /**
+     * A photo's canvas document as of a version, or null if there is no such version
+     */
+    public String loadVersion(Long photoId, int version) {
+        byte[][] document = {null};
+        int[] replayed = {0};
+        jdbcTemplate.query(SELECT_REPLAY, rs -> {
+            byte[] data = rs.getBytes(3);
+            document[0] = rs.getBoolean(2)
+                ? inflate(data, rs.getInt(4))
+                : ByteDelta.apply(document[0], inflate(data));
+            replayed[0] = rs.getInt(1);
+        }, photoId, version, photoId, version);
+        return replayed[0] == version ? new String(document[0], StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Saved versions of a photo's canvas, newest first, without their content
+     */
+    public List<Map<String, Object>> listVersions(Long photoId) {
+        return jdbcTemplate.query(SELECT_VERSIONS, (rs, i) -> {
+            Map<String, Object> version = new LinkedHashMap<>();
+            version.put("version", rs.getInt(1));
+            version.put("snapshot", rs.getBoolean(2));
+            version.put("size", rs.getInt(3));
+            version.put("storedSize", rs.getLong(4));
+            version.put("createdAt", rs.getTimestamp(5).toLocalDateTime());
+            return version;
+        }, photoId);
+    }
+
+    private Object[] row(long photoId, byte[] raw) {
+        return new Object[] {photoId, compress(raw, compressionLevel), raw.length, Timestamp.valueOf(LocalDateTime.now())};
+    }
+
+    static byte[] compress(byte[] raw, int level) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            // Editor JSON typically shrinks 5-10x
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] inflate(byte[] compressed) {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt canvas state", e);
+        }
+    }
+
+    static byte[] inflate(byte[] compressed, int rawSize) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[rawSize];
+            int length = 0;
+            while (length < rawSize && !inflater.finished()) {
+                int n = inflater.inflate(raw, length, rawSize - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != rawSize) {
+                throw new IllegalStateException("Corrupt canvas state: expected " + rawSize + " bytes, got " + length);
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt canvas state", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * The current document of a photo with history, and where its versions stand
+     */
+    private static final class Head {
+        final byte[] document;
+        final int latest;
+        final int lastSnapshot;
+
+        Head(byte[] document, int latest, int lastSnapshot) {
+            this.document = document;
+            this.latest = latest;
+            this.lastSnapshot = lastSnapshot;
+        }
+    }
+
+    /**
+     * A saved document waiting to be written
+     */
+    private static final class Pending {
+        /** UTF-8 JSON */
+        final byte[] raw;
+        final long savedAt;
+        /** Claimed by a flush that writes it, or by the save that replaced it */
+        final AtomicBoolean taken = new AtomicBoolean();
+
+        Pending(byte[] raw, long savedAt) {
+            this.raw = raw;
+            this.savedAt = savedAt;
+        }
+    }
+}
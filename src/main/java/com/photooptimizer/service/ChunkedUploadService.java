@@ -0,0 +1,510 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.imaging.ImageInfo;
+import com.photooptimizer.model.Photo;
+import com.photooptimizer.storage.BlobStore;
+import com.photooptimizer.storage.BlobStore.StagedBlob;
+import com.photooptimizer.util.CapacityExceededException;
+import com.photooptimizer.util.Hashing;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Resumable uploads sent as fixed-size chunks
+ * Each session preallocates its file. Chunks may arrive in any order and in
+ * parallel; each one is written at its own offset with positional FileChannel
+ * writes. The SHA-256 of the whole file and the image header are computed as
+ * the contiguous prefix grows, so completing an upload never re-reads it.
+ * Sessions are kept in memory: a dropped connection can resume, a restart cannot.
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_CHUNK_SIZE = 64 * 1024;
+    /** Leading bytes the format probe may look at */
+    private static final int PROBE_BYTES = 1024 * 1024;
+    private static final Pattern SHA256 = Pattern.compile("[0-9a-fA-F]{64}");
+
+    @Autowired
+    private PhotoService photoService;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    @Value("${photo.upload.chunked.path:./uploads/chunks}")
+    private String path;
+
+    @Value("${photo.upload.chunked.chunk-size:8MB}")
+    private DataSize defaultChunkSize;
+
+    @Value("${photo.upload.chunked.max-chunk-size:64MB}")
+    private DataSize maxChunkSize;
+
+    @Value("${photo.upload.chunked.max-size:2GB}")
+    private DataSize maxSize;
+
+    @Value("${photo.upload.chunked.max-sessions:100}")
+    private int maxSessions;
+
+    @Value("${photo.upload.chunked.expiry:24h}")
+    private Duration expiry;
+
+    private Path sessionDir;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void start() throws IOException {
+        sessionDir = Paths.get(path);
+        Files.createDirectories(sessionDir);
+        // Sessions are not persisted, so files from before a restart cannot be resumed
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(sessionDir, "*.part")) {
+            for (Path leftover : leftovers) {
+                Files.deleteIfExists(leftover);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (String uploadId : new ArrayList<>(sessions.keySet())) {
+            abort(uploadId);
+        }
+    }
+
+    /**
+     * Start an upload and preallocate its file
+     * @param chunkSize bytes per chunk (all but the last), or null for the default
+     * @param sha256 optional hex SHA-256 of the whole file, checked on completion
+     * @throws IllegalArgumentException for unsupported names, sizes or checksums
+     * @throws CapacityExceededException when too many uploads are in progress
+     */
+    public Session initiate(String fileName, long size, Long chunkSize, String sha256) throws IOException {
+        if (fileName == null || fileName.lastIndexOf(".") < 0) {
+            throw new IllegalArgumentException("File name has no extension");
+        }
+        String extension = fileName.substring(fileName.lastIndexOf(".") + 1).toLowerCase();
+        if (!photoService.isSupportedFormat(extension)) {
+            throw new IllegalArgumentException("Unsupported file type: ." + extension);
+        }
+        if (size <= 0 || size > maxSize.toBytes()) {
+            throw new IllegalArgumentException("Size must be between 1 byte and " + maxSize);
+        }
+        long chunk = chunkSize != null ? chunkSize : defaultChunkSize.toBytes();
+        if (chunk < MIN_CHUNK_SIZE || chunk > maxChunkSize.toBytes()) {
+            throw new IllegalArgumentException("Chunk size must be between 64KB and " + maxChunkSize);
+        }
+        if (sha256 != null && !SHA256.matcher(sha256).matches()) {
+            throw new IllegalArgumentException("sha256 must be 64 hex digits");
+        }
+        if (sessions.size() >= maxSessions) {
+            throw new CapacityExceededException("Too many uploads in progress (" + maxSessions + "), retry later");
+        }
+
+        String uploadId = UUID.randomUUID().toString();
+        Path file = sessionDir.resolve(uploadId + ".part");
+        RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+        try {
+            raf.setLength(size);
+        } catch (IOException e) {
+            raf.close();
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        Session session = new Session(uploadId, fileName, extension, size, (int) chunk,
+            sha256 != null ? sha256.toLowerCase() : null, file, raf);
+        sessions.put(uploadId, session);
+        return session;
+    }
+
+    /**
+     * Upload session by id, or null if unknown, completed, aborted or expired
+     */
+    public Session getSession(String uploadId) {
+        return sessions.get(uploadId);
+    }
+
+    /**
+     * Write one chunk at its offset; re-sending a chunk that was already
+     * received is a no-op, so clients can retry blindly after a dropped connection
+     * @param sha256 optional hex SHA-256 of this chunk; on a mismatch the chunk
+     *        is not marked received and must be sent again
+     * @return the session, or null if the upload is unknown
+     * @throws IllegalArgumentException for a bad index, length or checksum
+     * @throws IllegalStateException if the chunk is already being written or the upload is completing
+     */
+    public Session writeChunk(String uploadId, int index, InputStream body, String sha256) throws IOException {
+        Session session = sessions.get(uploadId);
+        if (session == null) {
+            return null;
+        }
+        if (index < 0 || index >= session.chunkCount) {
+            throw new IllegalArgumentException("Chunk index must be between 0 and " + (session.chunkCount - 1));
+        }
+        synchronized (session) {
+            if (session.error != null) {
+                throw new IllegalArgumentException(session.error);
+            }
+            if (session.completing) {
+                throw new IllegalStateException("Upload is being completed");
+            }
+            if (session.received.get(index)) {
+                session.touch();
+                return session;
+            }
+            if (!session.inFlight.add(index)) {
+                throw new IllegalStateException("Chunk " + index + " is already being uploaded");
+            }
+        }
+
+        boolean written = false;
+        try {
+            String actual = writeAt(session, index, body);
+            if (sha256 != null && !actual.equalsIgnoreCase(sha256)) {
+                throw new IllegalArgumentException("Chunk " + index + " checksum mismatch");
+            }
+            written = true;
+        } finally {
+            synchronized (session) {
+                session.inFlight.remove(index);
+                if (written) {
+                    session.received.set(index);
+                }
+                session.touch();
+            }
+        }
+        advance(session);
+        if (session.error != null) {
+            throw new IllegalArgumentException(session.error);
+        }
+        return session;
+    }
+
+    /**
+     * Stream a chunk body to its offset, hashing it on the way
+     * @return hex SHA-256 of the chunk
+     */
+    private String writeAt(Session session, int index, InputStream body) throws IOException {
+        long offset = (long) index * session.chunkSize;
+        long end = offset + session.chunkLength(index);
+        MessageDigest digest = Hashing.sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = offset;
+        int read;
+        // Ask for one byte past the end so an oversized chunk is noticed
+        while ((read = body.read(buffer.array(), 0, (int) Math.min(BUFFER_SIZE, end - position + 1))) != -1) {
+            if (position + read > end) {
+                throw new IllegalArgumentException("Chunk " + index + " is longer than " + session.chunkLength(index) + " bytes");
+            }
+            digest.update(buffer.array(), 0, read);
+            buffer.clear().limit(read);
+            while (buffer.hasRemaining()) {
+                position += session.channel.write(buffer, position);
+            }
+        }
+        if (position != end) {
+            throw new IllegalArgumentException("Chunk " + index + " has " + (position - offset)
+                + " bytes, expected " + session.chunkLength(index));
+        }
+        return Hashing.toHex(digest.digest());
+    }
+
+    /**
+     * Hash newly contiguous chunks and probe the header once enough of it is in
+     * Only one thread hashes at a time; the others leave their chunks to it.
+     */
+    private void advance(Session session) throws IOException {
+        while (session.hasUnhashedChunk()) {
+            if (!session.hashLock.tryLock()) {
+                // The holder re-checks after unlocking and will pick this chunk up
+                return;
+            }
+            try {
+                while (session.hasUnhashedChunk()) {
+                    hashNextChunk(session);
+                }
+            } finally {
+                session.hashLock.unlock();
+            }
+        }
+    }
+
+    private void hashNextChunk(Session session) throws IOException {
+        int index = session.hashedChunks;
+        long position = (long) index * session.chunkSize;
+        long end = position + session.chunkLength(index);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(BUFFER_SIZE, end - position));
+            int read = session.channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Upload file is shorter than expected");
+            }
+            session.digest.update(buffer.array(), 0, read);
+            position += read;
+        }
+        session.hashedChunks = index + 1;
+        if (session.info == null && session.error == null) {
+            probe(session, end);
+        }
+    }
+
+    /**
+     * Read format and dimensions from the contiguous prefix; a failure only
+     * counts once the probe has seen as much of the file as it ever will
+     */
+    private void probe(Session session, long contiguousBytes) throws IOException {
+        byte[] header = new byte[(int) Math.min(contiguousBytes, PROBE_BYTES)];
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        while (buffer.hasRemaining()) {
+            if (session.channel.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(header))) {
+            session.info = ImageInfo.probe(input);
+        } catch (IOException e) {
+            if (header.length == PROBE_BYTES || contiguousBytes == session.size) {
+                session.error = "Not a readable image: " + session.fileName;
+            }
+            return;
+        }
+        if (!photoService.isSupportedFormat(session.info.getFormat())) {
+            session.error = "Unsupported image format: " + session.info.getFormat();
+        }
+    }
+
+    /**
+     * Publish a fully received upload as a photo
+     * @return the new photo, or null if the upload is unknown
+     * @throws IllegalStateException if chunks are missing or still being written
+     * @throws IllegalArgumentException if the content is not a supported image or
+     *         does not match the checksum given at initiation
+     */
+    public Photo complete(String uploadId) throws IOException {
+        Session session = sessions.get(uploadId);
+        if (session == null) {
+            return null;
+        }
+        synchronized (session) {
+            if (session.error != null) {
+                throw new IllegalArgumentException(session.error);
+            }
+            if (session.completing) {
+                throw new IllegalStateException("Upload is already being completed");
+            }
+            int missing = session.chunkCount - session.received.cardinality();
+            if (missing > 0 || !session.inFlight.isEmpty()) {
+                throw new IllegalStateException("Upload is missing " + missing + " of " + session.chunkCount + " chunks");
+            }
+            session.completing = true;
+        }
+
+        String contentHash;
+        session.hashLock.lock();
+        try {
+            while (session.hashedChunks < session.chunkCount) {
+                hashNextChunk(session);
+            }
+            contentHash = Hashing.toHex(session.digest.digest());
+        } catch (IOException | RuntimeException e) {
+            abort(uploadId);
+            throw e;
+        } finally {
+            session.hashLock.unlock();
+        }
+        if (session.info == null && session.error == null) {
+            session.error = "Not a readable image: " + session.fileName;
+        }
+        if (session.error == null && session.expectedHash != null && !session.expectedHash.equals(contentHash)) {
+            session.error = "Upload checksum mismatch: expected " + session.expectedHash + ", got " + contentHash;
+        }
+        if (session.error != null) {
+            // The digest is spent; the client has to start over
+            abort(uploadId);
+            throw new IllegalArgumentException(session.error);
+        }
+
+        Photo photo = new Photo();
+        photo.setOriginalName(session.fileName);
+        photo.setFileName(UUID.randomUUID().toString() + "." + session.extension);
+        photo.setFormat(session.extension);
+        photo.setWidth(session.info.getWidth());
+        photo.setHeight(session.info.getHeight());
+        photo.setUploadedAt(LocalDateTime.now());
+        try {
+            session.close();
+            try (StagedBlob staged = blobStore.adopt(session.file, contentHash, session.extension)) {
+                return photoService.saveNewPhoto(photo, staged);
+            }
+        } finally {
+            abort(uploadId);
+        }
+    }
+
+    /**
+     * Drop an upload and its partial file
+     * @return true if the upload existed
+     */
+    public boolean abort(String uploadId) {
+        Session session = sessions.remove(uploadId);
+        if (session == null) {
+            return false;
+        }
+        try {
+            session.close();
+            Files.deleteIfExists(session.file);
+        } catch (IOException e) {
+            System.err.println("Could not remove upload file " + session.file + ": " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Abort uploads that have not received a chunk within the expiry period
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void purgeExpiredSessions() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(expiry);
+        for (Session session : sessions.values()) {
+            if (!session.completing && session.lastActivity.isBefore(cutoff)) {
+                System.out.println("Upload " + session.uploadId + " expired after " + expiry);
+                abort(session.uploadId);
+            }
+        }
+    }
+
+    /**
+     * An upload in progress; the getters are its status as seen by clients
+     */
+    public static class Session {
+        private final String uploadId;
+        private final String fileName;
+        private final String extension;
+        private final long size;
+        private final int chunkSize;
+        private final int chunkCount;
+        private final String expectedHash;
+        private final Path file;
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private final LocalDateTime createdAt = LocalDateTime.now();
+        private volatile LocalDateTime lastActivity = createdAt;
+
+        // Guarded by the session's monitor
+        private final BitSet received = new BitSet();
+        private final Set<Integer> inFlight = new HashSet<>();
+        private boolean completing;
+
+        // Written under hashLock
+        private final ReentrantLock hashLock = new ReentrantLock();
+        private final MessageDigest digest = Hashing.sha256();
+        private volatile int hashedChunks;
+        private volatile ImageInfo info;
+        private volatile String error;
+
+        Session(String uploadId, String fileName, String extension, long size, int chunkSize,
+                String expectedHash, Path file, RandomAccessFile raf) {
+            this.uploadId = uploadId;
+            this.fileName = fileName;
+            this.extension = extension;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+            this.expectedHash = expectedHash;
+            this.file = file;
+            this.raf = raf;
+            this.channel = raf.getChannel();
+        }
+
+        long chunkLength(int index) {
+            return Math.min(chunkSize, size - (long) index * chunkSize);
+        }
+
+        synchronized boolean hasUnhashedChunk() {
+            return hashedChunks < chunkCount && received.get(hashedChunks);
+        }
+
+        void touch() {
+            lastActivity = LocalDateTime.now();
+        }
+
+        void close() throws IOException {
+            raf.close();
+        }
+
+        public String getUploadId() { return uploadId; }
+
+        public String getFileName() { return fileName; }
+
+        public long getSize() { return size; }
+
+        public int getChunkSize() { return chunkSize; }
+
+        public int getChunkCount() { return chunkCount; }
+
+        public synchronized int getReceivedChunks() { return received.cardinality(); }
+
+        /**
+         * Chunks still to send, in order
+         */
+        public synchronized List<Integer> getMissingChunks() {
+            List<Integer> missing = new ArrayList<>();
+            for (int i = received.nextClearBit(0); i < chunkCount; i = received.nextClearBit(i + 1)) {
+                missing.add(i);
+            }
+            return missing;
+        }
+
+        /**
+         * Bytes received without gaps from the start; a sequential client resumes here
+         */
+        public synchronized long getContiguousBytes() {
+            int next = received.nextClearBit(0);
+            return next >= chunkCount ? size : (long) next * chunkSize;
+        }
+
+        public String getFormat() { return info != null ? info.getFormat() : null; }
+
+        public Integer getWidth() { return info != null ? info.getWidth() : null; }
+
+        public Integer getHeight() { return info != null ? info.getHeight() : null; }
+
+        public String getError() { return error; }
+
+        public LocalDateTime getCreatedAt() { return createdAt; }
+
+        public LocalDateTime getLastActivity() { return lastActivity; }
+    }
+}
@@ -0,0 +1,353 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.cache.DerivedImageCache;
+import com.photooptimizer.imaging.ImageDecoding;
+import com.photooptimizer.imaging.ImageEncoding;
+import com.photooptimizer.imaging.ImageInfo;
+import com.photooptimizer.imaging.QualityEncoder;
+import com.photooptimizer.imaging.QualityTarget;
+import com.photooptimizer.model.Photo;
+import com.photooptimizer.repository.PhotoRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import net.coobird.thumbnailator.Thumbnails;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thumbnail and optimized renditions, generated in the background after upload
+ * Each photo is decoded once (with source subsampling) and both renditions are
+ * cut from that decode. The optimized rendition is encoded at the lowest
+ * quality that meets the configured target (SSIM, PSNR or size), and the
+ * bytes it saves over the original are recorded on the photo. Photos missed
+ * because the queue was full, or uploaded before this existed, are picked up
+ * by a periodic backfill.
+ */
+@Service
+public class DerivativeService {
+
+    private static final String UPDATE_DERIVATIVES =
+        "UPDATE photos SET thumbnail_path = ?, rendition_path = ?, width = ?, height = ?, optimized_at = ?,"
+        + " optimized_size = ?, optimization_quality = ?, bytes_saved = ? WHERE id = ?";
+
+    @Autowired
+    private PhotoRepository photoRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private VersionService versionService;
+
+    @Value("${photo.optimization.thumbnail-size:300}")
+    private int thumbnailSize;
+
+    @Value("${photo.optimization.max-width:1920}")
+    private int maxWidth;
+
+    @Value("${photo.optimization.max-height:1080}")
+    private int maxHeight;
+
+    @Value("${photo.optimization.jpeg-quality:85}")
+    private int jpegQuality;
+
+    @Value("${photo.optimization.png-compression:6}")
+    private int pngCompression;
+
+    @Value("${photo.optimization.min-quality:40}")
+    private int minQuality;
+
+    @Value("${photo.optimization.probe-edge:512}")
+    private int probeEdge;
+
+    @Value("${photo.optimization.target-ssim:0.985}")
+    private double targetSsim;
+
+    @Value("${photo.optimization.target-psnr:0}")
+    private double targetPsnr;
+
+    @Value("${photo.optimization.target-bytes:0}")
+    private long targetBytes;
+
+    @Value("${photo.optimization.thumbnail-path:./uploads/thumbnails}")
+    private String thumbnailDir;
+
+    @Value("${photo.optimization.optimized-path:./uploads/optimized}")
+    private String optimizedDir;
+
+    @Value("${photo.optimization.workers:2}")
+    private int workers;
+
+    @Value("${photo.optimization.queue-capacity:200}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+    private QualityEncoder encoder;
+    private QualityTarget defaultTarget;
+
+    /** Photos queued or being rendered, so the backfill does not queue them twice */
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+
+    /** Photos that could not be rendered; the backfill skips them until restart */
+    private final Set<Long> failed = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong generatedCount = new AtomicLong();
+    private final AtomicLong reusedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong bytesSavedTotal = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        encoder = new QualityEncoder(minQuality, jpegQuality, probeEdge, pngCompression);
+        if (targetBytes > 0) {
+            defaultTarget = QualityTarget.bytes(targetBytes);
+        } else if (targetPsnr > 0) {
+            defaultTarget = QualityTarget.psnr(targetPsnr);
+        } else if (targetSsim > 0) {
+            defaultTarget = QualityTarget.ssim(targetSsim);
+        } else {
+            defaultTarget = QualityTarget.fixed();
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            runnable -> {
+                Thread thread = new Thread(runnable, "photo-derivatives-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queue rendition of a newly stored photo; never blocks the caller
+     */
+    public void submit(Photo photo) {
+        Long photoId = photo.getId();
+        if (!pending.add(photoId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generate(photo);
+                } finally {
+                    pending.remove(photoId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(photoId);
+            rejectedCount.incrementAndGet();
+            System.err.println("Derivative queue full, photo " + photoId + " left for the backfill");
+        }
+    }
+
+    /**
+     * Queue photos that still have no renditions, as many as the queue has room for
+     * Pages by id past photos that failed or are already queued, so they
+     * never hide the ones after them.
+     */
+    @Scheduled(initialDelay = 60_000, fixedDelay = 300_000)
+    public void backfill() {
+        int room = executor.getQueue().remainingCapacity();
+        long afterId = 0;
+        while (room > 0) {
+            List<Photo> candidates =
+                photoRepository.findTop100ByIsActiveTrueAndRenditionPathIsNullAndIdGreaterThanOrderByIdAsc(afterId);
+            if (candidates.isEmpty()) {
+                return;
+            }
+            for (Photo photo : candidates) {
+                afterId = photo.getId();
+                if (failed.contains(afterId) || pending.contains(afterId)) {
+                    continue;
+                }
+                submit(photo);
+                if (--room == 0) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Render both renditions for the configured quality target and record them on the photo
+     */
+    void generate(Photo photo) {
+        try {
+            render(photo, defaultTarget, false);
+        } catch (Exception e) {
+            failed.add(photo.getId());
+            System.err.println("Could not render derivatives of photo " + photo.getId() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Re-render the optimized rendition of one photo for an explicit target, on the calling thread
+     */
+    public Photo optimize(Photo photo, QualityTarget target) throws IOException {
+        render(photo, target, true);
+        failed.remove(photo.getId());
+        return photo;
+    }
+
+    private void render(Photo photo, QualityTarget target, boolean explicitTarget) throws IOException {
+        try (DerivedImageCache.Lease lease = versionService.resolve(photo)) {
+            render(photo, lease.getPath().toFile(), target, explicitTarget);
+        }
+    }
+
+    private void render(Photo photo, File source, QualityTarget target, boolean explicitTarget) throws IOException {
+        String baseName = photo.getContentHash() != null ? photo.getContentHash() : "photo-" + photo.getId();
+        ImageInfo info = ImageInfo.probe(source);
+        String format = ImageEncoding.normalizeFormat(info.getFormat()).equals("png") ? "png" : "jpeg";
+        String extension = format.equals("png") ? ".png" : ".jpg";
+        // Renditions for a non-default target are kept apart from the shared default one
+        String suffix = explicitTarget ? "-" + target.toString().replaceAll("[^A-Za-z0-9.]", "") : "";
+        Path optimized = Paths.get(optimizedDir, baseName + suffix + extension);
+        Path thumbnail = Paths.get(thumbnailDir, baseName + extension);
+
+        Integer quality = null;
+        // Identical content uploaded earlier already has its renditions
+        if (Files.exists(optimized) && Files.exists(thumbnail)) {
+            reusedCount.incrementAndGet();
+            quality = findRecordedQuality(photo.getContentHash(), optimized);
+        } else {
+            BufferedImage image = ImageDecoding.readDownscaled(source, Math.max(maxWidth, maxHeight));
+            if (image.getWidth() > maxWidth || image.getHeight() > maxHeight) {
+                image = Thumbnails.of(image).size(maxWidth, maxHeight).asBufferedImage();
+            }
+            QualityEncoder.Result result = encoder.encode(image, format, target);
+            quality = result.getQuality();
+            write(out -> out.write(result.getBytes()), optimized);
+            if (!Files.exists(thumbnail)) {
+                // The thumbnail comes from the screen-sized image, not the original
+                BufferedImage small = image.getWidth() > thumbnailSize || image.getHeight() > thumbnailSize
+                    ? Thumbnails.of(image).size(thumbnailSize, thumbnailSize).asBufferedImage()
+                    : image;
+                write(out -> ImageEncoding.write(small, format, jpegQuality / 100f, out), thumbnail);
+            }
+            generatedCount.incrementAndGet();
+        }
+
+        long optimizedSize = Files.size(optimized);
+        long bytesSaved = photo.getFileSize() != null ? photo.getFileSize() - optimizedSize : 0;
+        jdbcTemplate.update(UPDATE_DERIVATIVES, thumbnail.toString(), optimized.toString(),
+            info.getWidth(), info.getHeight(), Timestamp.valueOf(LocalDateTime.now()),
+            optimizedSize, quality, bytesSaved, photo.getId());
+        photo.setThumbnailPath(thumbnail.toString());
+        photo.setRenditionPath(optimized.toString());
+        photo.setWidth(info.getWidth());
+        photo.setHeight(info.getHeight());
+        photo.setOptimizedSize(optimizedSize);
+        photo.setOptimizationQuality(quality);
+        photo.setBytesSaved(bytesSaved);
+        bytesSavedTotal.addAndGet(bytesSaved);
+    }
+
+    /**
+     * Quality recorded by another photo that uses the same rendition file, if any
+     */
+    private Integer findRecordedQuality(String contentHash, Path optimized) {
+        if (contentHash == null) {
+            return null;
+        }
+        List<Integer> qualities = jdbcTemplate.queryForList(
+            "SELECT optimization_quality FROM photos WHERE content_hash = ? AND rendition_path = ?"
+                + " AND optimization_quality IS NOT NULL",
+            Integer.class, contentHash, optimized.toString());
+        return qualities.isEmpty() ? null : qualities.get(0);
+    }
+
+    /**
+     * Remove a photo's renditions; its edited or batch output (optimizedPath)
+     * is not one of them and is left alone
+     */
+    public void deleteDerivatives(Photo photo) {
+        deleteIfUnder(photo.getThumbnailPath(), thumbnailDir);
+        deleteIfUnder(photo.getRenditionPath(), optimizedDir);
+    }
+
+    /**
+     * Queue, pool and output statistics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("workers", workers);
+        stats.put("active", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("generated", generatedCount.get());
+        stats.put("reused", reusedCount.get());
+        stats.put("rejected", rejectedCount.get());
+        stats.put("failed", failed.size());
+        stats.put("bytesSaved", bytesSavedTotal.get());
+        stats.put("target", defaultTarget.toString());
+        return stats;
+    }
+
+    private static void write(DerivedImageCache.ContentWriter content, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024)) {
+                content.writeTo(out);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void deleteIfUnder(String path, String dir) {
+        if (path == null) {
+            return;
+        }
+        Path file = Paths.get(path).toAbsolutePath().normalize();
+        if (!file.startsWith(Paths.get(dir).toAbsolutePath().normalize())) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("Could not delete derivative " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -1,8 +1,16 @@
 package com.photooptimizer.service;
 
+import com.photooptimizer.cache.DerivedImageCache;
+import com.photooptimizer.imaging.FilterPipeline;
+import com.photooptimizer.imaging.FilterStep;
+import com.photooptimizer.imaging.ImageInfo;
+import com.photooptimizer.imaging.TiledRenderer;
 import com.photooptimizer.model.Photo;
 import com.photooptimizer.repository.PhotoRepository;
+import com.photooptimizer.storage.BlobStore;
+import com.photooptimizer.util.Hashing;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -16,7 +24,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Photo Editor Service
@@ -25,11 +36,30 @@ import java.util.UUID;
 @Service
 public class EditorService {
     
+    private static final int MAX_MEMOIZED_HASHES = 10_000;
+    
     @Autowired
     private PhotoRepository photoRepository;
     
-    private final String editedDir = "./uploads/edited/";
-    private final String versionsDir = "./uploads/versions/";
+    @Autowired
+    private DerivedImageCache filterResultCache;
+    
+    @Autowired
+    private PhotoService photoService;
+    
+    @Autowired
+    private BlobStore blobStore;
+    
+    @Value("${photo.processing.tiled-threshold-pixels:16000000}")
+    private long tiledThresholdPixels;
+    
+    @Value("${photo.processing.tile-pixels:4000000}")
+    private long tilePixels;
+    
+    @Value("${photo.optimization.png-compression:6}")
+    private int pngCompression;
+    
+    private final Map<String, String> sourceHashes = new ConcurrentHashMap<>();
     
     /**
      * Save edited photo
@@ -40,20 +70,10 @@ public class EditorService {
             throw new RuntimeException("Photo not found");
         }
         
-        // Create edited directory if it doesn't exist
-        File editedDirFile = new File(editedDir);
-        if (!editedDirFile.exists()) {
-            editedDirFile.mkdirs();
-        }
-        
-        // Generate new filename for edited version
+        // Save the edited image under its content hash
         String originalName = originalPhoto.getOriginalName();
-        String extension = originalName.substring(originalName.lastIndexOf("."));
-        String fileName = "edited_" + UUID.randomUUID().toString() + extension;
-        
-        // Save the edited image
-        Path filePath = Paths.get(editedDir + fileName);
-        Files.write(filePath, imageBytes);
+        String extension = originalName.substring(originalName.lastIndexOf(".") + 1).toLowerCase();
+        Path filePath = blobStore.locate(blobStore.put(imageBytes, extension));
         
         // Update the original photo record
         originalPhoto.setOptimizedPath(filePath.toString());
@@ -72,203 +92,103 @@ public class EditorService {
             throw new RuntimeException("Photo not found");
         }
         
-        // Create versions directory if it doesn't exist
-        File versionsDirFile = new File(versionsDir);
-        if (!versionsDirFile.exists()) {
-            versionsDirFile.mkdirs();
-        }
-        
         // Generate filename for new version
         String originalName = originalPhoto.getOriginalName();
         String extension = originalName.substring(originalName.lastIndexOf("."));
         String fileName = versionName + "_" + UUID.randomUUID().toString() + extension;
         
-        // Save the new version
-        Path filePath = Paths.get(versionsDir + fileName);
-        Files.write(filePath, imageBytes);
-        
-        // Create new photo record for the version
+        // Version of the original; the bytes (or a delta against it) go to the blob store
         Photo versionPhoto = new Photo();
         versionPhoto.setOriginalName(versionName + "_" + originalName);
         versionPhoto.setFileName(fileName);
-        versionPhoto.setFilePath(filePath.toString());
-        versionPhoto.setFileSize((long) imageBytes.length);
         versionPhoto.setFormat(extension.substring(1).toLowerCase());
         versionPhoto.setUploadedAt(LocalDateTime.now());
         versionPhoto.setIsActive(true);
-        photoRepository.save(versionPhoto);
+        Photo savedPhoto = photoService.saveNewVersion(originalPhoto, versionPhoto, imageBytes, versionPhoto.getFormat());
         
-        return filePath.toString();
+        return savedPhoto.getFilePath();
     }
     
     /**
      * Apply filters to photo
      */
     public String applyFilter(Long photoId, String filterType, String filterValue) throws IOException {
-        Photo photo = photoRepository.findById(photoId).orElse(null);
-        if (photo == null) {
-            throw new RuntimeException("Photo not found");
-        }
-        
-        // Read the original image
-        BufferedImage originalImage = ImageIO.read(new File(photo.getFilePath()));
-        BufferedImage filteredImage = null;
-        
-        // Apply different filters based on type
-        switch (filterType.toLowerCase()) {
-            case "brightness":
-                filteredImage = applyBrightness(originalImage, Float.parseFloat(filterValue));
-                break;
-            case "contrast":
-                filteredImage = applyContrast(originalImage, Float.parseFloat(filterValue));
-                break;
-            case "grayscale":
-                filteredImage = applyGrayscale(originalImage);
-                break;
-            case "sepia":
-                filteredImage = applySepia(originalImage);
-                break;
-            case "blur":
-                filteredImage = applyBlur(originalImage, Integer.parseInt(filterValue));
-                break;
-            default:
-                throw new RuntimeException("Unknown filter type: " + filterType);
-        }
-        
-        // Save the filtered image
-        String fileName = "filtered_" + UUID.randomUUID().toString() + ".png";
-        Path filePath = Paths.get(editedDir + fileName);
-        
-        // Create edited directory if it doesn't exist
-        File editedDirFile = new File(editedDir);
-        if (!editedDirFile.exists()) {
-            editedDirFile.mkdirs();
-        }
-        
-        ImageIO.write(filteredImage, "png", filePath.toFile());
-        
-        return "Filter applied successfully. Saved to: " + filePath.toString();
+        String savedPath = renderFilterChain(photoId, List.of(new FilterStep(filterType, filterValue)));
+        return "Filter applied successfully. Saved to: " + savedPath;
     }
     
     /**
-     * Apply brightness filter
+     * Apply an ordered chain of filters to photo with one decode, one fused render and one encode
      */
-    private BufferedImage applyBrightness(BufferedImage image, float brightness) {
-        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
-        
-        for (int x = 0; x < image.getWidth(); x++) {
-            for (int y = 0; y < image.getHeight(); y++) {
-                int rgb = image.getRGB(x, y);
-                int r = (int) Math.min(255, Math.max(0, ((rgb >> 16) & 0xFF) * brightness));
-                int g = (int) Math.min(255, Math.max(0, ((rgb >> 8) & 0xFF) * brightness));
-                int b = (int) Math.min(255, Math.max(0, (rgb & 0xFF) * brightness));
-                
-                result.setRGB(x, y, (r << 16) | (g << 8) | b);
-            }
-        }
-        
-        return result;
+    public String applyFilterChain(Long photoId, List<FilterStep> chain) throws IOException {
+        String savedPath = renderFilterChain(photoId, chain);
+        return "Filter chain applied successfully (" + chain.size() + " filters). Saved to: " + savedPath;
     }
     
-    /**
-     * Apply contrast filter
-     */
-    private BufferedImage applyContrast(BufferedImage image, float contrast) {
-        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+    private String renderFilterChain(Long photoId, List<FilterStep> chain) throws IOException {
+        // Compile first so that a bad chain fails before the image is decoded
+        FilterPipeline pipeline = FilterPipeline.compile(chain);
         
-        for (int x = 0; x < image.getWidth(); x++) {
-            for (int y = 0; y < image.getHeight(); y++) {
-                int rgb = image.getRGB(x, y);
-                int r = (int) Math.min(255, Math.max(0, ((rgb >> 16) & 0xFF) * contrast));
-                int g = (int) Math.min(255, Math.max(0, ((rgb >> 8) & 0xFF) * contrast));
-                int b = (int) Math.min(255, Math.max(0, (rgb & 0xFF) * contrast));
-                
-                result.setRGB(x, y, (r << 16) | (g << 8) | b);
-            }
+        Photo photo = photoRepository.findById(photoId).orElse(null);
+        if (photo == null) {
+            throw new RuntimeException("Photo not found");
         }
         
-        return result;
-    }
-    
-    /**
-     * Apply grayscale filter
-     */
-    private BufferedImage applyGrayscale(BufferedImage image) {
-        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        // Same source content + same normalized chain = same pixels, so reuse earlier renders
+        String cacheKey = sourceHash(photo) + "_" + Hashing.sha256Hex(pipeline.getSignature()).substring(0, 32);
+        try (DerivedImageCache.Lease cached = filterResultCache.acquire(cacheKey)) {
+            if (cached != null) {
+                return cached.getPath().toString();
+            }
+        }
         
-        for (int x = 0; x < image.getWidth(); x++) {
-            for (int y = 0; y < image.getHeight(); y++) {
-                int rgb = image.getRGB(x, y);
-                int r = (rgb >> 16) & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = rgb & 0xFF;
+        DerivedImageCache.Lease result;
+        try (DerivedImageCache.Lease original = photoService.getOriginalFile(photo)) {
+            // Very large sources are decoded, filtered and encoded strip by strip
+            File source = original.getPath().toFile();
+            if (ImageInfo.probe(source).getPixelCount() > tiledThresholdPixels) {
+                result = filterResultCache.put(cacheKey, out ->
+                        TiledRenderer.renderPng(source, pipeline, tilePixels, pngCompression, out));
+            } else {
+                // Read the original image
+                BufferedImage originalImage = ImageIO.read(source);
+                BufferedImage filteredImage = pipeline.apply(originalImage);
                 
-                int gray = (int) (0.299 * r + 0.587 * g + 0.114 * b);
-                
-                result.setRGB(x, y, (gray << 16) | (gray << 8) | gray);
+                ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+                ImageIO.write(filteredImage, "png", encoded);
+                result = filterResultCache.put(cacheKey, encoded.toByteArray());
             }
         }
-        
-        return result;
+        try (result) {
+            return result.getPath().toString();
+        }
     }
     
     /**
-     * Apply sepia filter
+     * Filter result cache statistics
      */
-    private BufferedImage applySepia(BufferedImage image) {
-        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
-        
-        for (int x = 0; x < image.getWidth(); x++) {
-            for (int y = 0; y < image.getHeight(); y++) {
-                int rgb = image.getRGB(x, y);
-                int r = (rgb >> 16) & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = rgb & 0xFF;
-                
-                int newR = Math.min(255, (int) (0.393 * r + 0.769 * g + 0.189 * b));
-                int newG = Math.min(255, (int) (0.349 * r + 0.686 * g + 0.168 * b));
-                int newB = Math.min(255, (int) (0.272 * r + 0.534 * g + 0.131 * b));
-                
-                result.setRGB(x, y, (newR << 16) | (newG << 8) | newB);
-            }
-        }
-        
-        return result;
+    public Map<String, Object> getFilterCacheStats() {
+        return filterResultCache.getStats();
     }
     
     /**
-     * Apply blur filter (simple box blur)
+     * SHA-256 of the photo file: the hash recorded at upload when there is one,
+     * otherwise computed and memoized by path, size and modification time
      */
-    private BufferedImage applyBlur(BufferedImage image, int radius) {
-        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
-        
-        for (int x = 0; x < image.getWidth(); x++) {
-            for (int y = 0; y < image.getHeight(); y++) {
-                int r = 0, g = 0, b = 0, count = 0;
-                
-                for (int dx = -radius; dx <= radius; dx++) {
-                    for (int dy = -radius; dy <= radius; dy++) {
-                        int nx = x + dx;
-                        int ny = y + dy;
-                        
-                        if (nx >= 0 && nx < image.getWidth() && ny >= 0 && ny < image.getHeight()) {
-                            int rgb = image.getRGB(nx, ny);
-                            r += (rgb >> 16) & 0xFF;
-                            g += (rgb >> 8) & 0xFF;
-                            b += rgb & 0xFF;
-                            count++;
-                        }
-                    }
-                }
-                
-                r /= count;
-                g /= count;
-                b /= count;
-                
-                result.setRGB(x, y, (r << 16) | (g << 8) | b);
+    private String sourceHash(Photo photo) throws IOException {
+        if (photo.getContentHash() != null) {
+            return photo.getContentHash();
+        }
+        Path source = Paths.get(photo.getFilePath());
+        String memoKey = source.toAbsolutePath() + "|" + Files.size(source) + "|" + Files.getLastModifiedTime(source).toMillis();
+        String hash = sourceHashes.get(memoKey);
+        if (hash == null) {
+            hash = Hashing.sha256Hex(source);
+            if (sourceHashes.size() >= MAX_MEMOIZED_HASHES) {
+                sourceHashes.clear();
             }
+            sourceHashes.put(memoKey, hash);
         }
-        
-        return result;
+        return hash;
     }
 }
@@ -0,0 +1,325 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.imaging.ImageInfo;
+import com.photooptimizer.storage.BlobStore;
+import com.photooptimizer.storage.BlobStore.StagedBlob;
+import com.photooptimizer.util.CapacityExceededException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Bulk import of photos from a ZIP archive
+ * The archive is read once, front to back, straight from the request body;
+ * nothing is unpacked to disk. The reading thread only inflates entries and
+ * hands their bytes to a worker pool, which probes, hashes and stores them in
+ * parallel. Photo rows are inserted in JDBC batches, and renditions are left
+ * to the derivative backfill rather than queued one by one.
+ */
+@Service
+public class IngestService {
+
+    private static final String INSERT_PHOTO =
+        "INSERT INTO photos (original_name, file_name, file_path, file_size, content_hash, format, width, height, uploaded_at, is_active) "
+        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, TRUE)";
+
+    /** Failures listed individually in a result; the count is always exact */
+    private static final int MAX_LISTED_FAILURES = 1000;
+
+    @Autowired
+    private PhotoService photoService;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${photo.ingest.workers:0}")
+    private int workers;
+
+    @Value("${photo.ingest.max-entry-size:100MB}")
+    private DataSize maxEntrySize;
+
+    @Value("${photo.ingest.buffer-size:256MB}")
+    private DataSize bufferSize;
+
+    @Value("${photo.ingest.write-batch-size:200}")
+    private int writeBatchSize;
+
+    @Value("${photo.ingest.max-concurrent:2}")
+    private int maxConcurrent;
+
+    private ExecutorService executor;
+    private Semaphore running;
+
+    @PostConstruct
+    public void start() {
+        int threads = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        // Unbounded queue is fine here: each ingest holds back once its buffer budget is used up
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "photo-ingest-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        running = new Semaphore(maxConcurrent);
+        System.out.println("Archive ingestion started with " + threads + " workers and " + bufferSize + " of read-ahead");
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Import every supported image in the archive; returns once all of them are stored
+     * Entries that cannot be imported are counted and listed, they do not stop the rest.
+     * @throws CapacityExceededException when max-concurrent ingests are already running
+     */
+    public Result ingest(InputStream archive) throws IOException {
+        if (!running.tryAcquire()) {
+            throw new CapacityExceededException("Too many archive imports running (" + maxConcurrent + "), retry later");
+        }
+        Result result = new Result();
+        RowWriter writer = new RowWriter(result);
+        // Bytes read from the archive but not yet stored, in KB
+        int budgetKb = (int) Math.min(Integer.MAX_VALUE, Math.max(1, bufferSize.toKilobytes()));
+        Semaphore budget = new Semaphore(budgetKb);
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        long started = System.nanoTime();
+        try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(archive, 64 * 1024))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (entry.isDirectory() || isHidden(name)) {
+                    continue;
+                }
+                result.entries.incrementAndGet();
+                String fileName = name.substring(name.lastIndexOf('/') + 1);
+                int dot = fileName.lastIndexOf('.');
+                String extension = dot > 0 ? fileName.substring(dot + 1).toLowerCase() : "";
+                if (extension.isEmpty() || !photoService.isSupportedFormat(extension)) {
+                    result.skipped.incrementAndGet();
+                    continue;
+                }
+
+                byte[] bytes = zip.readNBytes((int) Math.min(Integer.MAX_VALUE - 8, maxEntrySize.toBytes() + 1));
+                if (bytes.length > maxEntrySize.toBytes()) {
+                    result.recordFailure(name, "Larger than " + maxEntrySize);
+                    continue;
+                }
+                result.bytesRead.addAndGet(bytes.length);
+                int permits = Math.min(budgetKb, Math.max(1, bytes.length / 1024));
+                budget.acquire(permits);
+                pending.add(CompletableFuture
+                    .runAsync(() -> store(name, fileName, extension, bytes, writer), executor)
+                    .whenComplete((ignored, error) -> {
+                        budget.release(permits);
+                        if (error != null) {
+                            Throwable cause = error.getCause() != null ? error.getCause() : error;
+                            result.recordFailure(name, cause.getMessage() != null ? cause.getMessage() : cause.toString());
+                        }
+                    }));
+            }
+        } catch (ZipException | EOFException e) {
+            result.error = "Archive is truncated or not a valid ZIP: " + e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.error = "Interrupted";
+        } finally {
+            try {
+                CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).exceptionally(error -> null).join();
+                writer.flush();
+            } finally {
+                running.release();
+            }
+            result.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        }
+        System.out.println("Ingested " + result.getIngested() + " of " + result.getEntries() + " archive entries in "
+            + result.elapsedMillis + " ms");
+        return result;
+    }
+
+    /**
+     * Runs on the worker pool: probe, hash and store one entry, then queue its row
+     */
+    private void store(String name, String fileName, String extension, byte[] bytes, RowWriter writer) {
+        try {
+            ImageInfo info;
+            try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+                info = ImageInfo.probe(input);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Not a readable image");
+            }
+            if (!photoService.isSupportedFormat(info.getFormat())) {
+                throw new IllegalArgumentException("Unsupported image format: " + info.getFormat());
+            }
+            try (StagedBlob staged = blobStore.stage(new ByteArrayInputStream(bytes), extension)) {
+                Path path = photoService.storeContent(staged);
+                writer.add(name, new Object[] {
+                    fileName,
+                    UUID.randomUUID().toString() + "." + extension,
+                    path.toString(),
+                    staged.getSize(),
+                    staged.getContentHash(),
+                    extension,
+                    info.getWidth(),
+                    info.getHeight(),
+                    Timestamp.valueOf(LocalDateTime.now())
+                });
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private static boolean isHidden(String name) {
+        return name.startsWith("__MACOSX/") || name.contains("/.") || name.startsWith(".");
+    }
+
+    /**
+     * Buffers photo rows and inserts them writeBatchSize at a time
+     * A failed insert fails exactly the entries in that batch and releases
+     * their stored content.
+     */
+    private final class RowWriter {
+        private final Result result;
+        private List<String> names = new ArrayList<>();
+        private List<Object[]> rows = new ArrayList<>();
+
+        RowWriter(Result result) {
+            this.result = result;
+        }
+
+        void add(String name, Object[] row) {
+            List<String> fullNames = null;
+            List<Object[]> fullRows = null;
+            synchronized (this) {
+                names.add(name);
+                rows.add(row);
+                if (rows.size() >= writeBatchSize) {
+                    fullNames = names;
+                    fullRows = rows;
+                    names = new ArrayList<>();
+                    rows = new ArrayList<>();
+                }
+            }
+            // Insert outside the lock so the other workers keep going
+            if (fullRows != null) {
+                insert(fullNames, fullRows);
+            }
+        }
+
+        void flush() {
+            List<String> lastNames;
+            List<Object[]> lastRows;
+            synchronized (this) {
+                lastNames = names;
+                lastRows = rows;
+                names = new ArrayList<>();
+                rows = new ArrayList<>();
+            }
+            if (!lastRows.isEmpty()) {
+                insert(lastNames, lastRows);
+            }
+        }
+
+        private void insert(List<String> batchNames, List<Object[]> batchRows) {
+            try {
+                jdbcTemplate.batchUpdate(INSERT_PHOTO, batchRows);
+                result.ingested.addAndGet(batchRows.size());
+            } catch (RuntimeException e) {
+                System.err.println("Inserting " + batchRows.size() + " ingested photos failed: " + e.getMessage());
+                for (int i = 0; i < batchRows.size(); i++) {
+                    // No row refers to the stored file, so drop the reference store() took
+                    Object[] row = batchRows.get(i);
+                    photoService.releaseContent((String) row[4], (String) row[2]);
+                    result.recordFailure(batchNames.get(i), "Database write failed");
+                }
+            }
+        }
+    }
+
+    /**
+     * Outcome of one archive import
+     */
+    public static class Result {
+        private final AtomicInteger entries = new AtomicInteger();
+        private final AtomicInteger ingested = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final List<Map<String, String>> failures = new ArrayList<>();
+        private volatile long elapsedMillis;
+        private volatile String error;
+
+        void recordFailure(String name, String message) {
+            failed.incrementAndGet();
+            synchronized (failures) {
+                if (failures.size() < MAX_LISTED_FAILURES) {
+                    failures.add(Map.of("entry", name, "error", message));
+                }
+            }
+        }
+
+        /** Files in the archive, directories and hidden files excluded */
+        public int getEntries() { return entries.get(); }
+
+        public int getIngested() { return ingested.get(); }
+
+        /** Entries whose extension is not a supported image format */
+        public int getSkipped() { return skipped.get(); }
+
+        public int getFailed() { return failed.get(); }
+
+        public List<Map<String, String>> getFailures() {
+            synchronized (failures) {
+                return new ArrayList<>(failures);
+            }
+        }
+
+        public long getBytesRead() { return bytesRead.get(); }
+
+        public long getElapsedMillis() { return elapsedMillis; }
+
+        public long getBytesPerSecond() {
+            return elapsedMillis > 0 ? bytesRead.get() * 1000 / elapsedMillis : bytesRead.get();
+        }
+
+        /** Set if the archive itself could not be read to the end; entries before that point are kept */
+        public String getError() { return error; }
+    }
+}
@@ -0,0 +1,249 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.util.CapacityExceededException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background jobs for CPU-heavy image work (filters, OCR, text edits)
+ * Jobs run on a fixed-size pool with a bounded queue that is separate from the
+ * servlet threads, so a burst of heavy requests queues up here (or is rejected
+ * once the queue is full) instead of tying up Tomcat. Endpoints that answer
+ * with the result run their work here too (call) and only wait for it.
+ */
+@Service
+public class JobService {
+
+    @Value("${photo.jobs.workers:0}")
+    private int workers;
+
+    @Value("${photo.jobs.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${photo.jobs.retention:30m}")
+    private Duration retention;
+
+    @Value("${photo.jobs.call-timeout:60s}")
+    private Duration callTimeout;
+
+    private ThreadPoolExecutor executor;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    public JobService() {
+    }
+
+    JobService(int workers, int queueCapacity, Duration retention) {
+        this.workers = workers;
+        this.queueCapacity = queueCapacity;
+        this.retention = retention;
+    }
+
+    @PostConstruct
+    public void start() {
+        int threads = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            runnable -> {
+                Thread thread = new Thread(runnable, "photo-job-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+        System.out.println("Job executor started with " + threads + " workers and a queue of " + queueCapacity);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queue work and return immediately
+     * @throws QueueFullException when the queue is at capacity
+     */
+    public Job submit(String type, Long photoId, Callable<String> work) {
+        Job job = new Job(UUID.randomUUID().toString(), type, photoId);
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(() -> run(job, work));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            rejectedCount.incrementAndGet();
+            throw new QueueFullException("Job queue is full (" + queueCapacity + " waiting), retry later");
+        }
+        return job;
+    }
+
+    /**
+     * Run work on the pool and wait up to photo.jobs.call-timeout for its result
+     * @see #call(Callable, Duration)
+     */
+    public <T> T call(Callable<T> work) throws InterruptedException, ExecutionException, TimeoutException {
+        return call(work, callTimeout);
+    }
+
+    /**
+     * Run work on the pool and wait for its result, for endpoints that answer
+     * in the same request; the calling thread only waits, so the work is bounded
+     * by the pool and queue like any submitted job. Nothing is tracked: work
+     * that does not finish in time is cancelled.
+     * @throws QueueFullException when the queue is at capacity
+     * @throws ExecutionException with the work's own failure as the cause
+     */
+    public <T> T call(Callable<T> work, Duration timeout)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        FutureTask<T> task = new FutureTask<>(work);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            throw new QueueFullException("Job queue is full (" + queueCapacity + " waiting), retry later");
+        }
+        try {
+            return task.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | InterruptedException e) {
+            // Nobody waits for it any more: stop it, or free its queue slot if it never started
+            task.cancel(true);
+            executor.remove(task);
+            throw e;
+        }
+    }
+
+    private void run(Job job, Callable<String> work) {
+        job.markRunning();
+        try {
+            job.markSucceeded(work.call());
+        } catch (Exception e) {
+            System.err.println("Job " + job.getId() + " (" + job.getType() + ") failed: " + e.getMessage());
+            job.markFailed(e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+
+    /**
+     * Job by id, or null if unknown or already purged
+     */
+    public Job getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    /**
+     * Pool and queue statistics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("workers", executor.getMaximumPoolSize());
+        stats.put("active", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("completed", executor.getCompletedTaskCount());
+        stats.put("rejected", rejectedCount.get());
+        stats.put("tracked", jobs.size());
+        return stats;
+    }
+
+    /**
+     * Forget finished jobs once their results have been kept for the retention period
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void purgeFinishedJobs() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(retention);
+        jobs.values().removeIf(job -> job.getFinishedAt() != null && job.getFinishedAt().isBefore(cutoff));
+    }
+
+    /**
+     * Lifecycle of a job
+     */
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED
+    }
+
+    /**
+     * A submitted job and, once finished, its result or error
+     */
+    public static class Job {
+        private final String id;
+        private final String type;
+        private final Long photoId;
+        private final LocalDateTime submittedAt = LocalDateTime.now();
+        private volatile Status status = Status.QUEUED;
+        private volatile LocalDateTime startedAt;
+        private volatile LocalDateTime finishedAt;
+        private volatile String result;
+        private volatile String error;
+
+        Job(String id, String type, Long photoId) {
+            this.id = id;
+            this.type = type;
+            this.photoId = photoId;
+        }
+
+        void markRunning() {
+            startedAt = LocalDateTime.now();
+            status = Status.RUNNING;
+        }
+
+        void markSucceeded(String result) {
+            this.result = result;
+            finishedAt = LocalDateTime.now();
+            status = Status.SUCCEEDED;
+        }
+
+        void markFailed(String error) {
+            this.error = error;
+            finishedAt = LocalDateTime.now();
+            status = Status.FAILED;
+        }
+
+        public String getId() { return id; }
+
+        public String getType() { return type; }
+
+        public Long getPhotoId() { return photoId; }
+
+        public Status getStatus() { return status; }
+
+        public LocalDateTime getSubmittedAt() { return submittedAt; }
+
+        public LocalDateTime getStartedAt() { return startedAt; }
+
+        public LocalDateTime getFinishedAt() { return finishedAt; }
+
+        public String getResult() { return result; }
+
+        public String getError() { return error; }
+    }
+
+    /**
+     * Thrown when the job queue cannot take more work
+     */
+    public static class QueueFullException extends CapacityExceededException {
+        private static final long serialVersionUID = 1L;
+
+        public QueueFullException(String message) {
+            super(message);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.photooptimizer.service;
 
+import com.photooptimizer.imaging.FilterEngine;
 import net.sourceforge.tess4j.Tesseract;
 import net.sourceforge.tess4j.TesseractException;
 import net.sourceforge.tess4j.Word;
@@ -178,22 +179,9 @@ public class OCRService {
     /**
      * Preprocess image for better OCR results
      */
-    private BufferedImage preprocessImage(BufferedImage originalImage) {
+    BufferedImage preprocessImage(BufferedImage originalImage) {
         // Convert to grayscale for better OCR
-        BufferedImage grayscale = new BufferedImage(
-            originalImage.getWidth(), 
-            originalImage.getHeight(), 
-            BufferedImage.TYPE_BYTE_GRAY
-        );
-        
-        for (int x = 0; x < originalImage.getWidth(); x++) {
-            for (int y = 0; y < originalImage.getHeight(); y++) {
-                int rgb = originalImage.getRGB(x, y);
-                grayscale.setRGB(x, y, rgb);
-            }
-        }
-        
-        return grayscale;
+        return FilterEngine.grayscaleBytes(originalImage);
     }
     
     /**
@@ -209,11 +197,31 @@ public class OCRService {
                 return textRegions;
             }
             
+            // Check if Tesseract is properly initialized before paying for a decode
+            if (tesseract == null) {
+                System.err.println("Tesseract is not properly initialized");
+                return textRegions;
+            }
+            
             // Load image and get words with bounding boxes
             BufferedImage image = ImageIO.read(imageFile);
             System.out.println("Image loaded successfully, size: " + image.getWidth() + "x" + image.getHeight());
+            return detectTextRegions(image);
             
-            // Check if Tesseract is properly initialized
+        } catch (Exception e) {
+            System.err.println("Error detecting text regions: " + e.getMessage());
+            e.printStackTrace();
+        }
+        
+        return textRegions;
+    }
+    
+    /**
+     * Detect text regions with bounding boxes in an already decoded image
+     */
+    public List<TextRegion> detectTextRegions(BufferedImage image) {
+        List<TextRegion> textRegions = new ArrayList<>();
+        try {
             if (tesseract == null) {
                 System.err.println("Tesseract is not properly initialized");
                 return textRegions;
@@ -300,7 +308,7 @@ public class OCRService {
     /**
      * Sample background color from surrounding pixels
      */
-    private Color sampleBackgroundColor(BufferedImage image, TextRegion region) {
+    Color sampleBackgroundColor(BufferedImage image, TextRegion region) {
         int sampleSize = 10; // Sample pixels around the text region
         int totalR = 0, totalG = 0, totalB = 0, count = 0;
         
@@ -1,17 +1,40 @@
 package com.photooptimizer.service;
 
+import com.photooptimizer.cache.DerivedImageCache;
+import com.photooptimizer.cache.HotPhotoCache;
+import com.photooptimizer.imaging.ImageEncoding;
+import com.photooptimizer.imaging.ImageInfo;
+import com.photooptimizer.imaging.TileDelta;
 import com.photooptimizer.model.Photo;
+import com.photooptimizer.model.PhotoBlob;
+import com.photooptimizer.model.PhotoSummary;
+import com.photooptimizer.repository.PhotoBlobRepository;
 import com.photooptimizer.repository.PhotoRepository;
+import com.photooptimizer.storage.BlobStore;
+import com.photooptimizer.storage.BlobStore.StagedBlob;
+import com.photooptimizer.util.Hashing;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.UUID;
 
@@ -24,48 +47,264 @@ public class PhotoService {
     @Autowired
     private PhotoRepository photoRepository;
     
-    private final String uploadDir = "./uploads/";
+    @Autowired
+    private PhotoBlobRepository blobRepository;
+    
+    @Autowired
+    private DerivativeService derivativeService;
+    
+    @Autowired
+    private BlobStore blobStore;
+    
+    @Autowired
+    private HotPhotoCache hotPhotoCache;
+    
+    @Autowired
+    private VersionService versionService;
+    
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    
+    @Value("${photo.optimization.supported-formats:jpg,jpeg,png,gif,bmp}")
+    private List<String> supportedFormats;
+    
+    @Value("${photo.listing.page-size:50}")
+    private int defaultPageSize;
+    
+    @Value("${photo.listing.max-page-size:200}")
+    private int maxPageSize;
+    
+    /**
+     * Serializes uploads and deletes of the same content within this instance;
+     * held until the transaction that takes or drops the reference commits
+     */
+    private final Object[] hashLocks = new Object[64];
+    
+    {
+        for (int i = 0; i < hashLocks.length; i++) {
+            hashLocks[i] = new Object();
+        }
+    }
     
     public List<Photo> getAllPhotos() {
         return photoRepository.findByIsActiveTrueOrderByUploadedAtDesc();
     }
     
-    public Photo uploadPhoto(MultipartFile file) throws IOException {
-        // Create upload directory if it doesn't exist
-        File uploadDirFile = new File(uploadDir);
-        if (!uploadDirFile.exists()) {
-            uploadDirFile.mkdirs();
+    /**
+     * One page of active photos, newest first, seeking past the cursor on
+     * (uploadedAt, id) instead of counting an offset
+     * @param cursor nextCursor of the previous page, or null for the first page
+     * @param limit page size, or null for photo.listing.page-size
+     * @throws IllegalArgumentException for a malformed cursor or limit
+     */
+    public PhotoPage getPhotoPage(String cursor, Integer limit) {
+        int size = limit != null ? limit : defaultPageSize;
+        if (size < 1 || size > maxPageSize) {
+            throw new IllegalArgumentException("limit must be between 1 and " + maxPageSize);
         }
-        
+        // One extra row tells whether another page follows
+        PageRequest page = PageRequest.of(0, size + 1);
+        List<PhotoSummary> rows;
+        if (cursor == null || cursor.isEmpty()) {
+            rows = photoRepository.findActiveSummaries(page);
+        } else {
+            Cursor position = Cursor.decode(cursor);
+            rows = photoRepository.findActiveSummariesAfter(position.uploadedAt, position.id, page);
+        }
+        if (rows.size() <= size) {
+            return new PhotoPage(rows, null);
+        }
+        List<PhotoSummary> photos = rows.subList(0, size);
+        PhotoSummary last = photos.get(size - 1);
+        return new PhotoPage(photos, new Cursor(last.getUploadedAt(), last.getId()).encode());
+    }
+    
+    /**
+     * Store an upload, hashing it while it is streamed into the blob store
+     * Bytes that are already stored are not written again: the new photo
+     * points at the existing file and its reference count goes up.
+     */
+    public Photo uploadPhoto(MultipartFile file) throws IOException {
         // Generate unique filename
         String originalName = file.getOriginalFilename();
+        if (originalName == null || originalName.lastIndexOf(".") < 0) {
+            throw new IllegalArgumentException("File name has no extension");
+        }
         String extension = originalName.substring(originalName.lastIndexOf("."));
         String fileName = UUID.randomUUID().toString() + extension;
         
-        // Save file
-        Path filePath = Paths.get(uploadDir + fileName);
-        Files.copy(file.getInputStream(), filePath);
+        // Reject unsupported files from their header, before anything is written
+        ImageInfo info = probeUpload(file, extension);
         
         // Create photo record
         Photo photo = new Photo();
         photo.setOriginalName(originalName);
         photo.setFileName(fileName);
-        photo.setFilePath(filePath.toString());
-        photo.setFileSize(file.getSize());
         photo.setFormat(extension.substring(1).toLowerCase());
+        photo.setWidth(info.getWidth());
+        photo.setHeight(info.getHeight());
         photo.setUploadedAt(LocalDateTime.now());
         
-        return photoRepository.save(photo);
+        try (StagedBlob staged = blobStore.stage(file.getInputStream(), photo.getFormat())) {
+            return saveWithContent(photo, staged);
+        }
+    }
+    
+    /**
+     * Store generated content (an edit, a version) as a new photo
+     * The caller fills in names and format; path, size and hash are set here.
+     */
+    public Photo saveNewPhoto(Photo photo, byte[] content, String extension) throws IOException {
+        if (photo.getUploadedAt() == null) {
+            photo.setUploadedAt(LocalDateTime.now());
+        }
+        try (StagedBlob staged = blobStore.stage(new ByteArrayInputStream(content), extension)) {
+            return saveNewPhoto(photo, staged);
+        }
+    }
+    
+    /**
+     * Store generated content as a new version of parent, linked into its
+     * version tree; with photo.versions.delta-storage on, it may be kept as a
+     * tile delta against parent (see VersionService)
+     */
+    public Photo saveNewVersion(Photo parent, Photo version, byte[] content, String extension) throws IOException {
+        version.setParentId(parent.getId());
+        version.setRootId(parent.getRootId() != null ? parent.getRootId() : parent.getId());
+        VersionService.Delta delta = versionService.encodeDelta(parent, content);
+        if (delta == null) {
+            return saveNewPhoto(version, content, extension);
+        }
+        
+        if (version.getUploadedAt() == null) {
+            version.setUploadedAt(LocalDateTime.now());
+        }
+        // Hash and size are those of the image, as for every other photo
+        version.setContentHash(Hashing.sha256Hex(delta.getContent()));
+        version.setFileSize((long) delta.getContent().length);
+        version.setFormat("png");
+        version.setFilePath(versionService.materialized(version, delta.getContent()).toString());
+        
+        Photo savedPhoto;
+        try (StagedBlob staged = blobStore.stage(new ByteArrayInputStream(delta.getDelta()), TileDelta.EXTENSION)) {
+            synchronized (lockFor(staged.getContentHash())) {
+                savedPhoto = inTransaction(() -> {
+                    version.setDeltaPath(acquireBlob(staged).toString());
+                    version.setDeltaHash(staged.getContentHash());
+                    return photoRepository.save(version);
+                });
+            }
+        }
+        derivativeService.submit(savedPhoto);
+        return savedPhoto;
     }
     
-    public void deletePhoto(Long id) {
+    /**
+     * The version tree a photo belongs to: the root first, then every version
+     * made from it (deleted ones included, so the tree stays connected) oldest first
+     */
+    public List<Photo> getLineage(Photo photo) {
+        Long rootId = photo.getRootId() != null ? photo.getRootId() : photo.getId();
+        List<Photo> lineage = new ArrayList<>();
+        Photo root = rootId.equals(photo.getId()) ? photo : photoRepository.findById(rootId).orElse(null);
+        if (root != null) {
+            lineage.add(root);
+        }
+        lineage.addAll(photoRepository.findByRootIdOrderByIdAsc(rootId));
+        return lineage;
+    }
+    
+    /**
+     * Store staged content (e.g. an assembled chunked upload) as a new photo
+     * The caller keeps ownership of the staged blob and closes it.
+     */
+    public Photo saveNewPhoto(Photo photo, StagedBlob staged) throws IOException {
+        if (photo.getUploadedAt() == null) {
+            photo.setUploadedAt(LocalDateTime.now());
+        }
+        return saveWithContent(photo, staged);
+    }
+    
+    /**
+     * Take a reference on staged content and return where it is stored,
+     * for bulk callers that write their photo rows themselves
+     */
+    public Path storeContent(StagedBlob staged) throws IOException {
+        synchronized (lockFor(staged.getContentHash())) {
+            return acquireBlob(staged);
+        }
+    }
+    
+    /**
+     * Drop a reference taken with storeContent whose photo row was never
+     * written; the file is removed if nothing else uses it
+     */
+    public void releaseContent(String contentHash, String filePath) {
+        synchronized (lockFor(contentHash)) {
+            deleteQuietly(transactionTemplate.execute(status -> releaseBlob(contentHash, filePath)));
+        }
+    }
+    
+    /**
+     * The reference and the photo row are written in one transaction, so a
+     * failed save leaves the reference count as it was
+     */
+    private Photo saveWithContent(Photo photo, StagedBlob staged) throws IOException {
+        Photo savedPhoto;
+        synchronized (lockFor(staged.getContentHash())) {
+            savedPhoto = inTransaction(() -> {
+                Path filePath = acquireBlob(staged);
+                photo.setFilePath(filePath.toString());
+                photo.setFileSize(staged.getSize());
+                photo.setContentHash(staged.getContentHash());
+                return photoRepository.save(photo);
+            });
+        }
+        derivativeService.submit(savedPhoto);
+        return savedPhoto;
+    }
+    
+    /**
+     * Deactivate a photo and drop its file reference
+     * @throws IOException if a delta version based on it could not be stored
+     *         in full; the photo is then kept, file and reference included
+     */
+    public void deletePhoto(Long id) throws IOException {
+        hotPhotoCache.invalidate(id);
         Photo photo = photoRepository.findById(id).orElse(null);
         if (photo != null) {
-            // Delete file from filesystem
-            try {
-                Files.deleteIfExists(Paths.get(photo.getFilePath()));
-            } catch (IOException e) {
-                // Log error but continue with database deletion
+            boolean active = Boolean.TRUE.equals(photo.getIsActive());
+            if (active && !storeVersionsInFull(photo)) {
+                throw new IOException("Photo " + id + " was kept: a version based on it could not be stored in full");
+            }
+            if (photo.getContentHash() != null) {
+                // Shared file: only the last active photo removes it
+                if (active) {
+                    String unreferenced;
+                    synchronized (lockFor(storedHash(photo))) {
+                        // The reference is dropped with the photo's deactivation, and the file
+                        // removed only once both are committed
+                        unreferenced = transactionTemplate.execute(status -> {
+                            String released = releaseBlob(storedHash(photo), storedPath(photo));
+                            photo.setIsActive(false);
+                            photoRepository.save(photo);
+                            return released;
+                        });
+                        deleteQuietly(unreferenced);
+                    }
+                    if (unreferenced != null) {
+                        derivativeService.deleteDerivatives(photo);
+                    }
+                    return;
+                }
+            } else {
+                // Delete file from storage
+                try {
+                    deleteFile(photo.getFilePath());
+                } catch (IOException e) {
+                    // Log error but continue with database deletion
+                }
+                derivativeService.deleteDerivatives(photo);
             }
             
             // Mark as inactive in database
@@ -74,11 +313,282 @@ public class PhotoService {
         }
     }
     
+    /**
+     * Rewrite the active delta versions based on a photo as full copies, so
+     * that they survive its file being removed
+     * @return false if one could not be rebuilt; the photo's file must then stay
+     */
+    private boolean storeVersionsInFull(Photo base) {
+        boolean done = true;
+        for (Photo version : photoRepository.findByParentIdAndDeltaPathIsNotNullAndIsActiveTrue(base.getId())) {
+            try {
+                byte[] content;
+                try (DerivedImageCache.Lease source = versionService.resolve(version)) {
+                    content = Files.readAllBytes(source.getPath());
+                }
+                String deltaHash = version.getDeltaHash();
+                String deltaPath = version.getDeltaPath();
+                try (StagedBlob staged = blobStore.stage(new ByteArrayInputStream(content), "png")) {
+                    synchronized (lockFor(staged.getContentHash())) {
+                        inTransaction(() -> {
+                            version.setFilePath(acquireBlob(staged).toString());
+                            version.setContentHash(staged.getContentHash());
+                            version.setDeltaPath(null);
+                            version.setDeltaHash(null);
+                            return savePhoto(version);
+                        });
+                    }
+                }
+                synchronized (lockFor(deltaHash)) {
+                    deleteQuietly(transactionTemplate.execute(status -> releaseBlob(deltaHash, deltaPath)));
+                }
+            } catch (IOException e) {
+                System.err.println("Keeping photo " + base.getId() + ": version " + version.getId()
+                    + " could not be stored in full: " + e.getMessage());
+                done = false;
+            }
+        }
+        return done;
+    }
+    
+    /**
+     * Format and dimensions from the upload's header; no pixels are decoded
+     * @throws IllegalArgumentException if the extension or the actual content
+     *         is not one of photo.optimization.supported-formats
+     */
+    private ImageInfo probeUpload(MultipartFile file, String extension) throws IOException {
+        if (!isSupportedFormat(extension.substring(1))) {
+            throw new IllegalArgumentException("Unsupported file type: " + extension);
+        }
+        ImageInfo info;
+        try (ImageInputStream input = ImageIO.createImageInputStream(file.getInputStream())) {
+            if (input == null) {
+                throw new IOException("Cannot read upload");
+            }
+            info = ImageInfo.probe(input);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Not a readable image: " + file.getOriginalFilename());
+        }
+        if (!isSupportedFormat(info.getFormat())) {
+            throw new IllegalArgumentException("Unsupported image format: " + info.getFormat());
+        }
+        return info;
+    }
+    
+    boolean isSupportedFormat(String format) {
+        String normalized = ImageEncoding.normalizeFormat(format);
+        for (String supported : supportedFormats) {
+            if (ImageEncoding.normalizeFormat(supported.trim()).equals(normalized)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Path of the stored file for this content, committing the staged blob
+     * only if the content is new
+     */
+    private Path acquireBlob(StagedBlob staged) throws IOException {
+        String contentHash = staged.getContentHash();
+        PhotoBlob blob = blobRepository.findById(contentHash).orElse(null);
+        if (blob != null && fileExists(blob.getFilePath())) {
+            blobRepository.incrementRefCount(contentHash);
+            return Paths.get(blob.getFilePath());
+        }
+        
+        Path target = blobStore.locate(blobStore.commit(staged));
+        if (blob == null) {
+            blob = new PhotoBlob(contentHash, target.toString(), staged.getSize());
+        } else {
+            // Row survived but the file was lost; the upload restores it
+            blob.setFilePath(target.toString());
+            blob.setRefCount(blob.getRefCount() + 1);
+        }
+        blobRepository.save(blob);
+        return target;
+    }
+    
+    /**
+     * Drop one reference to a stored file; the row goes with the last one,
+     * the file is left for the caller to remove after the commit
+     * @param filePath where the file is if it predates the blob table
+     * @return the file to remove if that was the last reference, otherwise null
+     */
+    private String releaseBlob(String contentHash, String filePath) {
+        PhotoBlob blob = blobRepository.findById(contentHash).orElse(null);
+        if (blob == null) {
+            return filePath;
+        }
+        blobRepository.decrementRefCount(contentHash);
+        return blobRepository.deleteUnreferenced(contentHash) > 0 ? blob.getFilePath() : null;
+    }
+    
+    private void deleteQuietly(String filePath) {
+        if (filePath == null) {
+            return;
+        }
+        try {
+            deleteFile(filePath);
+        } catch (IOException e) {
+            // Log error but continue; the blob row is already gone
+            System.err.println("Could not delete " + filePath + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Run work that stores files in a transaction, passing its IOException through
+     */
+    private <T> T inTransaction(IOWork<T> work) throws IOException {
+        try {
+            return transactionTemplate.execute(status -> {
+                try {
+                    return work.run();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+    
+    @FunctionalInterface
+    private interface IOWork<T> {
+        T run() throws IOException;
+    }
+    
+    /**
+     * Files written before the blob store (flat ./uploads) are still handled by path
+     */
+    private boolean fileExists(String filePath) {
+        String key = blobStore.keyOf(Paths.get(filePath));
+        return key != null ? blobStore.exists(key) : Files.exists(Paths.get(filePath));
+    }
+    
+    private void deleteFile(String filePath) throws IOException {
+        String key = blobStore.keyOf(Paths.get(filePath));
+        if (key != null) {
+            blobStore.delete(key);
+        } else {
+            Files.deleteIfExists(Paths.get(filePath));
+        }
+    }
+    
+    /**
+     * Blob a photo holds a reference on: its delta, if it has one
+     */
+    private static String storedHash(Photo photo) {
+        return photo.getDeltaHash() != null ? photo.getDeltaHash() : photo.getContentHash();
+    }
+    
+    private static String storedPath(Photo photo) {
+        return photo.getDeltaPath() != null ? photo.getDeltaPath() : photo.getFilePath();
+    }
+    
+    private Object lockFor(String contentHash) {
+        return hashLocks[Math.floorMod(contentHash.hashCode(), hashLocks.length)];
+    }
+    
     public Photo getPhotoById(Long id) {
         return photoRepository.findById(id).orElse(null);
     }
     
     public Photo savePhoto(Photo photo) {
+        if (photo.getId() != null) {
+            hotPhotoCache.invalidate(photo.getId());
+        }
         return photoRepository.save(photo);
     }
+    
+    /**
+     * Readable file with the photo's original, materialized first if the
+     * photo is a version stored as a delta; read it before closing the lease
+     */
+    public DerivedImageCache.Lease getOriginalFile(Photo photo) throws IOException {
+        return versionService.resolve(photo);
+    }
+    
+    /**
+     * Cached original of a photo, or null on a miss; no database access
+     */
+    public HotPhotoCache.Entry getCachedOriginal(Long id) {
+        return hotPhotoCache.get(id);
+    }
+    
+    /**
+     * Read the photo's original into the hot cache
+     * @return the entry, or null if the cache did not admit it or the file is unreadable
+     */
+    public HotPhotoCache.Entry cacheOriginal(Photo photo) {
+        try (DerivedImageCache.Lease source = versionService.resolve(photo)) {
+            Path file = source.getPath();
+            String fileName = file.getFileName().toString();
+            String format = fileName.substring(fileName.lastIndexOf('.') + 1);
+            return hotPhotoCache.load(photo.getId(), file, photo.getContentHash(), format);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Decode the photo's original, from the hot cache when it is there
+     */
+    public BufferedImage readImage(Photo photo) throws IOException {
+        HotPhotoCache.Entry entry = getCachedOriginal(photo.getId());
+        if (entry == null) {
+            entry = cacheOriginal(photo);
+        }
+        if (entry == null) {
+            try (DerivedImageCache.Lease source = versionService.resolve(photo)) {
+                return ImageIO.read(source.getPath().toFile());
+            }
+        }
+        return ImageIO.read(new MemoryCacheImageInputStream(entry.openStream()));
+    }
+    
+    /**
+     * A page of the photo listing and the cursor of the next one (null on the last page)
+     */
+    public static final class PhotoPage {
+        private final List<PhotoSummary> photos;
+        private final String nextCursor;
+        
+        PhotoPage(List<PhotoSummary> photos, String nextCursor) {
+            this.photos = photos;
+            this.nextCursor = nextCursor;
+        }
+        
+        public List<PhotoSummary> getPhotos() { return photos; }
+        
+        public String getNextCursor() { return nextCursor; }
+    }
+    
+    /**
+     * Listing position, opaque to clients: base64url of "uploadedAt|id"
+     */
+    static final class Cursor {
+        final LocalDateTime uploadedAt;
+        final Long id;
+        
+        Cursor(LocalDateTime uploadedAt, Long id) {
+            this.uploadedAt = uploadedAt;
+            this.id = id;
+        }
+        
+        String encode() {
+            String raw = uploadedAt + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+        
+        static Cursor decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int bar = raw.indexOf('|');
+                return new Cursor(LocalDateTime.parse(raw.substring(0, bar)), Long.parseLong(raw.substring(bar + 1)));
+            } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
+    }
 }
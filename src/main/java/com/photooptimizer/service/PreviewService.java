@@ -0,0 +1,190 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.cache.DerivedImageCache;
+import com.photooptimizer.imaging.FilterEngine;
+import com.photooptimizer.imaging.FilterPipeline;
+import com.photooptimizer.imaging.FilterStep;
+import com.photooptimizer.imaging.ImageDecoding;
+import com.photooptimizer.imaging.ImageEncoding;
+import com.photooptimizer.imaging.ImageInfo;
+import com.photooptimizer.model.Photo;
+import com.photooptimizer.repository.PhotoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Low-latency filter previews
+ * Filters run on a cached, downscaled proxy of the photo and the encoded
+ * result goes straight back to the caller; nothing is written to disk.
+ * Full-resolution renders only happen through EditorService when the user commits.
+ */
+@Service
+public class PreviewService {
+
+    @Autowired
+    private PhotoRepository photoRepository;
+
+    @Autowired
+    private VersionService versionService;
+
+    @Value("${photo.preview.max-edge:1024}")
+    private int maxEdge;
+
+    @Value("${photo.preview.jpeg-quality:0.8}")
+    private float jpegQuality;
+
+    @Value("${photo.preview.proxy-cache-size:64MB}")
+    private DataSize proxyCacheSize;
+
+    /** Access-ordered proxies, bounded by proxyCacheSize */
+    private final LinkedHashMap<String, Proxy> proxies = new LinkedHashMap<>(16, 0.75f, true);
+    private long proxyBytes;
+
+    /** Proxies being decoded right now, so concurrent slider events share one decode */
+    private final Map<String, CompletableFuture<Proxy>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * Encoded preview of a filter chain
+     */
+    public Preview renderPreview(Long photoId, List<FilterStep> chain, String format) throws IOException {
+        long started = System.nanoTime();
+        Photo photo = photoRepository.findById(photoId).orElse(null);
+        if (photo == null) {
+            throw new RuntimeException("Photo not found");
+        }
+
+        Proxy proxy = getProxy(photo);
+        FilterPipeline pipeline = FilterPipeline.compile(chain, proxy.scale);
+
+        BufferedImage result = FilterEngine.newRgbImage(proxy.width, proxy.height);
+        pipeline.apply(proxy.pixels, FilterEngine.pixelsOf(result), proxy.width, proxy.height);
+
+        String outputFormat = format != null ? ImageEncoding.normalizeFormat(format) : "jpeg";
+        byte[] bytes = ImageEncoding.encode(result, outputFormat, jpegQuality);
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+        return new Preview(bytes, ImageEncoding.contentType(outputFormat), proxy.scale, elapsedMillis);
+    }
+
+    private Proxy getProxy(Photo photo) throws IOException {
+        String key = proxyKey(photo);
+        synchronized (this) {
+            Proxy cached = proxies.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        CompletableFuture<Proxy> future = new CompletableFuture<>();
+        CompletableFuture<Proxy> existing = loading.putIfAbsent(key, future);
+        if (existing != null) {
+            return await(existing);
+        }
+        try (DerivedImageCache.Lease source = versionService.resolve(photo)) {
+            Proxy proxy = loadProxy(source.getPath().toFile());
+            cacheProxy(key, proxy);
+            future.complete(proxy);
+            return proxy;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key);
+        }
+    }
+
+    /**
+     * Decode straight to proxy size; large originals are never fully decoded
+     */
+    private Proxy loadProxy(File file) throws IOException {
+        int originalWidth = ImageInfo.probe(file).getWidth();
+        BufferedImage image = ImageDecoding.readDownscaled(file, maxEdge);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = FilterEngine.readPixels(image).clone();
+        return new Proxy(pixels, width, height, (double) width / originalWidth);
+    }
+
+    private synchronized void cacheProxy(String key, Proxy proxy) {
+        Proxy previous = proxies.put(key, proxy);
+        proxyBytes += proxy.sizeInBytes() - (previous != null ? previous.sizeInBytes() : 0);
+        Iterator<Proxy> eldest = proxies.values().iterator();
+        while (proxyBytes > proxyCacheSize.toBytes() && proxies.size() > 1 && eldest.hasNext()) {
+            proxyBytes -= eldest.next().sizeInBytes();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Keyed by content, like the other derived image caches, so photos with
+     * the same bytes share a proxy
+     */
+    private static String proxyKey(Photo photo) {
+        return photo.getContentHash() != null ? photo.getContentHash() : "photo-" + photo.getId();
+    }
+
+    private static Proxy await(CompletableFuture<Proxy> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for preview proxy", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Preview proxy failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Downscaled, read-only pixels of a photo
+     */
+    private static final class Proxy {
+        final int[] pixels;
+        final int width;
+        final int height;
+        /** Proxy width / original width */
+        final double scale;
+
+        Proxy(int[] pixels, int width, int height, double scale) {
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+            this.scale = scale;
+        }
+
+        long sizeInBytes() {
+            return 4L * pixels.length;
+        }
+    }
+
+    /**
+     * Encoded preview and how it was produced
+     */
+    public static class Preview {
+        public final byte[] bytes;
+        public final String contentType;
+        public final double scale;
+        public final long renderMillis;
+
+        public Preview(byte[] bytes, String contentType, double scale, long renderMillis) {
+            this.bytes = bytes;
+            this.contentType = contentType;
+            this.scale = scale;
+            this.renderMillis = renderMillis;
+        }
+    }
+}
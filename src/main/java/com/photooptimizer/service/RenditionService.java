@@ -0,0 +1,298 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.cache.DerivedImageCache;
+import com.photooptimizer.imaging.ImageDecoding;
+import com.photooptimizer.imaging.ImageEncoding;
+import com.photooptimizer.imaging.ImageInfo;
+import com.photooptimizer.model.Photo;
+import jakarta.annotation.PostConstruct;
+import net.coobird.thumbnailator.Thumbnails;
+import net.coobird.thumbnailator.geometry.Positions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resized and re-encoded variants of a photo, rendered on request
+ * Renditions are cached on disk by source content hash and parameters.
+ * Concurrent requests for the same uncached rendition share one render
+ * (single-flight), and renders of different renditions are capped at
+ * max-concurrent-renders so a cold cache cannot swamp the CPUs.
+ */
+@Service
+public class RenditionService {
+
+    @Autowired
+    @Qualifier("renditionCache")
+    private DerivedImageCache renditionCache;
+
+    @Autowired
+    private VersionService versionService;
+
+    @Value("${photo.renditions.max-dimension:4096}")
+    private int maxDimension;
+
+    @Value("${photo.optimization.jpeg-quality:85}")
+    private int defaultQuality;
+
+    @Value("${photo.renditions.max-concurrent-renders:0}")
+    private int maxConcurrentRenders;
+
+    private Semaphore renderPermits;
+
+    private final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong renders = new AtomicLong();
+    private final AtomicLong sharedRenders = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        int permits = maxConcurrentRenders > 0 ? maxConcurrentRenders : Runtime.getRuntime().availableProcessors();
+        renderPermits = new Semaphore(permits);
+    }
+
+    /**
+     * Validate request parameters against the photo
+     * @throws IllegalArgumentException for out-of-range sizes, an unknown fit or an unsupported format
+     */
+    public Spec parseSpec(Photo photo, Integer width, Integer height, String fit, String format, Integer quality) {
+        String sourceFormat = photo.getFormat() != null ? photo.getFormat() : "png";
+        return Spec.parse(width, height, fit, format, quality, sourceFormat, maxDimension, defaultQuality);
+    }
+
+    /**
+     * Lease on the cached rendition, rendering it first on a miss; the file
+     * stays in place until the lease is closed
+     */
+    public DerivedImageCache.Lease getRendition(Photo photo, Spec spec) throws IOException {
+        String key = cacheKey(photo, spec);
+        while (true) {
+            DerivedImageCache.Lease cached = renditionCache.acquire(key);
+            if (cached != null) {
+                return cached;
+            }
+
+            CompletableFuture<Void> mine = new CompletableFuture<>();
+            CompletableFuture<Void> running = inFlight.putIfAbsent(key, mine);
+            if (running != null) {
+                // Take a lease of our own on the shared render, or render again if it is gone already
+                sharedRenders.incrementAndGet();
+                await(running);
+                continue;
+            }
+            try {
+                // Another request may have finished between the cache check and putIfAbsent
+                DerivedImageCache.Lease lease = renditionCache.acquire(key);
+                if (lease == null) {
+                    lease = render(photo, spec, key);
+                }
+                mine.complete(null);
+                return lease;
+            } catch (Throwable e) {
+                mine.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, mine);
+            }
+        }
+    }
+
+    /**
+     * Cache key, also usable as an entity tag; null-hash photos are keyed by id
+     */
+    public String cacheKey(Photo photo, Spec spec) {
+        String source = photo.getContentHash() != null ? photo.getContentHash() : "photo-" + photo.getId();
+        return source + "_" + spec.signature() + "." + spec.extension();
+    }
+
+    private DerivedImageCache.Lease render(Photo photo, Spec spec, String key) throws IOException {
+        acquireRenderPermit();
+        try (DerivedImageCache.Lease lease = versionService.resolve(photo)) {
+            File source = lease.getPath().toFile();
+            ImageInfo info = ImageInfo.probe(source);
+            Geometry geometry = Geometry.of(info.getWidth(), info.getHeight(), spec);
+
+            // Subsampled decode to about twice the output, then a high-quality resize
+            int longestEdge = Math.max(info.getWidth(), info.getHeight());
+            int decodeEdge = (int) Math.min(longestEdge, Math.ceil(2 * longestEdge * geometry.scale));
+            BufferedImage image = ImageDecoding.readDownscaled(source, Math.max(1, decodeEdge));
+
+            BufferedImage output;
+            if (geometry.crop) {
+                output = Thumbnails.of(image).size(geometry.width, geometry.height).crop(Positions.CENTER).asBufferedImage();
+            } else if (geometry.width == image.getWidth() && geometry.height == image.getHeight()) {
+                output = image;
+            } else {
+                output = Thumbnails.of(image).forceSize(geometry.width, geometry.height).asBufferedImage();
+            }
+
+            float quality = spec.quality / 100f;
+            DerivedImageCache.Lease rendition =
+                renditionCache.put(key, out -> ImageEncoding.write(output, spec.format, quality, out));
+            renders.incrementAndGet();
+            return rendition;
+        } finally {
+            renderPermits.release();
+        }
+    }
+
+    private void acquireRenderPermit() throws InterruptedIOException {
+        try {
+            renderPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to render");
+        }
+    }
+
+    private static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Render counters and cache statistics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("renders", renders.get());
+        stats.put("sharedRenders", sharedRenders.get());
+        stats.put("inFlight", inFlight.size());
+        stats.put("cache", renditionCache.getStats());
+        return stats;
+    }
+
+    /**
+     * How the output box is filled
+     */
+    public enum Fit {
+        /** Fit inside the box, keeping the aspect ratio */
+        CONTAIN,
+        /** Fill the box, keeping the aspect ratio and cropping the overflow around the center */
+        COVER,
+        /** Stretch to exactly the box */
+        FILL
+    }
+
+    /**
+     * Validated rendition parameters; 0 for a width or height means "follow the aspect ratio"
+     */
+    public static final class Spec {
+        final int width;
+        final int height;
+        final Fit fit;
+        final String format;
+        final int quality;
+
+        private Spec(int width, int height, Fit fit, String format, int quality) {
+            this.width = width;
+            this.height = height;
+            this.fit = fit;
+            this.format = format;
+            this.quality = quality;
+        }
+
+        static Spec parse(Integer width, Integer height, String fit, String format, Integer quality,
+                          String sourceFormat, int maxDimension, int defaultQuality) {
+            int w = width != null ? width : 0;
+            int h = height != null ? height : 0;
+            if (w < 0 || h < 0 || w > maxDimension || h > maxDimension) {
+                throw new IllegalArgumentException("width and height must be between 1 and " + maxDimension);
+            }
+            Fit mode;
+            try {
+                mode = fit != null ? Fit.valueOf(fit.toUpperCase(Locale.ROOT)) : Fit.CONTAIN;
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("fit must be contain, cover or fill");
+            }
+            if (mode != Fit.CONTAIN && (w == 0 || h == 0)) {
+                throw new IllegalArgumentException("fit=" + fit + " needs both width and height");
+            }
+            String normalized = ImageEncoding.normalizeFormat(format != null ? format : sourceFormat);
+            if (!ImageIO.getImageWritersByFormatName(normalized).hasNext()) {
+                throw new IllegalArgumentException("No encoder available for format: " + normalized);
+            }
+            int q = quality != null ? quality : defaultQuality;
+            if (q < 1 || q > 100) {
+                throw new IllegalArgumentException("quality must be between 1 and 100");
+            }
+            // Quality only matters to lossy encoders; keep one cache entry for the others
+            return new Spec(w, h, mode, normalized, ImageEncoding.isLossy(normalized) ? q : 0);
+        }
+
+        String signature() {
+            return "w" + width + "_h" + height + "_" + fit.name().toLowerCase(Locale.ROOT) + "_q" + quality;
+        }
+
+        String extension() {
+            return format.equals("jpeg") ? "jpg" : format;
+        }
+
+        public String getFormat() { return format; }
+    }
+
+    /**
+     * Output size for a source, never larger than the source
+     */
+    static final class Geometry {
+        final int width;
+        final int height;
+        /** Source pixels per output pixel, at most 1 */
+        final double scale;
+        /** Whether the scaled source overflows the box and is cropped */
+        final boolean crop;
+
+        private Geometry(int width, int height, double scale, boolean crop) {
+            this.width = Math.max(1, width);
+            this.height = Math.max(1, height);
+            this.scale = scale;
+            this.crop = crop;
+        }
+
+        static Geometry of(int sourceWidth, int sourceHeight, Spec spec) {
+            double sx = spec.width > 0 ? (double) spec.width / sourceWidth : Double.MAX_VALUE;
+            double sy = spec.height > 0 ? (double) spec.height / sourceHeight : Double.MAX_VALUE;
+            switch (spec.fit) {
+                case COVER: {
+                    double scale = Math.max(sx, sy);
+                    if (scale > 1) {
+                        // Shrink the box rather than upscale the source
+                        return new Geometry((int) Math.round(spec.width / scale), (int) Math.round(spec.height / scale), 1, true);
+                    }
+                    return new Geometry(spec.width, spec.height, scale, true);
+                }
+                case FILL:
+                    return new Geometry(Math.min(spec.width, sourceWidth), Math.min(spec.height, sourceHeight),
+                        Math.min(1, Math.max(sx, sy)), false);
+                default: {
+                    double scale = Math.min(1, Math.min(sx, sy));
+                    return new Geometry((int) Math.round(sourceWidth * scale), (int) Math.round(sourceHeight * scale), scale, false);
+                }
+            }
+        }
+    }
+}
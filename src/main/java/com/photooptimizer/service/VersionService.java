@@ -0,0 +1,282 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.cache.DerivedImageCache;
+import com.photooptimizer.imaging.ImageEncoding;
+import com.photooptimizer.imaging.ImageInfo;
+import com.photooptimizer.imaging.TileDelta;
+import com.photooptimizer.model.Photo;
+import com.photooptimizer.repository.PhotoRepository;
+import com.photooptimizer.storage.BlobStore;
+import com.photooptimizer.util.Hashing;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Photo versions stored as pixel tile deltas against their parent
+ * With photo.versions.delta-storage.enabled, a lossless (PNG) version the same
+ * size as its parent is kept as a TileDelta when that is at most
+ * max-delta-ratio of the full file, and rebuilt from the parent on read.
+ * Rebuilt versions live in the "versions" DerivedImageCache, so a hot version
+ * is replayed once; chains are capped at max-chain-length, which bounds how
+ * many deltas a cold read replays. Everything that reads a photo's pixels
+ * goes through resolve, and holds the lease it returns while reading.
+ */
+@Service
+public class VersionService {
+
+    @Autowired
+    private PhotoRepository photoRepository;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    @Qualifier("versionCache")
+    private DerivedImageCache versionCache;
+
+    @Value("${photo.versions.delta-storage.enabled:false}")
+    private boolean deltaStorageEnabled;
+
+    @Value("${photo.versions.delta-storage.tile-size:64}")
+    private int tileSize;
+
+    @Value("${photo.versions.delta-storage.max-delta-ratio:0.5}")
+    private double maxDeltaRatio;
+
+    @Value("${photo.versions.delta-storage.max-chain-length:8}")
+    private int maxChainLength;
+
+    private final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong deltasStored = new AtomicLong();
+    private final AtomicLong materializations = new AtomicLong();
+
+    /**
+     * Readable file with the photo's original pixels; for a delta version the
+     * materialized copy, rebuilt from its parent if it is not cached, which
+     * stays in place until the lease is closed
+     */
+    public DerivedImageCache.Lease resolve(Photo photo) throws IOException {
+        if (photo.getDeltaPath() == null) {
+            return DerivedImageCache.Lease.of(Paths.get(photo.getFilePath()));
+        }
+        String key = materializedKey(photo);
+        while (true) {
+            DerivedImageCache.Lease cached = versionCache.acquire(key);
+            if (cached != null) {
+                return cached;
+            }
+
+            CompletableFuture<Void> mine = new CompletableFuture<>();
+            CompletableFuture<Void> running = inFlight.putIfAbsent(key, mine);
+            if (running != null) {
+                // Rebuilt by another request; take a lease of our own (or rebuild if it is gone already)
+                await(running);
+                continue;
+            }
+            try {
+                // Another request may have finished between the cache check and putIfAbsent
+                DerivedImageCache.Lease lease = versionCache.acquire(key);
+                if (lease == null) {
+                    lease = materialize(photo, key);
+                }
+                mine.complete(null);
+                return lease;
+            } catch (Throwable e) {
+                mine.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, mine);
+            }
+        }
+    }
+
+    /**
+     * Tile delta of new content against the photo it was edited from, or null
+     * when the version should be stored in full: delta storage is off, the
+     * content is not 8-bit PNG, the size changed, the parent's chain is at its
+     * limit or the delta would not save enough
+     */
+    public Delta encodeDelta(Photo parent, byte[] content) throws IOException {
+        if (!deltaStorageEnabled) {
+            return null;
+        }
+        ImageInfo info;
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(content))) {
+            info = input != null ? ImageInfo.probe(input) : null;
+        } catch (IOException e) {
+            return null;
+        }
+        // Only lossless content can be rebuilt byte-for-byte in its pixels
+        if (info == null || !ImageEncoding.normalizeFormat(info.getFormat()).equals("png")) {
+            return null;
+        }
+        if ((parent.getWidth() != null && parent.getWidth() != info.getWidth())
+                || (parent.getHeight() != null && parent.getHeight() != info.getHeight())
+                || chainLength(parent) >= maxChainLength) {
+            return null;
+        }
+
+        BufferedImage target = ImageIO.read(new ByteArrayInputStream(content));
+        if (target == null || !isExactArgb(target)) {
+            return null;
+        }
+        BufferedImage base = read(parent);
+        if (base == null) {
+            return null;
+        }
+        String baseId = parent.getContentHash() != null ? parent.getContentHash() : "photo-" + parent.getId();
+        byte[] delta = TileDelta.encode(base, target, tileSize, baseId);
+        if (delta == null || delta.length > content.length * maxDeltaRatio) {
+            return null;
+        }
+        deltasStored.incrementAndGet();
+        // Encoded the way materialize encodes it, so a rebuild gives the same bytes
+        return new Delta(delta, encode(TileDelta.apply(base, delta)));
+    }
+
+    /**
+     * Cache a new delta version's content (Delta.getContent) and return where
+     * it is materialized
+     */
+    public Path materialized(Photo version, byte[] content) throws IOException {
+        try (DerivedImageCache.Lease lease = versionCache.put(materializedKey(version), content)) {
+            return lease.getPath();
+        }
+    }
+
+    /**
+     * Delta statistics and the materialization cache's
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("deltaStorageEnabled", deltaStorageEnabled);
+        stats.put("deltasStored", deltasStored.get());
+        stats.put("materializations", materializations.get());
+        stats.put("cache", versionCache.getStats());
+        return stats;
+    }
+
+    private DerivedImageCache.Lease materialize(Photo photo, String key) throws IOException {
+        Photo parent = photoRepository.findById(photo.getParentId()).orElse(null);
+        if (parent == null) {
+            throw new IOException("Parent of version " + photo.getId() + " is missing");
+        }
+        BufferedImage base = read(parent);
+        if (base == null) {
+            throw new IOException("Cannot decode the parent of version " + photo.getId());
+        }
+        byte[] delta;
+        try (InputStream in = openDelta(photo)) {
+            delta = in.readAllBytes();
+        }
+        BufferedImage image;
+        try {
+            image = TileDelta.apply(base, delta);
+        } catch (IllegalStateException e) {
+            throw new IOException("Version " + photo.getId() + ": " + e.getMessage(), e);
+        }
+        byte[] content = encode(image);
+        if (!Hashing.sha256Hex(content).equals(photo.getContentHash())) {
+            // Same pixels, but the PNG encoder no longer writes the bytes it did
+            System.err.println("Version " + photo.getId() + " rebuilt with content other than its hash");
+        }
+        materializations.incrementAndGet();
+        return versionCache.put(key, content);
+    }
+
+    private BufferedImage read(Photo photo) throws IOException {
+        try (DerivedImageCache.Lease source = resolve(photo)) {
+            return ImageIO.read(source.getPath().toFile());
+        }
+    }
+
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Number of delta versions between the photo and the nearest full copy
+     */
+    private int chainLength(Photo photo) {
+        int length = 0;
+        Photo current = photo;
+        while (current != null && current.getDeltaPath() != null && length < maxChainLength) {
+            length++;
+            current = photoRepository.findById(current.getParentId()).orElse(null);
+        }
+        return length;
+    }
+
+    private InputStream openDelta(Photo photo) throws IOException {
+        Path path = Paths.get(photo.getDeltaPath());
+        String key = blobStore.keyOf(path);
+        return key != null ? blobStore.open(key) : Files.newInputStream(path);
+    }
+
+    /**
+     * 8-bit sRGB rasters, whose getRGB values are exactly the stored samples
+     */
+    private static boolean isExactArgb(BufferedImage image) {
+        int type = image.getType();
+        return type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB
+            || type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR;
+    }
+
+    private static String materializedKey(Photo photo) {
+        return "version-" + photo.getContentHash();
+    }
+
+    /**
+     * A version as a tile delta, and the PNG its delta materializes to, which
+     * is the version's content (hash, size) from then on
+     */
+    public static final class Delta {
+        private final byte[] delta;
+        private final byte[] content;
+
+        Delta(byte[] delta, byte[] content) {
+            this.delta = delta;
+            this.content = content;
+        }
+
+        public byte[] getDelta() { return delta; }
+
+        public byte[] getContent() { return content; }
+    }
+
+    private static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.photooptimizer.storage;
+
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+/**
+ * Blob key format: hex SHA-256 + "." + lower-case extension
+ */
+final class BlobKeys {
+
+    private static final Pattern KEY = Pattern.compile("[0-9a-f]{64}\\.[a-z0-9]{1,10}");
+
+    private BlobKeys() {
+    }
+
+    static String of(String contentHash, String extension) {
+        String normalized = extension.startsWith(".") ? extension.substring(1) : extension;
+        String key = contentHash + "." + normalized.toLowerCase();
+        check(key);
+        return key;
+    }
+
+    static void check(String key) {
+        if (key == null || !KEY.matcher(key).matches()) {
+            throw new IllegalArgumentException("Invalid blob key: " + key);
+        }
+    }
+
+    /**
+     * root/ab/cd/abcd...: two levels of 256 directories keep every directory small
+     */
+    static Path shardedPath(Path root, String key) {
+        check(key);
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+
+    static boolean isKey(String name) {
+        return name != null && KEY.matcher(name).matches();
+    }
+}
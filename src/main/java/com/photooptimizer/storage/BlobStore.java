@@ -0,0 +1,87 @@
+package com.photooptimizer.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Content-addressed storage for photo files
+ * A blob's key is the hex SHA-256 of its bytes plus the file extension, so
+ * identical content is stored once. Writes are two-phase: {@link #stage}
+ * streams and hashes the content into a temporary location, {@link #commit}
+ * publishes it under its key atomically.
+ */
+public interface BlobStore {
+
+    /**
+     * Stream content into temporary storage, hashing it on the way
+     * @param extension file extension without the dot, e.g. "jpg"
+     */
+    StagedBlob stage(InputStream content, String extension) throws IOException;
+
+    /**
+     * Stage a file the caller has already written and hashed, such as an
+     * assembled chunked upload; the file is moved, not copied or re-read
+     * @param contentHash hex SHA-256 of the file, trusted as given
+     */
+    StagedBlob adopt(Path file, String contentHash, String extension) throws IOException;
+
+    /**
+     * Publish staged content under its key; a no-op if the key already exists
+     * @return the key
+     */
+    String commit(StagedBlob staged) throws IOException;
+
+    /**
+     * Stage and commit in one step
+     */
+    default String put(InputStream content, String extension) throws IOException {
+        try (StagedBlob staged = stage(content, extension)) {
+            return commit(staged);
+        }
+    }
+
+    default String put(byte[] content, String extension) throws IOException {
+        return put(new ByteArrayInputStream(content), extension);
+    }
+
+    InputStream open(String key) throws IOException;
+
+    boolean exists(String key);
+
+    long size(String key) throws IOException;
+
+    /**
+     * @return true if the blob existed
+     */
+    boolean delete(String key) throws IOException;
+
+    /**
+     * Where the blob lives on the local file system, for code that reads
+     * photos by path (ImageIO, Tesseract); the in-memory store returns a
+     * path that does not exist
+     */
+    Path locate(String key);
+
+    /**
+     * Key of a path returned by {@link #locate}, or null if the path is not inside this store
+     */
+    String keyOf(Path path);
+
+    /**
+     * Content hashed and held in temporary storage, not yet visible under its key
+     * Closing discards it unless it was committed.
+     */
+    interface StagedBlob extends AutoCloseable {
+
+        String getKey();
+
+        String getContentHash();
+
+        long getSize();
+
+        @Override
+        void close() throws IOException;
+    }
+}
@@ -0,0 +1,13 @@
+package com.photooptimizer.storage;
+
+/**
+ * How hard a local write is pushed to stable storage before it is reported done
+ */
+public enum FsyncPolicy {
+    /** Leave flushing to the OS; fastest, a crash can lose recent writes */
+    NONE,
+    /** Fsync the file before the rename that publishes it */
+    FILE,
+    /** Fsync the file and then its directory, so the rename itself survives a crash */
+    FILE_AND_DIRECTORY
+}
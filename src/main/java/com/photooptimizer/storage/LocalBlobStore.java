@@ -0,0 +1,190 @@
+package com.photooptimizer.storage;
+
+import com.photooptimizer.util.Hashing;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+
+/**
+ * Blob store on the local file system, sharded as root/ab/cd/&lt;key&gt;
+ * Content is written to root/tmp, fsynced according to the policy and then
+ * renamed into place, so readers never see a partially written blob.
+ */
+public class LocalBlobStore implements BlobStore {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path root;
+    private final Path tempDir;
+    private final FsyncPolicy fsyncPolicy;
+
+    public LocalBlobStore(Path root, FsyncPolicy fsyncPolicy) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        this.tempDir = this.root.resolve("tmp");
+        this.fsyncPolicy = fsyncPolicy;
+        Files.createDirectories(tempDir);
+        // Anything left in tmp was never committed
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(tempDir, "*.tmp")) {
+            for (Path leftover : leftovers) {
+                Files.deleteIfExists(leftover);
+            }
+        }
+    }
+
+    @Override
+    public StagedBlob stage(InputStream content, String extension) throws IOException {
+        Path temp = Files.createTempFile(tempDir, "blob-", ".tmp");
+        MessageDigest digest = Hashing.sha256();
+        long size = 0;
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             OutputStream out = new BufferedOutputStream(file, BUFFER_SIZE);
+             InputStream in = new DigestInputStream(content, digest)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                size += read;
+            }
+            out.flush();
+            if (fsyncPolicy != FsyncPolicy.NONE) {
+                file.getChannel().force(true);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        String contentHash = Hashing.toHex(digest.digest());
+        return new LocalStagedBlob(temp, contentHash, BlobKeys.of(contentHash, extension), size);
+    }
+
+    @Override
+    public StagedBlob adopt(Path file, String contentHash, String extension) throws IOException {
+        String key = BlobKeys.of(contentHash, extension);
+        Path temp = Files.createTempFile(tempDir, "blob-", ".tmp");
+        try {
+            try {
+                Files.move(file, temp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(file, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (fsyncPolicy != FsyncPolicy.NONE) {
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+            }
+            return new LocalStagedBlob(temp, contentHash, key, Files.size(temp));
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    @Override
+    public String commit(StagedBlob staged) throws IOException {
+        LocalStagedBlob local = (LocalStagedBlob) staged;
+        Path target = locate(local.key);
+        if (Files.exists(target)) {
+            // Same key, same bytes: nothing to publish
+            local.close();
+            return local.key;
+        }
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(local.temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(local.temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        local.committed = true;
+        if (fsyncPolicy == FsyncPolicy.FILE_AND_DIRECTORY) {
+            fsyncDirectory(target.getParent());
+        }
+        return local.key;
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return Files.newInputStream(locate(key));
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.exists(locate(key));
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return Files.size(locate(key));
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        return Files.deleteIfExists(locate(key));
+    }
+
+    @Override
+    public Path locate(String key) {
+        return BlobKeys.shardedPath(root, key);
+    }
+
+    @Override
+    public String keyOf(Path path) {
+        Path absolute = path.toAbsolutePath().normalize();
+        String name = absolute.getFileName() != null ? absolute.getFileName().toString() : null;
+        return BlobKeys.isKey(name) && absolute.equals(locate(name)) ? name : null;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    private static void fsyncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Some platforms cannot open directories; the file itself is already synced
+        }
+    }
+
+    private static final class LocalStagedBlob implements StagedBlob {
+        private final Path temp;
+        private final String contentHash;
+        private final String key;
+        private final long size;
+        private boolean committed;
+
+        LocalStagedBlob(Path temp, String contentHash, String key, long size) {
+            this.temp = temp;
+            this.contentHash = contentHash;
+            this.key = key;
+            this.size = size;
+        }
+
+        @Override
+        public String getKey() { return key; }
+
+        @Override
+        public String getContentHash() { return contentHash; }
+
+        @Override
+        public long getSize() { return size; }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.photooptimizer.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Binary delta between two versions of a document, as copy/insert operations
+ * Blocks of the source at 16-byte boundaries are indexed by a rolling hash,
+ * the target is scanned for them, and every match is extended as far as the
+ * bytes agree in both directions. Unmatched bytes are inserted literally. For
+ * documents that change in a few places, such as successive editor saves,
+ * the delta is about the size of the changes.
+ * Format: target length, then ops: 0 offset length (copy from the source) or
+ * 1 length bytes (insert), all numbers as unsigned varints.
+ */
+public final class ByteDelta {
+
+    private static final int BLOCK = 16;
+    private static final long BASE = 0x100000001B3L;
+    private static final long BASE_POW;
+    private static final int COPY = 0;
+    private static final int INSERT = 1;
+
+    static {
+        long pow = 1;
+        for (int i = 0; i < BLOCK - 1; i++) {
+            pow *= BASE;
+        }
+        BASE_POW = pow;
+    }
+
+    private ByteDelta() {
+    }
+
+    /**
+     * Operations that turn source into target
+     */
+    public static byte[] diff(byte[] source, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + target.length / 16);
+        writeVarint(out, target.length);
+
+        int[] table = index(source);
+        int mask = table.length - 1;
+        int literalStart = 0;
+        int pos = 0;
+        long hash = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (pos + BLOCK <= target.length) {
+            int candidate = table[slot(hash, mask)] - 1;
+            if (candidate >= 0 && Arrays.equals(source, candidate, candidate + BLOCK, target, pos, pos + BLOCK)) {
+                // Grow the match backwards into the pending literal, then forwards
+                int sourceStart = candidate;
+                int targetStart = pos;
+                while (targetStart > literalStart && sourceStart > 0 && source[sourceStart - 1] == target[targetStart - 1]) {
+                    sourceStart--;
+                    targetStart--;
+                }
+                int targetEnd = pos + BLOCK;
+                int sourceEnd = candidate + BLOCK;
+                while (targetEnd < target.length && sourceEnd < source.length && source[sourceEnd] == target[targetEnd]) {
+                    sourceEnd++;
+                    targetEnd++;
+                }
+                insert(out, target, literalStart, targetStart);
+                out.write(COPY);
+                writeVarint(out, sourceStart);
+                writeVarint(out, targetEnd - targetStart);
+                pos = targetEnd;
+                literalStart = targetEnd;
+                if (pos + BLOCK <= target.length) {
+                    hash = hash(target, pos);
+                }
+            } else {
+                if (pos + BLOCK < target.length) {
+                    hash = (hash - (target[pos] & 0xff) * BASE_POW) * BASE + (target[pos + BLOCK] & 0xff);
+                }
+                pos++;
+            }
+        }
+        insert(out, target, literalStart, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Rebuild the target from the source and a delta made by diff
+     * @throws IllegalStateException if the delta does not fit the source
+     */
+    public static byte[] apply(byte[] source, byte[] delta) {
+        int[] cursor = {0};
+        int length = readVarint(delta, cursor);
+        if (length < 0) {
+            throw new IllegalStateException("Corrupt delta: negative length");
+        }
+        byte[] target = new byte[length];
+        int written = 0;
+        try {
+            while (cursor[0] < delta.length) {
+                int op = delta[cursor[0]++];
+                if (op == COPY) {
+                    int offset = readVarint(delta, cursor);
+                    int count = readVarint(delta, cursor);
+                    System.arraycopy(source, offset, target, written, count);
+                    written += count;
+                } else if (op == INSERT) {
+                    int count = readVarint(delta, cursor);
+                    System.arraycopy(delta, cursor[0], target, written, count);
+                    cursor[0] += count;
+                    written += count;
+                } else {
+                    throw new IllegalStateException("Corrupt delta: unknown op " + op);
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalStateException("Corrupt delta: does not match the source", e);
+        }
+        if (written != length) {
+            throw new IllegalStateException("Corrupt delta: expected " + length + " bytes, got " + written);
+        }
+        return target;
+    }
+
+    /**
+     * Hash table of source block offsets (+1, so 0 marks an empty slot)
+     */
+    private static int[] index(byte[] source) {
+        int blocks = source.length / BLOCK;
+        int[] table = new int[Integer.highestOneBit(Math.max(16, blocks * 2 - 1)) << 1];
+        int mask = table.length - 1;
+        for (int offset = 0; offset + BLOCK <= source.length; offset += BLOCK) {
+            int slot = slot(hash(source, offset), mask);
+            // Keep the first occurrence; later duplicates would match the same bytes
+            if (table[slot] == 0) {
+                table[slot] = offset + 1;
+            }
+        }
+        return table;
+    }
+
+    private static long hash(byte[] bytes, int offset) {
+        long hash = 0;
+        for (int i = offset; i < offset + BLOCK; i++) {
+            hash = hash * BASE + (bytes[i] & 0xff);
+        }
+        return hash;
+    }
+
+    private static int slot(long hash, int mask) {
+        return (int) ((hash * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private static void insert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] bytes, int[] cursor) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = bytes[cursor[0]++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Corrupt delta: varint too long");
+    }
+}
@@ -0,0 +1,14 @@
+package com.photooptimizer.util;
+
+/**
+ * Thrown when a bounded resource (upload sessions, import slots, a work
+ * queue) cannot take more work right now; controllers answer it with 429
+ */
+public class CapacityExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CapacityExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,120 @@
+package com.photooptimizer.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Byte budget, LRU eviction, leases and hit accounting of the derived image cache
+ */
+class DerivedImageCacheTest {
+
+    @Test
+    void evictsLeastRecentlyUsedEntriesOverBudget() throws Exception {
+        Path dir = Files.createTempDirectory("derived-cache");
+        DerivedImageCache cache = new DerivedImageCache("test", dir, "png", 300, new SimpleMeterRegistry());
+
+        cache.put("aaa", new byte[100]).close();
+        cache.put("bbb", new byte[100]).close();
+        cache.put("ccc", new byte[100]).close();
+        // Touch "aaa" so that "bbb" becomes the eldest
+        assertTrue(has(cache, "aaa"));
+        cache.put("ddd", new byte[100]).close();
+
+        assertFalse(has(cache, "bbb"));
+        assertFalse(Files.exists(dir.resolve("bbb.png")));
+        assertTrue(has(cache, "aaa"));
+        assertEquals(300L, cache.getDiskBytes());
+        assertEquals(1L, cache.getStats().get("evictions"));
+    }
+
+    @Test
+    void countsHitsAndMisses() throws Exception {
+        Path dir = Files.createTempDirectory("derived-cache");
+        DerivedImageCache cache = new DerivedImageCache("test", dir, "png", 10_000, new SimpleMeterRegistry());
+        byte[] bytes = {1, 2, 3, 4};
+
+        assertNull(cache.acquire("key"));
+        cache.put("key", bytes).close();
+        try (DerivedImageCache.Lease lease = cache.acquire("key")) {
+            assertArrayEquals(bytes, Files.readAllBytes(lease.getPath()));
+        }
+
+        assertEquals(1L, cache.getStats().get("hits"));
+        assertEquals(1L, cache.getStats().get("misses"));
+        assertEquals(0.5, cache.getStats().get("hitRatio"));
+    }
+
+    @Test
+    void reloadsEntriesLeftByPreviousRun() throws Exception {
+        Path dir = Files.createTempDirectory("derived-cache");
+        new DerivedImageCache("test", dir, "png", 10_000, new SimpleMeterRegistry()).put("kept", new byte[42]).close();
+
+        DerivedImageCache reopened = new DerivedImageCache("test", dir, "png", 10_000, new SimpleMeterRegistry());
+        assertTrue(has(reopened, "kept"));
+        assertEquals(42L, reopened.getDiskBytes());
+    }
+
+    @Test
+    void leavesForeignFilesInItsDirectoryAlone() throws Exception {
+        Path dir = Files.createTempDirectory("derived-cache");
+        Path foreign = Files.write(dir.resolve("v1_1234.png"), new byte[500]);
+        Pattern keys = Pattern.compile("version-[0-9a-f]+");
+
+        DerivedImageCache cache = new DerivedImageCache("test", dir, "png", keys, 300, new SimpleMeterRegistry());
+        assertEquals(0, cache.getEntryCount());
+        cache.put("version-aa", new byte[200]).close();
+        cache.put("version-bb", new byte[200]).close();
+
+        // Over budget: only the cache's own entry goes
+        assertFalse(has(cache, "version-aa"));
+        assertTrue(Files.exists(foreign));
+        assertEquals(200L, cache.getDiskBytes());
+    }
+
+    @Test
+    void keepsTheFileOfALeasedEntryUntilTheLeaseIsClosed() throws Exception {
+        Path dir = Files.createTempDirectory("derived-cache");
+        DerivedImageCache cache = new DerivedImageCache("test", dir, "png", 200, new SimpleMeterRegistry());
+        cache.put("aaa", new byte[100]).close();
+
+        try (DerivedImageCache.Lease lease = cache.acquire("aaa")) {
+            cache.put("bbb", new byte[100]).close();
+            cache.put("ccc", new byte[100]).close();
+            // Evicted from the index, but still readable by whoever holds it
+            assertFalse(has(cache, "aaa"));
+            assertEquals(100, Files.size(lease.getPath()));
+        }
+        assertFalse(Files.exists(dir.resolve("aaa.png")));
+
+        // Written again while leased: the new file survives the old lease
+        DerivedImageCache.Lease old = cache.acquire("bbb");
+        cache.put("ddd", new byte[100]).close();
+        cache.put("eee", new byte[100]).close();
+        cache.put("bbb", new byte[100]).close();
+        old.close();
+        assertTrue(has(cache, "bbb"));
+        assertTrue(Files.exists(dir.resolve("bbb.png")));
+
+        // An entry larger than the whole budget is still there for the one who stored it
+        try (DerivedImageCache.Lease big = cache.put("big", new byte[500])) {
+            assertEquals(500, Files.size(big.getPath()));
+        }
+        assertFalse(Files.exists(dir.resolve("big.png")));
+    }
+
+    private static boolean has(DerivedImageCache cache, String key) {
+        try (DerivedImageCache.Lease lease = cache.acquire(key)) {
+            return lease != null;
+        }
+    }
+}
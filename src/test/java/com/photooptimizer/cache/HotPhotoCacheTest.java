@@ -0,0 +1,88 @@
+package com.photooptimizer.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Frequency-based admission, eviction and invalidation of the off-heap photo cache
+ */
+class HotPhotoCacheTest {
+
+    private static final int SIZE = 1000;
+
+    @Test
+    void servesCachedBytesOffHeap() throws Exception {
+        Path file = photoFile(Files.createTempDirectory("hot"), 1);
+        HotPhotoCache cache = new HotPhotoCache("test", 10 * SIZE, SIZE, new SimpleMeterRegistry());
+
+        assertNull(cache.get(1L));
+        HotPhotoCache.Entry entry = cache.load(1L, file, "abc", "jpg");
+        assertNotNull(entry);
+        assertTrue(entry.getContent().isDirect());
+        assertEquals(ByteBuffer.wrap(Files.readAllBytes(file)), entry.getContent());
+        assertEquals(SIZE, cache.getResidentBytes());
+
+        assertNotNull(cache.get(1L));
+        assertEquals(0.5, cache.getHitRatio());
+    }
+
+    @Test
+    void rarelyReadPhotosDoNotDisplaceHotOnes() throws Exception {
+        Path dir = Files.createTempDirectory("hot");
+        HotPhotoCache cache = new HotPhotoCache("test", 2 * SIZE, SIZE, new SimpleMeterRegistry());
+        for (long id = 1; id <= 2; id++) {
+            for (int i = 0; i < 5; i++) {
+                cache.get(id);
+            }
+            assertNotNull(cache.load(id, photoFile(dir, id), null, "jpg"));
+        }
+
+        // A scan of one-off reads is turned away
+        for (long id = 3; id <= 10; id++) {
+            assertNull(cache.get(id));
+            assertNull(cache.load(id, photoFile(dir, id), null, "jpg"));
+        }
+        assertNotNull(cache.get(1L));
+        assertNotNull(cache.get(2L));
+        assertEquals(8L, cache.getStats().get("rejections"));
+
+        // Once read more often than the least recently used entry, a photo gets in
+        for (int i = 0; i < 10; i++) {
+            cache.get(11L);
+        }
+        assertNotNull(cache.load(11L, photoFile(dir, 11), null, "jpg"));
+        assertEquals(1L, cache.getStats().get("evictions"));
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(2 * SIZE, cache.getResidentBytes());
+    }
+
+    @Test
+    void invalidationReleasesTheBudget() throws Exception {
+        Path file = photoFile(Files.createTempDirectory("hot"), 1);
+        HotPhotoCache cache = new HotPhotoCache("test", 10 * SIZE, SIZE, new SimpleMeterRegistry());
+        cache.get(1L);
+        cache.load(1L, file, null, "jpg");
+
+        cache.invalidate(1L);
+        assertNull(cache.get(1L));
+        assertEquals(0, cache.getResidentBytes());
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    private static Path photoFile(Path dir, long id) throws Exception {
+        byte[] bytes = new byte[SIZE];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 31 + id);
+        }
+        return Files.write(dir.resolve(id + ".jpg"), bytes);
+    }
+}
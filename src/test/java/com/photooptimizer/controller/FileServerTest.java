@@ -0,0 +1,231 @@
+package com.photooptimizer.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * Range parsing, conditional requests and the file and buffer bodies of the file server
+ */
+class FileServerTest {
+
+    private static final long LAST_MODIFIED = 1_700_000_000_000L;
+    private static final byte[] CONTENT = "0123456789abcdefghij".getBytes();
+
+    @Test
+    void parsesSingleRanges() {
+        assertArrayEquals(new long[] {0, 99}, FileServer.parseRange("bytes=0-99", 1000));
+        assertArrayEquals(new long[] {500, 999}, FileServer.parseRange("bytes=500-", 1000));
+        assertArrayEquals(new long[] {900, 999}, FileServer.parseRange("bytes=-100", 1000));
+        // Clamped to the end of the file
+        assertArrayEquals(new long[] {990, 999}, FileServer.parseRange("bytes=990-5000", 1000));
+        assertArrayEquals(new long[] {0, 999}, FileServer.parseRange("bytes=-5000", 1000));
+    }
+
+    @Test
+    void unsatisfiableRangesAreNull() {
+        assertNull(FileServer.parseRange("bytes=1000-", 1000));
+        assertNull(FileServer.parseRange("bytes=-0", 1000));
+    }
+
+    @Test
+    void malformedOrMultipleRangesServeTheWholeFile() {
+        assertArrayEquals(new long[0], FileServer.parseRange("bytes=0-1,5-6", 1000));
+        assertArrayEquals(new long[0], FileServer.parseRange("items=0-1", 1000));
+        assertArrayEquals(new long[0], FileServer.parseRange("bytes=abc", 1000));
+        assertArrayEquals(new long[0], FileServer.parseRange("bytes=50-10", 1000));
+    }
+
+    @Test
+    void servesTheWholeFileWithValidatorsAndCachingHeaders() throws Exception {
+        Path file = file();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        server().serve(get(), response, file, "abc", "image/png", true);
+
+        assertEquals(200, response.getStatus());
+        assertArrayEquals(CONTENT, response.getContentAsByteArray());
+        assertEquals("\"abc\"", response.getHeader("ETag"));
+        assertEquals(LAST_MODIFIED, response.getDateHeader("Last-Modified"));
+        assertEquals("bytes", response.getHeader("Accept-Ranges"));
+        assertTrue(response.getHeader("Cache-Control").contains("immutable"), response.getHeader("Cache-Control"));
+        assertEquals(CONTENT.length, response.getContentLength());
+    }
+
+    @Test
+    void unchangedEntitiesAreAnswered304() throws Exception {
+        Path file = file();
+        MockHttpServletRequest byTag = get();
+        byTag.addHeader("If-None-Match", "\"abc\"");
+        MockHttpServletResponse tagged = new MockHttpServletResponse();
+        server().serve(byTag, tagged, file, "abc", "image/png", false);
+        assertEquals(304, tagged.getStatus());
+        assertEquals(0, tagged.getContentAsByteArray().length);
+
+        MockHttpServletRequest byDate = get();
+        byDate.addHeader("If-Modified-Since", LAST_MODIFIED);
+        MockHttpServletResponse dated = new MockHttpServletResponse();
+        server().serve(byDate, dated, file, null, "image/png", false);
+        assertEquals(304, dated.getStatus());
+        assertEquals(0, dated.getContentAsByteArray().length);
+    }
+
+    @Test
+    void failedPreconditionsAreAnswered412() throws Exception {
+        MockHttpServletRequest request = get();
+        request.addHeader("If-Match", "\"other\"");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        server().serve(request, response, file(), "abc", "image/png", false);
+
+        assertEquals(412, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+
+        MockHttpServletRequest modified = get();
+        modified.addHeader("If-Unmodified-Since", LAST_MODIFIED - 60_000);
+        MockHttpServletResponse modifiedResponse = new MockHttpServletResponse();
+        server().serve(modified, modifiedResponse, file(), "abc", "image/png", false);
+        assertEquals(412, modifiedResponse.getStatus());
+        assertEquals(0, modifiedResponse.getContentAsByteArray().length);
+
+        // A matching or wildcard If-Match lets the request through
+        MockHttpServletRequest matching = get();
+        matching.addHeader("If-Match", "\"other\", \"abc\"");
+        MockHttpServletResponse matchingResponse = new MockHttpServletResponse();
+        server().serve(matching, matchingResponse, file(), "abc", "image/png", false);
+        assertEquals(200, matchingResponse.getStatus());
+        assertArrayEquals(CONTENT, matchingResponse.getContentAsByteArray());
+    }
+
+    @Test
+    void servesASingleRange() throws Exception {
+        MockHttpServletRequest request = get();
+        request.addHeader("Range", "bytes=2-5");
+        request.addHeader("If-Range", "\"abc\"");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        server().serve(request, response, file(), "abc", "image/png", false);
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 2-5/20", response.getHeader("Content-Range"));
+        assertArrayEquals("2345".getBytes(), response.getContentAsByteArray());
+        assertEquals(4, response.getContentLength());
+    }
+
+    @Test
+    void weakOrStaleIfRangeFallsBackToTheWholeEntity() throws Exception {
+        Path file = file();
+        // Without a content tag the entity tag is weak, and weak tags never validate a range
+        MockHttpServletRequest weak = get();
+        weak.addHeader("Range", "bytes=2-5");
+        weak.addHeader("If-Range", "W/\"" + Long.toHexString(CONTENT.length) + "-" + Long.toHexString(LAST_MODIFIED) + "\"");
+        MockHttpServletResponse weakResponse = new MockHttpServletResponse();
+        server().serve(weak, weakResponse, file, null, "image/png", false);
+        assertEquals(200, weakResponse.getStatus());
+        assertArrayEquals(CONTENT, weakResponse.getContentAsByteArray());
+
+        MockHttpServletRequest stale = get();
+        stale.addHeader("Range", "bytes=2-5");
+        stale.addHeader("If-Range", "\"old\"");
+        MockHttpServletResponse staleResponse = new MockHttpServletResponse();
+        server().serve(stale, staleResponse, file, "abc", "image/png", false);
+        assertEquals(200, staleResponse.getStatus());
+        assertNull(staleResponse.getHeader("Content-Range"));
+        assertArrayEquals(CONTENT, staleResponse.getContentAsByteArray());
+
+        MockHttpServletRequest oldDate = get();
+        oldDate.addHeader("Range", "bytes=2-5");
+        oldDate.addHeader("If-Range", LAST_MODIFIED - 60_000);
+        MockHttpServletResponse oldDateResponse = new MockHttpServletResponse();
+        server().serve(oldDate, oldDateResponse, file, "abc", "image/png", false);
+        assertEquals(200, oldDateResponse.getStatus());
+        assertArrayEquals(CONTENT, oldDateResponse.getContentAsByteArray());
+    }
+
+    @Test
+    void unsatisfiableRangesAreAnswered416WithTheLength() throws Exception {
+        MockHttpServletRequest request = get();
+        request.addHeader("Range", "bytes=20-");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        server().serve(request, response, file(), "abc", "image/png", false);
+
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */20", response.getHeader("Content-Range"));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void handsTheFileToSendfileOnlyWhenAllowed() throws Exception {
+        Path file = file();
+        MockHttpServletRequest request = get();
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        request.addHeader("Range", "bytes=10-");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        server().serve(request, response, file, "abc", "image/png", false, true);
+        assertEquals(file.toAbsolutePath().toString(), request.getAttribute("org.apache.tomcat.sendfile.filename"));
+        assertEquals(10L, request.getAttribute("org.apache.tomcat.sendfile.start"));
+        assertEquals(20L, request.getAttribute("org.apache.tomcat.sendfile.end"));
+        assertEquals(0, response.getContentAsByteArray().length);
+
+        // A leased cache file may be gone once the handler returns, so it is written out here
+        MockHttpServletRequest leased = get();
+        leased.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        MockHttpServletResponse leasedResponse = new MockHttpServletResponse();
+        server().serve(leased, leasedResponse, file, "abc", "image/png", false, false);
+        assertNull(leased.getAttribute("org.apache.tomcat.sendfile.filename"));
+        assertArrayEquals(CONTENT, leasedResponse.getContentAsByteArray());
+    }
+
+    @Test
+    void servesRangesAndRevalidationsFromABuffer() throws Exception {
+        ByteBuffer content = ByteBuffer.allocateDirect(CONTENT.length).put(CONTENT).flip();
+
+        MockHttpServletRequest ranged = get();
+        ranged.addHeader("Range", "bytes=-4");
+        MockHttpServletResponse rangedResponse = new MockHttpServletResponse();
+        server().serve(ranged, rangedResponse, content, LAST_MODIFIED, "abc", "image/png", true);
+        assertEquals(206, rangedResponse.getStatus());
+        assertEquals("bytes 16-19/20", rangedResponse.getHeader("Content-Range"));
+        assertArrayEquals("ghij".getBytes(), rangedResponse.getContentAsByteArray());
+        // The cached buffer is shared; serving must not move it
+        assertEquals(0, content.position());
+        assertEquals(CONTENT.length, content.limit());
+
+        MockHttpServletResponse whole = new MockHttpServletResponse();
+        server().serve(get(), whole, content, LAST_MODIFIED, "abc", "image/png", true);
+        assertArrayEquals(CONTENT, whole.getContentAsByteArray());
+
+        MockHttpServletRequest revalidation = get();
+        revalidation.addHeader("If-None-Match", "\"abc\"");
+        MockHttpServletResponse notModified = new MockHttpServletResponse();
+        server().serve(revalidation, notModified, content, LAST_MODIFIED, "abc", "image/png", true);
+        assertEquals(304, notModified.getStatus());
+        assertEquals(0, notModified.getContentAsByteArray().length);
+    }
+
+    private static FileServer server() {
+        FileServer server = new FileServer();
+        setField(server, "immutableMaxAge", Duration.ofDays(365));
+        setField(server, "useSendfile", true);
+        return server;
+    }
+
+    private static MockHttpServletRequest get() {
+        return new MockHttpServletRequest("GET", "/photo/1");
+    }
+
+    private static Path file() throws Exception {
+        Path file = Files.write(Files.createTempFile("served", ".png"), CONTENT);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(LAST_MODIFIED));
+        return file;
+    }
+}
@@ -0,0 +1,193 @@
+package com.photooptimizer.imaging;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the raster filter engine against the original getRGB/setRGB filters
+ */
+class FilterEngineTest {
+
+    private static final int[] IMAGE_TYPES = {
+        BufferedImage.TYPE_INT_RGB,
+        BufferedImage.TYPE_INT_ARGB,
+        BufferedImage.TYPE_3BYTE_BGR,
+        BufferedImage.TYPE_4BYTE_ABGR,
+        BufferedImage.TYPE_BYTE_GRAY
+    };
+
+    @Test
+    void brightnessMatchesReference() {
+        assertMatches(img -> FilterEngine.brightness(img, 1.35f), img -> referenceScale(img, 1.35f));
+        assertMatches(img -> FilterEngine.brightness(img, 0.4f), img -> referenceScale(img, 0.4f));
+    }
+
+    @Test
+    void contrastMatchesReference() {
+        assertMatches(img -> FilterEngine.contrast(img, 2.2f), img -> referenceScale(img, 2.2f));
+    }
+
+    @Test
+    void grayscaleMatchesReference() {
+        assertMatches(FilterEngine::grayscale, FilterEngineTest::referenceGrayscale);
+    }
+
+    @Test
+    void sepiaMatchesReference() {
+        assertMatches(FilterEngine::sepia, FilterEngineTest::referenceSepia);
+    }
+
+    @Test
+    void blurMatchesReference() {
+        assertMatches(img -> FilterEngine.blur(img, 0), img -> referenceBlur(img, 0));
+        assertMatches(img -> FilterEngine.blur(img, 2), img -> referenceBlur(img, 2));
+        assertMatches(img -> FilterEngine.blur(img, 9), img -> referenceBlur(img, 9));
+        // Radius larger than the image: every pixel becomes the image average
+        assertMatches(img -> FilterEngine.blur(img, 60), img -> referenceBlur(img, 60));
+    }
+
+    @Test
+    void gaussianBlurKeepsFlatImagesFlat() {
+        BufferedImage image = new BufferedImage(50, 40, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, 0x336699);
+            }
+        }
+        BufferedImage blurred = FilterEngine.gaussianBlur(image, 6.5);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertEquals(0x336699, blurred.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+    }
+
+    @Test
+    void gaussianBlurWithZeroSigmaIsIdentity() {
+        BufferedImage image = randomImage(31, 17, BufferedImage.TYPE_INT_RGB, 3);
+        assertSamePixels(image, FilterEngine.gaussianBlur(image, 0));
+    }
+
+    @Test
+    void gaussianRadiiGrowWithSigma() {
+        int[] small = BoxBlur.gaussianRadii(2);
+        int[] large = BoxBlur.gaussianRadii(20);
+        assertEquals(BoxBlur.GAUSSIAN_PASSES, small.length);
+        for (int i = 0; i < small.length; i++) {
+            assertTrue(large[i] > small[i]);
+        }
+    }
+
+    @Test
+    void largeImagesAreSplitIntoParallelBands() {
+        // 640 x 480 is above the sequential threshold
+        BufferedImage image = randomImage(640, 480, BufferedImage.TYPE_3BYTE_BGR, 7);
+        assertTrue((long) image.getWidth() * image.getHeight() >= FilterEngine.PARALLEL_THRESHOLD);
+        assertSamePixels(referenceSepia(image), FilterEngine.sepia(image));
+        assertSamePixels(referenceScale(image, 1.1f), FilterEngine.brightness(image, 1.1f));
+        assertSamePixels(referenceBlur(image, 1), FilterEngine.blur(image, 1));
+    }
+
+    private static void assertMatches(UnaryOperator<BufferedImage> engine, UnaryOperator<BufferedImage> reference) {
+        for (int type : IMAGE_TYPES) {
+            BufferedImage image = randomImage(37, 23, type, type);
+            assertSamePixels(reference.apply(image), engine.apply(image));
+        }
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), "pixel (" + x + "," + y + ")");
+            }
+        }
+    }
+
+    private static BufferedImage randomImage(int width, int height, int type, long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    // Reference implementations: the original EditorService filters
+
+    private static BufferedImage referenceScale(BufferedImage image, float factor) {
+        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < image.getWidth(); x++) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                int rgb = image.getRGB(x, y);
+                int r = (int) Math.min(255, Math.max(0, ((rgb >> 16) & 0xFF) * factor));
+                int g = (int) Math.min(255, Math.max(0, ((rgb >> 8) & 0xFF) * factor));
+                int b = (int) Math.min(255, Math.max(0, (rgb & 0xFF) * factor));
+                result.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return result;
+    }
+
+    private static BufferedImage referenceGrayscale(BufferedImage image) {
+        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < image.getWidth(); x++) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                int rgb = image.getRGB(x, y);
+                int gray = (int) (0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF) + 0.114 * (rgb & 0xFF));
+                result.setRGB(x, y, (gray << 16) | (gray << 8) | gray);
+            }
+        }
+        return result;
+    }
+
+    private static BufferedImage referenceSepia(BufferedImage image) {
+        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < image.getWidth(); x++) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                int rgb = image.getRGB(x, y);
+                int r = (rgb >> 16) & 0xFF;
+                int g = (rgb >> 8) & 0xFF;
+                int b = rgb & 0xFF;
+                int newR = Math.min(255, (int) (0.393 * r + 0.769 * g + 0.189 * b));
+                int newG = Math.min(255, (int) (0.349 * r + 0.686 * g + 0.168 * b));
+                int newB = Math.min(255, (int) (0.272 * r + 0.534 * g + 0.131 * b));
+                result.setRGB(x, y, (newR << 16) | (newG << 8) | newB);
+            }
+        }
+        return result;
+    }
+
+    private static BufferedImage referenceBlur(BufferedImage image, int radius) {
+        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < image.getWidth(); x++) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                int r = 0, g = 0, b = 0, count = 0;
+                for (int dx = -radius; dx <= radius; dx++) {
+                    for (int dy = -radius; dy <= radius; dy++) {
+                        int nx = x + dx;
+                        int ny = y + dy;
+                        if (nx >= 0 && nx < image.getWidth() && ny >= 0 && ny < image.getHeight()) {
+                            int rgb = image.getRGB(nx, ny);
+                            r += (rgb >> 16) & 0xFF;
+                            g += (rgb >> 8) & 0xFF;
+                            b += rgb & 0xFF;
+                            count++;
+                        }
+                    }
+                }
+                result.setRGB(x, y, ((r / count) << 16) | ((g / count) << 8) | (b / count));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,87 @@
+package com.photooptimizer.imaging;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that a fused filter chain renders exactly like the filters applied one by one
+ */
+class FilterPipelineTest {
+
+    @Test
+    void fusedPointChainMatchesSequentialFilters() {
+        BufferedImage image = randomImage(123, 77);
+        FilterPipeline pipeline = FilterPipeline.compile(List.of(
+            new FilterStep("brightness", "1.3"),
+            new FilterStep("contrast", "0.8"),
+            new FilterStep("sepia", null)));
+
+        BufferedImage expected = FilterEngine.sepia(
+            FilterEngine.contrast(FilterEngine.brightness(image, 1.3f), 0.8f));
+
+        assertEquals(1, pipeline.getPassCount());
+        assertSamePixels(expected, pipeline.apply(image));
+    }
+
+    @Test
+    void blurSplitsTheChainIntoSeparatePasses() {
+        BufferedImage image = randomImage(64, 48);
+        FilterPipeline pipeline = FilterPipeline.compile(List.of(
+            new FilterStep("grayscale", ""),
+            new FilterStep("blur", "3"),
+            new FilterStep("brightness", "1.1"),
+            new FilterStep("levels", "10,240")));
+
+        BufferedImage expected = FilterEngine.pointFilter(
+            FilterEngine.brightness(FilterEngine.blur(FilterEngine.grayscale(image), 3), 1.1f),
+            PointOps.levels(10, 240, 1.0));
+
+        assertEquals(3, pipeline.getPassCount());
+        assertSamePixels(expected, pipeline.apply(image));
+    }
+
+    @Test
+    void gaussianStageMatchesStandaloneGaussian() {
+        BufferedImage image = randomImage(40, 90);
+        FilterPipeline pipeline = FilterPipeline.compile(List.of(
+            new FilterStep("gaussian-blur", "4"),
+            new FilterStep("sepia", "")));
+        assertSamePixels(FilterEngine.sepia(FilterEngine.gaussianBlur(image, 4)), pipeline.apply(image));
+    }
+
+    @Test
+    void invalidChainsAreRejectedAtCompileTime() {
+        assertThrows(IllegalArgumentException.class, () -> FilterPipeline.compile(List.of()));
+        assertThrows(IllegalArgumentException.class,
+            () -> FilterPipeline.compile(List.of(new FilterStep("emboss", ""))));
+        assertThrows(IllegalArgumentException.class,
+            () -> FilterPipeline.compile(List.of(new FilterStep("levels", "200,100"))));
+        assertThrows(NumberFormatException.class,
+            () -> FilterPipeline.compile(List.of(new FilterStep("brightness", "bright"))));
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), "pixel (" + x + "," + y + ")");
+            }
+        }
+    }
+
+    private static BufferedImage randomImage(int width, int height) {
+        Random random = new Random(width * 31L + height);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+}
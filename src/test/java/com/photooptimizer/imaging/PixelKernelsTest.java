@@ -0,0 +1,61 @@
+package com.photooptimizer.imaging;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks that the Vector API kernels match the scalar kernels for every RGB color
+ */
+class PixelKernelsTest {
+
+    @Test
+    void vectorKernelsMatchScalarKernelsForAllColors() throws Exception {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent(),
+            "run with --add-modules jdk.incubator.vector");
+        PixelKernels scalar = new ScalarPixelKernels();
+        PixelKernels vector = (PixelKernels) Class.forName("com.photooptimizer.imaging.VectorPixelKernels")
+            .getDeclaredConstructor().newInstance();
+
+        // All 2^24 colors, with garbage in the alpha byte, over an odd range to hit the tail loop
+        int[] src = new int[(1 << 24) + 3];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (i * 0x5F) << 24 | (i & 0xFFFFFF);
+        }
+        int[] expected = new int[src.length];
+        int[] actual = new int[src.length];
+
+        scalar.grayscale(src, expected, 1, src.length);
+        vector.grayscale(src, actual, 1, src.length);
+        assertArrayEquals(expected, actual);
+
+        scalar.sepia(src, expected, 1, src.length);
+        vector.sepia(src, actual, 1, src.length);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void grayscaleBytesMatchesGrayscaleFilter() {
+        Random random = new Random(7);
+        BufferedImage image = new BufferedImage(301, 203, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        BufferedImage gray = FilterEngine.grayscale(image);
+        BufferedImage grayBytes = FilterEngine.grayscaleBytes(image);
+
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, grayBytes.getType());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertEquals(gray.getRGB(x, y) & 0xFF, grayBytes.getRaster().getSample(x, y, 0), "pixel (" + x + "," + y + ")");
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.photooptimizer.imaging;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Quality metrics and the quality search against each kind of target
+ */
+class QualityEncoderTest {
+
+    private final QualityEncoder encoder = new QualityEncoder(20, 95, 256, 6);
+
+    @Test
+    void metricsAreExactForIdenticalImagesAndDropWithNoise() {
+        BufferedImage image = photoLike(64, 48, 1);
+        int[] pixels = FilterEngine.readPixels(image);
+        int[] noisy = pixels.clone();
+        Random random = new Random(2);
+        for (int i = 0; i < noisy.length; i++) {
+            noisy[i] ^= random.nextInt(8) * 0x010101;
+        }
+
+        assertEquals(1.0, ImageQuality.ssim(pixels, pixels, 64, 48), 1e-9);
+        assertEquals(Double.POSITIVE_INFINITY, ImageQuality.psnr(pixels, pixels, 64, 48));
+        assertTrue(ImageQuality.ssim(pixels, noisy, 64, 48) < 1.0);
+        assertTrue(ImageQuality.psnr(pixels, noisy, 64, 48) < 50);
+    }
+
+    @Test
+    void stricterSsimTargetsPickHigherQualities() throws Exception {
+        BufferedImage image = photoLike(800, 600, 3);
+
+        QualityEncoder.Result loose = encoder.encode(image, "jpeg", QualityTarget.ssim(0.90));
+        QualityEncoder.Result strict = encoder.encode(image, "jpeg", QualityTarget.ssim(0.99));
+
+        assertTrue(loose.getQuality() <= strict.getQuality());
+        assertTrue(loose.getBytes().length <= strict.getBytes().length);
+        assertTrue(strict.getMetric() >= 0.99 || strict.getQuality() == 95);
+        assertTrue(loose.getProbeEncodes() <= 8);
+    }
+
+    @Test
+    void psnrTargetIsMetOnTheFullImage() throws Exception {
+        BufferedImage image = photoLike(600, 400, 4);
+
+        QualityEncoder.Result result = encoder.encode(image, "jpeg", QualityTarget.psnr(35));
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(result.getBytes()));
+
+        double psnr = ImageQuality.psnr(FilterEngine.readPixels(image), FilterEngine.readPixels(decoded), 600, 400);
+        // The probe is downscaled, so allow a little slack on the full image
+        assertTrue(psnr >= 33, "psnr " + psnr);
+    }
+
+    @Test
+    void unreachableTargetFallsBackToMaximumQuality() throws Exception {
+        BufferedImage image = photoLike(300, 300, 7);
+
+        QualityEncoder.Result result = encoder.encode(image, "jpeg", QualityTarget.psnr(90));
+
+        assertEquals(95, result.getQuality());
+    }
+
+    @Test
+    void byteTargetIsRespected() throws Exception {
+        BufferedImage image = photoLike(1200, 900, 5);
+        long budget = 60_000;
+
+        QualityEncoder.Result result = encoder.encode(image, "jpeg", QualityTarget.bytes(budget));
+
+        assertTrue(result.getBytes().length <= budget || result.getQuality() == 20,
+            result.getBytes().length + " bytes at quality " + result.getQuality());
+    }
+
+    @Test
+    void losslessFormatsAreEncodedOnceWithoutSearch() throws Exception {
+        BufferedImage image = photoLike(300, 200, 6);
+
+        QualityEncoder.Result result = encoder.encode(image, "png", QualityTarget.ssim(0.99));
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(result.getBytes()));
+
+        assertEquals(0, result.getProbeEncodes());
+        assertEquals(100, result.getQuality());
+        assertEquals(Double.POSITIVE_INFINITY,
+            ImageQuality.psnr(FilterEngine.readPixels(image), FilterEngine.readPixels(decoded), 300, 200));
+    }
+
+    @Test
+    void stripShapedImagesAreProbed() throws Exception {
+        // Narrower (or shorter) than a probe tile but longer than the probe edge
+        for (BufferedImage image : new BufferedImage[] {photoLike(40, 2000, 8), photoLike(2000, 40, 9), photoLike(1, 700, 10)}) {
+            QualityEncoder.Result result = encoder.encode(image, "jpeg", QualityTarget.ssim(0.95));
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(result.getBytes()));
+
+            assertEquals(image.getWidth(), decoded.getWidth());
+            assertEquals(image.getHeight(), decoded.getHeight());
+            assertTrue(result.getProbeEncodes() > 0);
+        }
+    }
+
+    /**
+     * Smooth gradients with luminance grain, so JPEG quality visibly matters
+     */
+    private static BufferedImage photoLike(int width, int height, long seed) {
+        BufferedImage image = FilterEngine.newRgbImage(width, height);
+        int[] pixels = FilterEngine.pixelsOf(image);
+        Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int grain = random.nextInt(24);
+                int r = Math.min(255, x * 230 / width + grain);
+                int g = Math.min(255, y * 230 / height + grain);
+                int b = Math.min(255, (x + y) * 115 / (width + height) + grain);
+                pixels[y * width + x] = (r << 16) | (g << 8) | b;
+            }
+        }
+        return image;
+    }
+}
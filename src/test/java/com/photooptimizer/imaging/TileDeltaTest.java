@@ -0,0 +1,87 @@
+package com.photooptimizer.imaging;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tile deltas between a photo and an edit of it
+ */
+class TileDeltaTest {
+
+    @Test
+    void rebuildsTheEditExactlyFromASmallDelta() {
+        BufferedImage base = noise(301, 203, BufferedImage.TYPE_INT_RGB);
+        BufferedImage edited = copy(base, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = edited.createGraphics();
+        g.setColor(Color.YELLOW);
+        g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 24));
+        g.drawString("Caption", 20, 180);
+        g.dispose();
+
+        byte[] delta = TileDelta.encode(base, edited, 64, "base");
+        // Noise does not compress, so a full copy costs about 3 bytes a pixel
+        assertTrue(delta.length < 301 * 203 / 2, delta.length + " bytes");
+        assertArrayEquals(pixels(edited), pixels(TileDelta.apply(base, delta)));
+    }
+
+    @Test
+    void keepsAlphaAndEdgeTiles() {
+        BufferedImage base = noise(130, 70, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage edited = copy(base, BufferedImage.TYPE_INT_ARGB);
+        // Only the partial tile in the bottom-right corner changes
+        edited.setRGB(129, 69, 0x00123456);
+
+        BufferedImage rebuilt = TileDelta.apply(base, TileDelta.encode(base, edited, 64, "base"));
+        assertTrue(rebuilt.getColorModel().hasAlpha());
+        assertArrayEquals(pixels(edited), pixels(rebuilt));
+    }
+
+    @Test
+    void rejectsOtherSizesAndBrokenDeltas() {
+        BufferedImage base = noise(64, 64, BufferedImage.TYPE_INT_RGB);
+        assertNull(TileDelta.encode(base, noise(64, 65, BufferedImage.TYPE_INT_RGB), 64, "base"));
+
+        byte[] delta = TileDelta.encode(base, noise(64, 64, BufferedImage.TYPE_INT_RGB), 16, "base");
+        assertThrows(IllegalStateException.class, () -> TileDelta.apply(noise(32, 64, BufferedImage.TYPE_INT_RGB), delta));
+        assertThrows(IllegalStateException.class, () -> TileDelta.apply(base, Arrays.copyOf(delta, delta.length / 2)));
+
+        // The base is part of the delta, so equal changes to different bases differ
+        BufferedImage other = noise(64, 64, BufferedImage.TYPE_INT_RGB);
+        assertFalse(Arrays.equals(TileDelta.encode(base, base, 16, "a"), TileDelta.encode(other, other, 16, "b")));
+        assertEquals(64, TileDelta.apply(base, TileDelta.encode(base, base, 16, "a")).getWidth());
+    }
+
+    private static BufferedImage noise(int width, int height, int type) {
+        Random random = new Random(width * 31L + height);
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage copy(BufferedImage image, int type) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        copy.setData(image.getRaster());
+        return copy;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
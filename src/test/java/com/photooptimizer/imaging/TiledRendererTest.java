@@ -0,0 +1,65 @@
+package com.photooptimizer.imaging;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that strip-wise rendering produces the same pixels as a whole-image render
+ */
+class TiledRendererTest {
+
+    @Test
+    void stripsWithHaloMatchWholeImageRender() throws Exception {
+        BufferedImage image = randomImage(97, 211);
+        File source = Files.createTempFile("tiled-source", ".png").toFile();
+        source.deleteOnExit();
+        ImageIO.write(image, "png", source);
+
+        FilterPipeline pipeline = FilterPipeline.compile(List.of(
+            new FilterStep("blur", "4"),
+            new FilterStep("contrast", "1.2"),
+            new FilterStep("gaussian-blur", "2")));
+        BufferedImage expected = pipeline.apply(image);
+
+        // A budget of a few rows forces many strips whose halo exceeds their height
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TiledRenderer.renderPng(source, pipeline, 97L * 40, 6, out);
+        BufferedImage actual = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y) & 0xFFFFFF, actual.getRGB(x, y) & 0xFFFFFF,
+                    "pixel (" + x + "," + y + ")");
+            }
+        }
+    }
+
+    @Test
+    void rowsPerTileKeepsStripAndHaloWithinBudget() {
+        assertEquals(90, TiledRenderer.rowsPerTile(1000, 5, 100_000));
+        assertEquals(1, TiledRenderer.rowsPerTile(1000, 80, 100_000));
+    }
+
+    private static BufferedImage randomImage(int width, int height) {
+        Random random = new Random(width * 31L + height);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,61 @@
+package com.photooptimizer.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Parsing and validation of batch operation chains
+ */
+class BatchServiceTest {
+
+    @Test
+    void splitsFiltersAroundResize() {
+        BatchService.Plan plan = BatchService.Plan.parse(List.of(
+            Map.of("type", "brightness", "value", "1.2"),
+            Map.of("type", "resize", "value", 800),
+            Map.of("type", "sepia"),
+            Map.of("type", "encode", "value", "jpg:70")));
+
+        assertNotNull(plan.before);
+        assertEquals(800, plan.maxEdge);
+        assertNotNull(plan.after);
+        assertEquals("jpeg", plan.format);
+        assertEquals(70, plan.quality);
+    }
+
+    @Test
+    void leadingResizeLeavesNothingBeforeIt() {
+        BatchService.Plan plan = BatchService.Plan.parse(List.of(
+            Map.of("type", "resize", "value", "1600"),
+            Map.of("type", "grayscale")));
+
+        assertNull(plan.before);
+        assertEquals(1600, plan.maxEdge);
+        assertNull(plan.format);
+    }
+
+    @Test
+    void rejectsInvalidChains() {
+        assertThrows(IllegalArgumentException.class, () -> BatchService.Plan.parse(List.of()));
+        assertThrows(IllegalArgumentException.class, () -> BatchService.Plan.parse(List.of(
+            Map.of("type", "encode", "value", "png"), Map.of("type", "grayscale"))));
+        assertThrows(IllegalArgumentException.class, () -> BatchService.Plan.parse(List.of(
+            Map.of("type", "resize", "value", "0"))));
+        assertThrows(IllegalArgumentException.class, () -> BatchService.Plan.parse(List.of(
+            Map.of("type", "resize", "value", "100"), Map.of("type", "resize", "value", "50"))));
+        assertThrows(IllegalArgumentException.class, () -> BatchService.Plan.parse(List.of(
+            Map.of("type", "no-such-filter"))));
+        // Quality is on the 1-100 scale of /photo/{id}?quality=, not a 0-1 fraction
+        assertThrows(IllegalArgumentException.class, () -> BatchService.Plan.parse(List.of(
+            Map.of("type", "encode", "value", "jpeg:0.85"))));
+        assertThrows(IllegalArgumentException.class, () -> BatchService.Plan.parse(List.of(
+            Map.of("type", "encode", "value", "jpeg:101"))));
+    }
+}
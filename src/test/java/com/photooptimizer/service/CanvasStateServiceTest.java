@@ -0,0 +1,222 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.repository.PhotoRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.util.ReflectionTestUtils.getField;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * Compression, the write-behind save path and version history of canvas documents
+ */
+class CanvasStateServiceTest {
+
+    @Test
+    void compressesAndRestoresEditorJson() {
+        StringBuilder json = new StringBuilder("{\"version\":\"5.3.0\",\"objects\":[");
+        for (int i = 0; i < 500; i++) {
+            json.append(i > 0 ? "," : "").append("{\"type\":\"rect\",\"left\":").append(i)
+                .append(",\"top\":").append(i * 2).append(",\"fill\":\"#ff0000\",\"opacity\":1}");
+        }
+        byte[] raw = json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+
+        byte[] compressed = CanvasStateService.compress(raw, 6);
+        assertTrue(compressed.length * 5 < raw.length);
+        assertArrayEquals(raw, CanvasStateService.inflate(compressed, raw.length));
+        assertThrows(IllegalStateException.class, () -> CanvasStateService.inflate(compressed, raw.length + 1));
+    }
+
+    @Test
+    void saveWritesOnlyTheStateRow() throws Exception {
+        List<Object[]> writes = new ArrayList<>();
+        CanvasStateService service = service(writes, Duration.ofSeconds(2));
+
+        assertTrue(service.save(1L, "{\"objects\":[]}"));
+        assertFalse(service.save(2L, "{\"objects\":[]}"));
+        assertThrows(IllegalArgumentException.class, () -> service.save(1L, "x".repeat(2000)));
+        service.stop();
+
+        assertEquals(1, writes.size());
+        assertEquals(1L, writes.get(0)[0]);
+        assertEquals("{\"objects\":[]}", new String(
+            CanvasStateService.inflate((byte[]) writes.get(0)[1], (Integer) writes.get(0)[2]), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void coalescesSavesUntilTheyAreDue() throws Exception {
+        List<Object[]> writes = new ArrayList<>();
+        CanvasStateService service = service(writes, Duration.ofHours(1));
+        SimpleMeterRegistry registry = (SimpleMeterRegistry) getField(service, "meterRegistry");
+
+        for (int i = 1; i <= 5; i++) {
+            service.save(1L, "{\"revision\":" + i + "}");
+        }
+        // Not due yet: nothing written, but reads see the latest save
+        service.flushDue();
+        assertEquals(0, writes.size());
+        assertEquals("{\"revision\":5}", service.load(1L));
+
+        setField(service, "maxStaleness", Duration.ZERO);
+        service.flushDue();
+        assertEquals(1, writes.size());
+        assertEquals(4.0, registry.get("photo.canvas.saves.coalesced").counter().count());
+        assertEquals(1.0, registry.get("photo.canvas.rows.written").counter().count());
+        assertEquals(0.0, registry.get("photo.canvas.pending.bytes").gauge().value());
+    }
+
+    @Test
+    void aSaveDuringItsWriteIsNotCountedAsCoalesced() throws Exception {
+        List<String> written = new ArrayList<>();
+        CanvasStateService service = service(new ArrayList<>(), Duration.ZERO);
+        SimpleMeterRegistry registry = (SimpleMeterRegistry) getField(service, "meterRegistry");
+        setField(service, "jdbcTemplate", new JdbcTemplate() {
+            @Override
+            public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+                for (Object[] row : batchArgs) {
+                    written.add(new String(CanvasStateService.inflate((byte[]) row[1], (Integer) row[2]),
+                        StandardCharsets.UTF_8));
+                }
+                // The editor saves again while the flusher is writing the previous document
+                if (written.size() == 1) {
+                    service.save(1L, "{\"revision\":2}");
+                }
+                return new int[batchArgs.size()];
+            }
+        });
+
+        service.save(1L, "{\"revision\":1}");
+        service.flushDue();
+        assertEquals("{\"revision\":2}", service.load(1L));
+        service.flushDue();
+
+        // Both were written, so neither was coalesced away
+        assertEquals(List.of("{\"revision\":1}", "{\"revision\":2}"), written);
+        assertEquals(0.0, registry.get("photo.canvas.saves.coalesced").counter().count());
+        assertEquals(0.0, registry.get("photo.canvas.pending.bytes").gauge().value());
+    }
+
+    @Test
+    void replaysAnyVersionFromSnapshotsAndDeltas() throws Exception {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:canvas;DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("CREATE TABLE canvas_states (photo_id BIGINT PRIMARY KEY, state BLOB NOT NULL,"
+            + " raw_size INT NOT NULL, updated_at TIMESTAMP NOT NULL)");
+        jdbc.execute("CREATE TABLE canvas_state_versions (id BIGINT AUTO_INCREMENT PRIMARY KEY, photo_id BIGINT NOT NULL,"
+            + " version INT NOT NULL, snapshot BOOLEAN NOT NULL, data BLOB NOT NULL, raw_size INT NOT NULL,"
+            + " created_at TIMESTAMP NOT NULL, UNIQUE (photo_id, version))");
+
+        CanvasStateService service = service(new ArrayList<>(), Duration.ZERO);
+        setField(service, "jdbcTemplate", jdbc);
+        setField(service, "transactionTemplate", new TransactionTemplate(new DataSourceTransactionManager(dataSource)));
+        setField(service, "historyEnabled", true);
+        setField(service, "snapshotInterval", 10);
+        setField(service, "maxSize", DataSize.ofMegabytes(1));
+
+        List<String> saved = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            String json = canvas(200, i);
+            saved.add(json);
+            service.save(1L, json);
+            service.flushDue();
+        }
+        // Unchanged documents add no version
+        service.save(1L, saved.get(24));
+        service.flushDue();
+
+        List<Map<String, Object>> versions = service.listVersions(1L);
+        assertEquals(25, versions.size());
+        long stored = 0;
+        for (Map<String, Object> version : versions) {
+            int number = (Integer) version.get("version");
+            assertEquals(number % 10 == 1, version.get("snapshot"));
+            stored += (Long) version.get("storedSize");
+        }
+        // 3 snapshots plus 22 small deltas, against 25 compressed documents
+        int compressedDocument = CanvasStateService.compress(saved.get(0).getBytes(StandardCharsets.UTF_8), 6).length;
+        assertTrue(stored < 5 * compressedDocument, stored + " bytes stored");
+
+        for (int version = 1; version <= 25; version++) {
+            assertEquals(saved.get(version - 1), service.loadVersion(1L, version));
+        }
+        assertNull(service.loadVersion(1L, 26));
+        assertEquals(saved.get(24), service.load(1L));
+    }
+
+    private static String canvas(int objects, int revision) {
+        StringBuilder json = new StringBuilder("{\"version\":\"5.3.0\",\"objects\":[");
+        for (int i = 0; i < objects; i++) {
+            // Each revision moves one object
+            int left = i == revision ? 1000 + revision : i * 3;
+            json.append(i > 0 ? "," : "").append("{\"type\":\"circle\",\"left\":").append(left)
+                .append(",\"top\":").append(i * 5).append(",\"radius\":").append(i % 17).append("}");
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Service over photo 1 only, recording the rows of every batch it writes
+     */
+    private static CanvasStateService service(List<Object[]> writes, Duration maxStaleness) throws Exception {
+        CanvasStateService service = new CanvasStateService();
+        setField(service, "photoRepository", repository(1L));
+        setField(service, "jdbcTemplate", new JdbcTemplate() {
+            @Override
+            public <T> T queryForObject(String sql, Class<T> requiredType) {
+                // No legacy column to migrate
+                return requiredType.cast(0);
+            }
+
+            @Override
+            public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+                assertTrue(sql.startsWith("MERGE INTO canvas_states"));
+                writes.addAll(batchArgs);
+                return new int[batchArgs.size()];
+            }
+        });
+        setField(service, "meterRegistry", new SimpleMeterRegistry());
+        setField(service, "compressionLevel", 6);
+        setField(service, "maxSize", DataSize.ofKilobytes(1));
+        setField(service, "maxStaleness", maxStaleness);
+        setField(service, "maxBufferedSize", DataSize.ofMegabytes(1));
+        setField(service, "writeBatchSize", 100);
+        setField(service, "transactionTemplate", new TransactionTemplate() {
+            @Override
+            public <T> T execute(TransactionCallback<T> action) {
+                return action.doInTransaction(null);
+            }
+        });
+        setField(service, "historyEnabled", false);
+        service.start();
+        return service;
+    }
+
+    private static PhotoRepository repository(Long existingId) {
+        return (PhotoRepository) Proxy.newProxyInstance(PhotoRepository.class.getClassLoader(),
+            new Class<?>[] {PhotoRepository.class}, (proxy, method, args) -> {
+                if (method.getName().equals("existsById")) {
+                    return existingId.equals(args[0]);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+    }
+}
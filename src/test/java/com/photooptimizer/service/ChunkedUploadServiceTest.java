@@ -0,0 +1,170 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.model.Photo;
+import com.photooptimizer.service.ChunkedUploadService.Session;
+import com.photooptimizer.storage.BlobStore.StagedBlob;
+import com.photooptimizer.storage.InMemoryBlobStore;
+import com.photooptimizer.util.CapacityExceededException;
+import com.photooptimizer.util.Hashing;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * Out-of-order assembly, checksums and incremental hashing of chunked uploads
+ */
+class ChunkedUploadServiceTest {
+
+    private static final int CHUNK = 64 * 1024;
+
+    private final InMemoryBlobStore blobStore = new InMemoryBlobStore();
+
+    @Test
+    void assemblesChunksSentOutOfOrderInParallel() throws Exception {
+        byte[] jpeg = jpeg(800, 600);
+        ChunkedUploadService service = service();
+        Session session = service.initiate("big.jpg", jpeg.length, (long) CHUNK, Hashing.sha256Hex(jpeg));
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < session.getChunkCount(); i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(7));
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Session>> writes = new ArrayList<>();
+            for (int index : order) {
+                byte[] chunk = chunk(jpeg, index);
+                writes.add(pool.submit(() -> service.writeChunk(session.getUploadId(), index,
+                    new ByteArrayInputStream(chunk), Hashing.sha256Hex(chunk))));
+            }
+            for (Future<Session> write : writes) {
+                write.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(jpeg.length, session.getContiguousBytes());
+        assertEquals(800, (int) session.getWidth());
+
+        Photo photo = service.complete(session.getUploadId());
+        assertEquals(Hashing.sha256Hex(jpeg), photo.getContentHash());
+        assertEquals(600, (int) photo.getHeight());
+        try (InputStream stored = blobStore.open(blobStore.keyOf(Paths.get(photo.getFilePath())))) {
+            assertArrayEquals(jpeg, stored.readAllBytes());
+        }
+        assertNull(service.getSession(session.getUploadId()));
+    }
+
+    @Test
+    void badChunkChecksumLeavesTheChunkMissing() throws Exception {
+        byte[] jpeg = jpeg(400, 300);
+        ChunkedUploadService service = service();
+        Session session = service.initiate("photo.jpg", jpeg.length, (long) CHUNK, null);
+        byte[] first = chunk(jpeg, 0);
+
+        assertThrows(IllegalArgumentException.class, () -> service.writeChunk(session.getUploadId(), 0,
+            new ByteArrayInputStream(first), Hashing.sha256Hex(new byte[] {1})));
+        assertEquals(0, session.getContiguousBytes());
+        assertThrows(IllegalStateException.class, () -> service.complete(session.getUploadId()));
+
+        // Resume: only the missing chunks are sent again
+        for (int index : session.getMissingChunks()) {
+            service.writeChunk(session.getUploadId(), index, new ByteArrayInputStream(chunk(jpeg, index)), null);
+        }
+        assertEquals(400, (int) service.complete(session.getUploadId()).getWidth());
+    }
+
+    @Test
+    void rejectsContentThatIsNotAnImage() throws Exception {
+        byte[] junk = new byte[CHUNK];
+        new Random(1).nextBytes(junk);
+        ChunkedUploadService service = service();
+        Session session = service.initiate("junk.png", junk.length, (long) CHUNK, null);
+
+        assertThrows(IllegalArgumentException.class, () -> service.writeChunk(session.getUploadId(), 0,
+            new ByteArrayInputStream(junk), null));
+        assertThrows(IllegalArgumentException.class, () -> service.complete(session.getUploadId()));
+        assertThrows(IllegalArgumentException.class, () -> service.initiate("notes.txt", 10, null, null));
+    }
+
+    @Test
+    void turnsAwayUploadsBeyondTheSessionLimit() throws Exception {
+        ChunkedUploadService service = service();
+        setField(service, "maxSessions", 1);
+        Session first = service.initiate("a.jpg", CHUNK, (long) CHUNK, null);
+
+        assertThrows(CapacityExceededException.class, () -> service.initiate("b.jpg", CHUNK, (long) CHUNK, null));
+        service.abort(first.getUploadId());
+        service.abort(service.initiate("b.jpg", CHUNK, (long) CHUNK, null).getUploadId());
+    }
+
+    private ChunkedUploadService service() throws Exception {
+        PhotoService photoService = new PhotoService() {
+            @Override
+            boolean isSupportedFormat(String format) {
+                return Arrays.asList("jpg", "jpeg", "png").contains(format.toLowerCase());
+            }
+
+            @Override
+            public Photo saveNewPhoto(Photo photo, StagedBlob staged) throws IOException {
+                photo.setFilePath(blobStore.locate(blobStore.commit(staged)).toString());
+                photo.setContentHash(staged.getContentHash());
+                photo.setFileSize(staged.getSize());
+                return photo;
+            }
+        };
+        ChunkedUploadService service = new ChunkedUploadService();
+        setField(service, "photoService", photoService);
+        setField(service, "blobStore", blobStore);
+        setField(service, "path", Files.createTempDirectory("chunks").toString());
+        setField(service, "defaultChunkSize", DataSize.ofMegabytes(8));
+        setField(service, "maxChunkSize", DataSize.ofMegabytes(64));
+        setField(service, "maxSize", DataSize.ofGigabytes(1));
+        setField(service, "maxSessions", 10);
+        setField(service, "expiry", Duration.ofHours(1));
+        service.start();
+        return service;
+    }
+
+    private static byte[] jpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", out);
+        return out.toByteArray();
+    }
+
+    private static byte[] chunk(byte[] content, int index) {
+        int from = index * CHUNK;
+        return Arrays.copyOfRange(content, from, Math.min(content.length, from + CHUNK));
+    }
+}
@@ -0,0 +1,141 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.model.Photo;
+import com.photooptimizer.repository.PhotoRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.util.ReflectionTestUtils.getField;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * Rendition sizes, recorded metadata, reuse across identical content and the backfill
+ */
+class DerivativeServiceTest {
+
+    @Test
+    void rendersBoundedRenditionsAndReusesThemForSameContent() throws Exception {
+        Path dir = Files.createTempDirectory("derivatives");
+        Path source = dir.resolve("source.jpg");
+        ImageIO.write(new BufferedImage(4000, 1000, BufferedImage.TYPE_INT_RGB), "jpeg", source.toFile());
+
+        List<Object[]> updates = new ArrayList<>();
+        List<String> sqls = new ArrayList<>();
+        DerivativeService service = new DerivativeService();
+        setField(service, "jdbcTemplate", new JdbcTemplate() {
+            @Override
+            public int update(String sql, Object... args) {
+                sqls.add(sql);
+                updates.add(args);
+                return 1;
+            }
+
+            @Override
+            public <T> List<T> queryForList(String sql, Class<T> elementType, Object... args) {
+                return List.of();
+            }
+        });
+        setField(service, "thumbnailSize", 300);
+        setField(service, "maxWidth", 1920);
+        setField(service, "maxHeight", 1080);
+        setField(service, "jpegQuality", 85);
+        setField(service, "minQuality", 40);
+        setField(service, "probeEdge", 512);
+        setField(service, "targetSsim", 0.985);
+        setField(service, "thumbnailDir", dir.resolve("thumbnails").toString());
+        setField(service, "optimizedDir", dir.resolve("optimized").toString());
+        setField(service, "workers", 1);
+        setField(service, "queueCapacity", 1);
+        setField(service, "versionService", new VersionService());
+        service.start();
+        try {
+            Photo photo = photo(1L, source);
+            photo.setOptimizedPath(dir.resolve("edited.jpg").toString());
+            service.generate(photo);
+
+            BufferedImage optimized = ImageIO.read(Path.of(photo.getRenditionPath()).toFile());
+            BufferedImage thumbnail = ImageIO.read(Path.of(photo.getThumbnailPath()).toFile());
+            assertEquals(1920, optimized.getWidth());
+            assertEquals(480, optimized.getHeight());
+            assertEquals(300, thumbnail.getWidth());
+            assertEquals(4000, (int) photo.getWidth());
+            assertEquals(1000, (int) photo.getHeight());
+            assertEquals(1, updates.size());
+            assertEquals(1L, updates.get(0)[8]);
+            // The edited output recorded on the photo is not the rendition's to replace
+            assertEquals(dir.resolve("edited.jpg").toString(), photo.getOptimizedPath());
+            assertFalse(sqls.get(0).contains("optimized_path"));
+            assertTrue(photo.getOptimizationQuality() >= 40 && photo.getOptimizationQuality() <= 85);
+
+            Photo duplicate = photo(2L, source);
+            service.generate(duplicate);
+            assertEquals(photo.getRenditionPath(), duplicate.getRenditionPath());
+            assertEquals(1L, service.getStats().get("generated"));
+            assertEquals(1L, service.getStats().get("reused"));
+
+            service.deleteDerivatives(photo);
+            assertTrue(Files.notExists(Path.of(photo.getThumbnailPath())));
+            assertTrue(Files.exists(source));
+        } finally {
+            service.stop();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void backfillLooksPastPhotosThatFailedBefore() throws Exception {
+        // More failed photos than one page of candidates, ahead of those still to do
+        List<Long> submitted = new ArrayList<>();
+        DerivativeService service = new DerivativeService() {
+            @Override
+            public void submit(Photo photo) {
+                submitted.add(photo.getId());
+            }
+        };
+        setField(service, "photoRepository", (PhotoRepository) Proxy.newProxyInstance(
+            PhotoRepository.class.getClassLoader(), new Class<?>[] {PhotoRepository.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("findTop100ByIsActiveTrueAndRenditionPathIsNullAndIdGreaterThanOrderByIdAsc")) {
+                    long after = (Long) args[0];
+                    return LongStream.rangeClosed(after + 1, Math.min(after + 100, 130))
+                        .mapToObj(id -> photo(id, Path.of("missing.jpg"))).toList();
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }));
+        setField(service, "jpegQuality", 85);
+        setField(service, "minQuality", 40);
+        setField(service, "workers", 1);
+        setField(service, "queueCapacity", 5);
+        service.start();
+        try {
+            Set<Long> failed = (Set<Long>) getField(service, "failed");
+            LongStream.rangeClosed(1, 120).forEach(failed::add);
+
+            service.backfill();
+            assertEquals(List.of(121L, 122L, 123L, 124L, 125L), submitted);
+        } finally {
+            service.stop();
+        }
+    }
+
+    private static Photo photo(Long id, Path source) {
+        Photo photo = new Photo();
+        photo.setId(id);
+        photo.setFilePath(source.toString());
+        photo.setContentHash("abc123");
+        return photo;
+    }
+}
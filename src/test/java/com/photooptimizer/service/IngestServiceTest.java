@@ -0,0 +1,168 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.service.IngestService.Result;
+import com.photooptimizer.storage.BlobStore.StagedBlob;
+import com.photooptimizer.storage.InMemoryBlobStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * Archive streaming, entry filtering and batched row inserts of the ingest service
+ */
+class IngestServiceTest {
+
+    private final InMemoryBlobStore blobStore = new InMemoryBlobStore();
+    private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+    private final List<Object[]> rows = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> released = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean failInserts;
+
+    @Test
+    void storesImagesAndInsertsRowsInBatches() throws Exception {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            zip.putNextEntry(new ZipEntry("album/"));
+            for (int i = 0; i < 5; i++) {
+                add(zip, "album/photo" + i + ".png", png(10 + i, 20));
+            }
+            // Same bytes as photo0 under another name: stored once
+            add(zip, "album/copy.png", png(10, 20));
+            add(zip, "album/notes.txt", "hello".getBytes());
+            add(zip, "album/broken.jpg", new byte[] {1, 2, 3});
+            add(zip, "__MACOSX/album/._photo0.png", new byte[] {0});
+        }
+
+        IngestService service = service(4);
+        try {
+            Result result = service.ingest(new ByteArrayInputStream(archive.toByteArray()));
+
+            assertNull(result.getError());
+            assertEquals(8, result.getEntries());
+            assertEquals(6, result.getIngested());
+            assertEquals(1, result.getSkipped());
+            assertEquals(1, result.getFailed());
+            assertEquals("album/broken.jpg", result.getFailures().get(0).get("entry"));
+            assertEquals(6, rows.size());
+            assertEquals(List.of(4, 2), batchSizes);
+            assertEquals(5, blobStore.getBlobCount());
+        } finally {
+            service.stop();
+        }
+    }
+
+    @Test
+    void reportsAnArchiveThatEndsEarly() throws Exception {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            add(zip, "one.png", png(8, 8));
+            add(zip, "two.png", png(9, 9));
+        }
+        byte[] truncated = Arrays.copyOf(archive.toByteArray(), archive.size() - 200);
+
+        IngestService service = service(10);
+        try {
+            Result result = service.ingest(new ByteArrayInputStream(truncated));
+            assertNotNull(result.getError());
+            // Entries before the cut are kept
+            assertEquals(1, result.getIngested());
+        } finally {
+            service.stop();
+        }
+    }
+
+    @Test
+    void releasesTheStoredContentOfRowsThatCouldNotBeInserted() throws Exception {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+            for (int i = 0; i < 3; i++) {
+                add(zip, "photo" + i + ".png", png(10 + i, 10));
+            }
+        }
+        failInserts = true;
+
+        IngestService service = service(2);
+        try {
+            Result result = service.ingest(new ByteArrayInputStream(archive.toByteArray()));
+            assertEquals(0, result.getIngested());
+            assertEquals(3, result.getFailed());
+            // Every reference storeContent took is given back
+            assertEquals(3, released.size());
+            assertEquals(0, blobStore.getBlobCount());
+        } finally {
+            service.stop();
+        }
+    }
+
+    private IngestService service(int writeBatchSize) throws Exception {
+        PhotoService photoService = new PhotoService() {
+            @Override
+            boolean isSupportedFormat(String format) {
+                return Arrays.asList("jpg", "jpeg", "png").contains(format.toLowerCase());
+            }
+
+            @Override
+            public Path storeContent(StagedBlob staged) throws IOException {
+                return blobStore.locate(blobStore.commit(staged));
+            }
+
+            @Override
+            public void releaseContent(String contentHash, String filePath) {
+                released.add(contentHash);
+                blobStore.delete(blobStore.keyOf(Path.of(filePath)));
+            }
+        };
+        IngestService service = new IngestService();
+        setField(service, "photoService", photoService);
+        setField(service, "blobStore", blobStore);
+        setField(service, "jdbcTemplate", new JdbcTemplate() {
+            @Override
+            public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+                if (failInserts) {
+                    throw new DataIntegrityViolationException("constraint");
+                }
+                batchSizes.add(batchArgs.size());
+                rows.addAll(batchArgs);
+                return new int[batchArgs.size()];
+            }
+        });
+        setField(service, "workers", 3);
+        setField(service, "maxEntrySize", DataSize.ofMegabytes(1));
+        setField(service, "bufferSize", DataSize.ofKilobytes(64));
+        setField(service, "writeBatchSize", writeBatchSize);
+        setField(service, "maxConcurrent", 1);
+        service.start();
+        return service;
+    }
+
+    private static void add(ZipOutputStream zip, String name, byte[] content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    private static byte[] png(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,126 @@
+package com.photooptimizer.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Job lifecycle, failure reporting, queue backpressure and waiting calls
+ */
+class JobServiceTest {
+
+    @Test
+    void recordsResultOrErrorOfFinishedJobs() throws Exception {
+        JobService service = new JobService(1, 10, Duration.ofMinutes(30));
+        service.start();
+        try {
+            JobService.Job ok = service.submit("test", 1L, () -> "done");
+            JobService.Job failed = service.submit("test", 2L, () -> {
+                throw new IllegalStateException("boom");
+            });
+
+            awaitFinished(failed);
+            awaitFinished(ok);
+            assertEquals(JobService.Status.SUCCEEDED, ok.getStatus());
+            assertEquals("done", ok.getResult());
+            assertEquals(JobService.Status.FAILED, failed.getStatus());
+            assertEquals("boom", failed.getError());
+            assertSame(ok, service.getJob(ok.getId()));
+        } finally {
+            service.stop();
+        }
+    }
+
+    @Test
+    void rejectsWorkOnceQueueIsFull() throws Exception {
+        JobService service = new JobService(1, 1, Duration.ofMinutes(30));
+        service.start();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            service.submit("test", 1L, () -> {
+                started.countDown();
+                release.await();
+                return "first";
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            JobService.Job queued = service.submit("test", 2L, () -> "second");
+            assertEquals(JobService.Status.QUEUED, queued.getStatus());
+
+            assertThrows(JobService.QueueFullException.class, () -> service.submit("test", 3L, () -> "third"));
+            assertEquals(1L, service.getStats().get("rejected"));
+            assertEquals(2, service.getStats().get("tracked"));
+
+            release.countDown();
+            awaitFinished(queued);
+            assertEquals("second", queued.getResult());
+        } finally {
+            release.countDown();
+            service.stop();
+        }
+    }
+
+    @Test
+    void callWaitsOnThePoolAndSharesItsBackpressure() throws Exception {
+        JobService service = new JobService(1, 1, Duration.ofMinutes(30));
+        service.start();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            assertTrue(service.call(() -> Thread.currentThread().getName(), Duration.ofSeconds(5)).startsWith("photo-job-"));
+            ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> service.call(() -> {
+                    throw new IllegalArgumentException("bad");
+                }, Duration.ofSeconds(5)));
+            assertTrue(failure.getCause() instanceof IllegalArgumentException);
+
+            service.submit("test", 1L, () -> {
+                started.countDown();
+                release.await();
+                return "first";
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            // Queued behind the running job, so it cannot finish in time; it is dropped from the queue
+            assertThrows(TimeoutException.class, () -> service.call(() -> "late", Duration.ofMillis(50)));
+            service.submit("test", 2L, () -> "queued");
+            assertThrows(JobService.QueueFullException.class, () -> service.call(() -> "rejected", Duration.ofSeconds(5)));
+            assertEquals(1L, service.getStats().get("rejected"));
+        } finally {
+            release.countDown();
+            service.stop();
+        }
+    }
+
+    @Test
+    void purgesOnlyJobsFinishedBeforeRetention() throws Exception {
+        JobService service = new JobService(1, 10, Duration.ZERO);
+        service.start();
+        try {
+            JobService.Job job = service.submit("test", 1L, () -> "done");
+            awaitFinished(job);
+            Thread.sleep(5);
+
+            service.purgeFinishedJobs();
+            assertNull(service.getJob(job.getId()));
+        } finally {
+            service.stop();
+        }
+    }
+
+    private static void awaitFinished(JobService.Job job) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((job.getStatus() == JobService.Status.QUEUED || job.getStatus() == JobService.Status.RUNNING) && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
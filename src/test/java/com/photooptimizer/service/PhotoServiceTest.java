@@ -0,0 +1,308 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.cache.DerivedImageCache;
+import com.photooptimizer.cache.HotPhotoCache;
+import com.photooptimizer.model.Photo;
+import com.photooptimizer.model.PhotoBlob;
+import com.photooptimizer.model.PhotoSummary;
+import com.photooptimizer.repository.PhotoBlobRepository;
+import com.photooptimizer.repository.PhotoRepository;
+import com.photooptimizer.storage.InMemoryBlobStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * Keyset pagination of the photo listing, upload checks and shared files
+ */
+class PhotoServiceTest {
+
+    @Test
+    void pagesCoverEveryPhotoOnceEvenWithEqualTimestamps() throws Exception {
+        // Three photos per timestamp, so pages often end in the middle of a tie
+        LocalDateTime base = LocalDateTime.of(2024, 5, 1, 12, 0);
+        List<PhotoSummary> photos = new ArrayList<>();
+        for (long id = 1; id <= 23; id++) {
+            photos.add(summary(id, base.plusSeconds(id / 3)));
+        }
+        PhotoService service = service(photos);
+
+        List<Long> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            PhotoService.PhotoPage page = service.getPhotoPage(cursor, 5);
+            page.getPhotos().forEach(photo -> seen.add(photo.getId()));
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(5, pages);
+        assertEquals(23, seen.size());
+        Set<Long> distinct = new HashSet<>(seen);
+        assertEquals(23, distinct.size());
+        // Newest first, ties broken by descending id
+        assertEquals(23L, (long) seen.get(0));
+        assertEquals(1L, (long) seen.get(22));
+    }
+
+    @Test
+    void lastFullPageHasNoCursor() throws Exception {
+        List<PhotoSummary> photos = new ArrayList<>();
+        for (long id = 1; id <= 4; id++) {
+            photos.add(summary(id, LocalDateTime.of(2024, 5, 1, 12, 0).plusMinutes(id)));
+        }
+        PhotoService.PhotoPage page = service(photos).getPhotoPage(null, 4);
+        assertEquals(4, page.getPhotos().size());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    void rejectsBadCursorsAndLimits() throws Exception {
+        PhotoService service = service(new ArrayList<>());
+        assertThrows(IllegalArgumentException.class, () -> service.getPhotoPage("not a cursor", 10));
+        assertThrows(IllegalArgumentException.class, () -> service.getPhotoPage(null, 0));
+        assertThrows(IllegalArgumentException.class, () -> service.getPhotoPage(null, 201));
+
+        PhotoService.Cursor cursor = new PhotoService.Cursor(LocalDateTime.of(2024, 5, 1, 12, 0, 0, 123456000), 42L);
+        PhotoService.Cursor decoded = PhotoService.Cursor.decode(cursor.encode());
+        assertEquals(cursor.uploadedAt, decoded.uploadedAt);
+        assertEquals(42L, (long) decoded.id);
+        assertTrue(cursor.encode().matches("[A-Za-z0-9_-]+"));
+    }
+
+    @Test
+    void uploadsAreCheckedByContentBeforeAnythingIsStored() throws Exception {
+        PhotoService service = service(new ArrayList<>());
+        setField(service, "supportedFormats", List.of("jpg", "jpeg", "png", "gif", "bmp"));
+
+        // Not an image at all, whatever the name says
+        IllegalArgumentException text = assertThrows(IllegalArgumentException.class, () -> service.uploadPhoto(
+            new MockMultipartFile("file", "notes.jpg", "image/jpeg", "just text".getBytes(StandardCharsets.UTF_8))));
+        assertTrue(text.getMessage().startsWith("Not a readable image"), text.getMessage());
+
+        // A supported extension on content in a format that is not supported
+        IllegalArgumentException tiff = assertThrows(IllegalArgumentException.class, () -> service.uploadPhoto(
+            new MockMultipartFile("file", "scan.jpg", "image/jpeg", encode("tiff"))));
+        assertTrue(tiff.getMessage().startsWith("Unsupported image format"), tiff.getMessage());
+
+        // Unsupported extensions are turned away before the content is read
+        IllegalArgumentException webp = assertThrows(IllegalArgumentException.class, () -> service.uploadPhoto(
+            new MockMultipartFile("file", "photo.webp", "image/webp", encode("png"))));
+        assertTrue(webp.getMessage().startsWith("Unsupported file type"), webp.getMessage());
+    }
+
+    @Test
+    void identicalUploadsShareOneFileUntilTheLastIsDeleted() throws Exception {
+        Map<Long, Photo> photos = new HashMap<>();
+        Map<String, PhotoBlob> blobs = new HashMap<>();
+        InMemoryBlobStore blobStore = new InMemoryBlobStore();
+        PhotoService service = storingService(photos, blobs, blobStore);
+        byte[] png = encode("png");
+
+        Photo first = service.uploadPhoto(new MockMultipartFile("file", "a.png", "image/png", png));
+        Photo second = service.uploadPhoto(new MockMultipartFile("file", "b.png", "image/png", png));
+        assertEquals(first.getContentHash(), second.getContentHash());
+        assertEquals(first.getFilePath(), second.getFilePath());
+        assertEquals(1, blobStore.getBlobCount());
+        assertEquals(2, (int) blobs.get(first.getContentHash()).getRefCount());
+
+        // Deleting one copy keeps the file for the other
+        service.deletePhoto(first.getId());
+        assertFalse(first.getIsActive());
+        assertEquals(1, blobStore.getBlobCount());
+        assertEquals(1, (int) blobs.get(first.getContentHash()).getRefCount());
+
+        service.deletePhoto(second.getId());
+        assertEquals(0, blobStore.getBlobCount());
+        assertTrue(blobs.isEmpty());
+    }
+
+    @Test
+    void keepsAPhotoWhoseDeltaVersionCannotBeStoredInFull() throws Exception {
+        Map<Long, Photo> photos = new HashMap<>();
+        Map<String, PhotoBlob> blobs = new HashMap<>();
+        InMemoryBlobStore blobStore = new InMemoryBlobStore();
+        PhotoService service = storingService(photos, blobs, blobStore);
+        setField(service, "versionService", new VersionService() {
+            @Override
+            public DerivedImageCache.Lease resolve(Photo photo) throws IOException {
+                throw new IOException("delta is unreadable");
+            }
+        });
+        Photo base = service.uploadPhoto(new MockMultipartFile("file", "a.png", "image/png", encode("png")));
+        Photo version = new Photo();
+        version.setId(99L);
+        version.setParentId(base.getId());
+        version.setDeltaPath("missing.tdelta");
+        version.setIsActive(true);
+        photos.put(version.getId(), version);
+
+        // Its file and reference stay for the version, and the caller is told
+        IOException failure = assertThrows(IOException.class, () -> service.deletePhoto(base.getId()));
+        assertTrue(failure.getMessage().contains("was kept"), failure.getMessage());
+        assertTrue(base.getIsActive());
+        assertEquals(1, blobStore.getBlobCount());
+        assertEquals(1, (int) blobs.get(base.getContentHash()).getRefCount());
+    }
+
+    private static byte[] encode(String format) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), format, out));
+        return out.toByteArray();
+    }
+
+    /**
+     * PhotoService over a repository that evaluates the keyset queries against a list
+     */
+    private static PhotoService service(List<PhotoSummary> photos) throws Exception {
+        Comparator<PhotoSummary> order = Comparator.comparing(PhotoSummary::getUploadedAt)
+            .thenComparing(PhotoSummary::getId).reversed();
+        PhotoRepository repository = (PhotoRepository) Proxy.newProxyInstance(
+            PhotoRepository.class.getClassLoader(), new Class<?>[] {PhotoRepository.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "findActiveSummaries":
+                        return page(photos.stream().sorted(order).toList(), (Pageable) args[0]);
+                    case "findActiveSummariesAfter": {
+                        LocalDateTime uploadedAt = (LocalDateTime) args[0];
+                        Long id = (Long) args[1];
+                        return page(photos.stream()
+                            .filter(p -> p.getUploadedAt().isBefore(uploadedAt)
+                                || (p.getUploadedAt().isEqual(uploadedAt) && p.getId() < id))
+                            .sorted(order).toList(), (Pageable) args[2]);
+                    }
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        PhotoService service = new PhotoService();
+        setField(service, "photoRepository", repository);
+        setField(service, "defaultPageSize", 50);
+        setField(service, "maxPageSize", 200);
+        return service;
+    }
+
+    /**
+     * PhotoService that stores uploads, over repositories backed by maps
+     */
+    private static PhotoService storingService(Map<Long, Photo> photos, Map<String, PhotoBlob> blobs,
+            InMemoryBlobStore blobStore) throws Exception {
+        PhotoRepository photoRepository = (PhotoRepository) Proxy.newProxyInstance(
+            PhotoRepository.class.getClassLoader(), new Class<?>[] {PhotoRepository.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "save": {
+                        Photo photo = (Photo) args[0];
+                        if (photo.getId() == null) {
+                            photo.setId(photos.size() + 1L);
+                        }
+                        photos.put(photo.getId(), photo);
+                        return photo;
+                    }
+                    case "findById":
+                        return Optional.ofNullable(photos.get((Long) args[0]));
+                    case "findByParentIdAndDeltaPathIsNotNullAndIsActiveTrue":
+                        return photos.values().stream()
+                            .filter(p -> args[0].equals(p.getParentId()) && p.getDeltaPath() != null && p.getIsActive())
+                            .toList();
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        PhotoBlobRepository blobRepository = (PhotoBlobRepository) Proxy.newProxyInstance(
+            PhotoBlobRepository.class.getClassLoader(), new Class<?>[] {PhotoBlobRepository.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "findById":
+                        return Optional.ofNullable(blobs.get((String) args[0]));
+                    case "save": {
+                        PhotoBlob blob = (PhotoBlob) args[0];
+                        blobs.put(blob.getContentHash(), blob);
+                        return blob;
+                    }
+                    case "incrementRefCount":
+                    case "decrementRefCount": {
+                        PhotoBlob blob = blobs.get((String) args[0]);
+                        if (blob == null) {
+                            return 0;
+                        }
+                        blob.setRefCount(blob.getRefCount() + (method.getName().startsWith("inc") ? 1 : -1));
+                        return 1;
+                    }
+                    case "deleteUnreferenced": {
+                        PhotoBlob blob = blobs.get((String) args[0]);
+                        return blob != null && blob.getRefCount() <= 0 && blobs.remove(args[0]) != null ? 1 : 0;
+                    }
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        PhotoService service = new PhotoService();
+        setField(service, "photoRepository", photoRepository);
+        setField(service, "blobRepository", blobRepository);
+        setField(service, "blobStore", blobStore);
+        setField(service, "supportedFormats", List.of("jpg", "jpeg", "png", "gif", "bmp"));
+        setField(service, "hotPhotoCache", new HotPhotoCache("hot", 1 << 20, 1 << 20, new SimpleMeterRegistry()));
+        setField(service, "derivativeService", new DerivativeService() {
+            @Override
+            public void submit(Photo photo) {
+            }
+
+            @Override
+            public void deleteDerivatives(Photo photo) {
+            }
+        });
+        setField(service, "transactionTemplate", new TransactionTemplate() {
+            @Override
+            public <T> T execute(TransactionCallback<T> action) {
+                return action.doInTransaction(null);
+            }
+        });
+        return service;
+    }
+
+    private static List<PhotoSummary> page(List<PhotoSummary> sorted, Pageable page) {
+        return sorted.subList(0, Math.min(sorted.size(), page.getPageSize()));
+    }
+
+    private static PhotoSummary summary(Long id, LocalDateTime uploadedAt) {
+        return new PhotoSummary() {
+            public Long getId() { return id; }
+            public String getOriginalName() { return "photo" + id + ".jpg"; }
+            public Long getFileSize() { return 1000L; }
+            public String getFormat() { return "jpg"; }
+            public Integer getWidth() { return 100; }
+            public Integer getHeight() { return 100; }
+            public LocalDateTime getUploadedAt() { return uploadedAt; }
+            public Long getOptimizedSize() { return null; }
+            public Long getBytesSaved() { return null; }
+        };
+    }
+}
@@ -0,0 +1,79 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.imaging.FilterStep;
+import com.photooptimizer.model.Photo;
+import com.photooptimizer.repository.PhotoRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.util.ReflectionTestUtils.getField;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * Previews rendered on cached, downscaled proxies
+ */
+class PreviewServiceTest {
+
+    private static final List<FilterStep> GRAYSCALE = List.of(new FilterStep("grayscale", null));
+
+    @Test
+    void rendersOnADownscaledProxyThatLaterRequestsReuse() throws Exception {
+        Path dir = Files.createTempDirectory("previews");
+        Path source = dir.resolve("source.png");
+        ImageIO.write(new BufferedImage(3000, 1500, BufferedImage.TYPE_INT_RGB), "png", source.toFile());
+        Map<Long, Photo> photos = new HashMap<>();
+        photos.put(1L, photo(1L, source));
+        PreviewService service = service(photos);
+
+        PreviewService.Preview preview = service.renderPreview(1L, GRAYSCALE, "png");
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(preview.bytes));
+        assertEquals(256, image.getWidth());
+        assertEquals(128, image.getHeight());
+        assertEquals(256.0 / 3000, preview.scale, 1e-9);
+
+        // Served from the proxy: the file is not read again, also not for a copy with the same content
+        Files.delete(source);
+        photos.put(2L, photo(2L, dir.resolve("copy.png")));
+        assertEquals(256, ImageIO.read(new ByteArrayInputStream(service.renderPreview(1L, GRAYSCALE, "png").bytes)).getWidth());
+        assertEquals(256, ImageIO.read(new ByteArrayInputStream(service.renderPreview(2L, GRAYSCALE, "png").bytes)).getWidth());
+        assertEquals(1, ((Map<?, ?>) getField(service, "proxies")).size());
+    }
+
+    private static PreviewService service(Map<Long, Photo> photos) {
+        PhotoRepository repository = (PhotoRepository) Proxy.newProxyInstance(
+            PhotoRepository.class.getClassLoader(), new Class<?>[] {PhotoRepository.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("findById")) {
+                    return Optional.ofNullable(photos.get((Long) args[0]));
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+        PreviewService service = new PreviewService();
+        setField(service, "photoRepository", repository);
+        setField(service, "versionService", new VersionService());
+        setField(service, "maxEdge", 256);
+        setField(service, "jpegQuality", 0.8f);
+        setField(service, "proxyCacheSize", DataSize.ofMegabytes(4));
+        return service;
+    }
+
+    private static Photo photo(Long id, Path file) {
+        Photo photo = new Photo();
+        photo.setId(id);
+        photo.setFilePath(file.toString());
+        photo.setContentHash("0123abcd");
+        return photo;
+    }
+}
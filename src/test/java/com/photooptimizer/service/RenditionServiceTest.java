@@ -0,0 +1,111 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.cache.DerivedImageCache;
+import com.photooptimizer.model.Photo;
+import com.photooptimizer.service.RenditionService.Geometry;
+import com.photooptimizer.service.RenditionService.Spec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * Output geometry, parameter validation and single-flight rendering
+ */
+class RenditionServiceTest {
+
+    @Test
+    void computesOutputSizeWithoutUpscaling() {
+        Geometry contain = Geometry.of(4000, 3000, spec(800, 800, "contain"));
+        assertEquals(800, contain.width);
+        assertEquals(600, contain.height);
+
+        Geometry widthOnly = Geometry.of(4000, 3000, spec(1000, null, null));
+        assertEquals(750, widthOnly.height);
+
+        Geometry cover = Geometry.of(4000, 3000, spec(800, 800, "cover"));
+        assertEquals(800, cover.width);
+        assertEquals(800, cover.height);
+
+        // Box bigger than the source: the source size caps the output
+        Geometry small = Geometry.of(400, 300, spec(1000, 1000, "contain"));
+        assertEquals(400, small.width);
+        Geometry smallCover = Geometry.of(400, 300, spec(1000, 500, "cover"));
+        assertEquals(400, smallCover.width);
+        assertEquals(200, smallCover.height);
+    }
+
+    @Test
+    void rejectsInvalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> spec(10_000, null, null));
+        assertThrows(IllegalArgumentException.class, () -> spec(100, null, "cover"));
+        assertThrows(IllegalArgumentException.class, () -> spec(100, 100, "stretch"));
+        assertThrows(IllegalArgumentException.class,
+            () -> Spec.parse(100, null, null, "png", 101, "jpeg", 4096, 85));
+    }
+
+    @Test
+    void concurrentRequestsForOneRenditionRenderOnce() throws Exception {
+        Path dir = Files.createTempDirectory("renditions");
+        Path source = dir.resolve("source.png");
+        ImageIO.write(new BufferedImage(1200, 900, BufferedImage.TYPE_INT_RGB), "png", source.toFile());
+        Photo photo = new Photo();
+        photo.setId(1L);
+        photo.setFilePath(source.toString());
+        photo.setFormat("png");
+        photo.setContentHash("0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef");
+
+        RenditionService service = new RenditionService();
+        setField(service, "renditionCache", new DerivedImageCache("renditions", dir.resolve("cache"), "",
+            10_000_000, new SimpleMeterRegistry()));
+        setField(service, "maxDimension", 4096);
+        setField(service, "defaultQuality", 85);
+        setField(service, "maxConcurrentRenders", 2);
+        setField(service, "versionService", new VersionService());
+        service.start();
+        Spec spec = service.parseSpec(photo, 300, null, null, "jpeg", 80);
+
+        int requests = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(requests);
+        try {
+            List<Future<DerivedImageCache.Lease>> results = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return service.getRendition(photo, spec);
+                }));
+            }
+            start.countDown();
+            Path first = results.get(0).get().getPath();
+            for (Future<DerivedImageCache.Lease> result : results) {
+                try (DerivedImageCache.Lease lease = result.get()) {
+                    assertEquals(first, lease.getPath());
+                }
+            }
+            BufferedImage rendered = ImageIO.read(first.toFile());
+            assertEquals(300, rendered.getWidth());
+            assertEquals(225, rendered.getHeight());
+            assertEquals(1L, service.getStats().get("renders"));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Spec spec(Integer width, Integer height, String fit) {
+        return Spec.parse(width, height, fit, "jpeg", null, "jpeg", 4096, 85);
+    }
+}
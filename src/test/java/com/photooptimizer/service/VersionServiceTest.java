@@ -0,0 +1,161 @@
+package com.photooptimizer.service;
+
+import com.photooptimizer.cache.DerivedImageCache;
+import com.photooptimizer.imaging.TileDelta;
+import com.photooptimizer.model.Photo;
+import com.photooptimizer.repository.PhotoRepository;
+import com.photooptimizer.storage.InMemoryBlobStore;
+import com.photooptimizer.util.Hashing;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.util.ReflectionTestUtils.getField;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+/**
+ * Versions stored as tile deltas and materialized on read
+ */
+class VersionServiceTest {
+
+    @Test
+    void rebuildsADeltaVersionWhenItIsNotCached() throws Exception {
+        Path dir = Files.createTempDirectory("versions");
+        Map<Long, Photo> photos = new HashMap<>();
+        BufferedImage original = noise(200, 150);
+        Photo parent = photo(1L, dir.resolve("parent.png"), original);
+        photos.put(1L, parent);
+
+        BufferedImage edited = edit(original);
+        byte[] content = png(edited);
+        VersionService service = service(photos, dir.resolve("cache"));
+        VersionService.Delta encoded = service.encodeDelta(parent, content);
+        assertNotNull(encoded);
+        byte[] delta = encoded.getDelta();
+        assertTrue(delta.length * 2 < content.length, delta.length + " of " + content.length + " bytes");
+
+        InMemoryBlobStore blobStore = (InMemoryBlobStore) getField(service, "blobStore");
+        Photo version = new Photo();
+        version.setId(2L);
+        version.setParentId(1L);
+        version.setDeltaPath(blobStore.locate(blobStore.put(delta, TileDelta.EXTENSION)).toString());
+        version.setDeltaHash(Hashing.sha256Hex(delta));
+        version.setContentHash(Hashing.sha256Hex(encoded.getContent()));
+        photos.put(2L, version);
+
+        // Nothing materialized yet: the version is rebuilt from its parent, then served from the cache
+        try (DerivedImageCache.Lease file = service.resolve(version)) {
+            assertArrayEquals(pixels(edited), pixels(ImageIO.read(file.getPath().toFile())));
+            // ...to exactly the content its hash was taken of
+            assertEquals(version.getContentHash(), Hashing.sha256Hex(file.getPath()));
+            try (DerivedImageCache.Lease again = service.resolve(version)) {
+                assertEquals(file.getPath(), again.getPath());
+            }
+        }
+        assertEquals(1L, service.getStats().get("materializations"));
+
+        // A version of a delta version is stored in full once the chain is at its limit
+        setField(service, "maxChainLength", 1);
+        assertNull(service.encodeDelta(version, png(edit(edited))));
+    }
+
+    @Test
+    void storesInFullWhenDeltasCannotHelp() throws Exception {
+        Path dir = Files.createTempDirectory("versions");
+        Map<Long, Photo> photos = new HashMap<>();
+        BufferedImage original = noise(120, 90);
+        Photo parent = photo(1L, dir.resolve("parent.png"), original);
+        photos.put(1L, parent);
+        VersionService service = service(photos, dir.resolve("cache"));
+
+        // Lossy content, another size, or an edit that touches everything
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        ImageIO.write(edit(original), "jpeg", jpeg);
+        assertNull(service.encodeDelta(parent, jpeg.toByteArray()));
+        assertNull(service.encodeDelta(parent, png(noise(121, 90))));
+        assertNull(service.encodeDelta(parent, png(noise(120, 91).getSubimage(0, 0, 120, 90))));
+
+        setField(service, "deltaStorageEnabled", false);
+        assertNull(service.encodeDelta(parent, png(edit(original))));
+    }
+
+    private static VersionService service(Map<Long, Photo> photos, Path cacheDir) throws Exception {
+        PhotoRepository repository = (PhotoRepository) Proxy.newProxyInstance(
+            PhotoRepository.class.getClassLoader(), new Class<?>[] {PhotoRepository.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("findById")) {
+                    return Optional.ofNullable(photos.get((Long) args[0]));
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+        VersionService service = new VersionService();
+        setField(service, "photoRepository", repository);
+        setField(service, "blobStore", new InMemoryBlobStore());
+        setField(service, "versionCache", new DerivedImageCache("versions", cacheDir, "png",
+            10_000_000, new SimpleMeterRegistry()));
+        setField(service, "deltaStorageEnabled", true);
+        setField(service, "tileSize", 64);
+        setField(service, "maxDeltaRatio", 0.5);
+        setField(service, "maxChainLength", 8);
+        return service;
+    }
+
+    private static Photo photo(Long id, Path file, BufferedImage image) throws Exception {
+        ImageIO.write(image, "png", file.toFile());
+        Photo photo = new Photo();
+        photo.setId(id);
+        photo.setFilePath(file.toString());
+        photo.setContentHash(Hashing.sha256Hex(file));
+        photo.setWidth(image.getWidth());
+        photo.setHeight(image.getHeight());
+        return photo;
+    }
+
+    private static BufferedImage edit(BufferedImage image) {
+        BufferedImage edited = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = edited.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.setColor(Color.RED);
+        g.fillRect(10, 10, 30, 12);
+        g.dispose();
+        return edited;
+    }
+
+    private static BufferedImage noise(int width, int height) {
+        Random random = new Random(width * 31L + height);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    private static byte[] png(BufferedImage image) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
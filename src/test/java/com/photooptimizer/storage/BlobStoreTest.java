@@ -0,0 +1,96 @@
+package com.photooptimizer.storage;
+
+import com.photooptimizer.storage.BlobStore.StagedBlob;
+import com.photooptimizer.util.Hashing;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Content addressing, sharded layout and two-phase writes of the blob stores
+ */
+class BlobStoreTest {
+
+    private static final byte[] CONTENT = "not really a jpeg".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void localStoreWritesShardedFilesOnceAndLeavesNoTempFiles() throws Exception {
+        Path root = Files.createTempDirectory("blob-store");
+        LocalBlobStore store = new LocalBlobStore(root, FsyncPolicy.FILE_AND_DIRECTORY);
+
+        String key = store.put(CONTENT, "JPG");
+        String hash = Hashing.sha256Hex(CONTENT);
+        assertEquals(hash + ".jpg", key);
+        Path path = store.locate(key);
+        assertEquals(root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(key), path);
+        assertArrayEquals(CONTENT, Files.readAllBytes(path));
+
+        // Same content again: same key, nothing new written
+        assertEquals(key, store.put(new ByteArrayInputStream(CONTENT), "jpg"));
+        assertEquals(CONTENT.length, store.size(key));
+        try (Stream<Path> temps = Files.list(root.resolve("tmp"))) {
+            assertEquals(0, temps.count());
+        }
+
+        assertEquals(key, store.keyOf(path));
+        assertNull(store.keyOf(Paths.get("./uploads/" + key)));
+
+        assertTrue(store.delete(key));
+        assertFalse(store.exists(key));
+        assertFalse(store.delete(key));
+    }
+
+    @Test
+    void stagedContentIsDiscardedUnlessCommitted() throws Exception {
+        Path root = Files.createTempDirectory("blob-store");
+        LocalBlobStore store = new LocalBlobStore(root, FsyncPolicy.NONE);
+
+        String key;
+        try (StagedBlob staged = store.stage(new ByteArrayInputStream(CONTENT), "png")) {
+            key = staged.getKey();
+            assertEquals(CONTENT.length, staged.getSize());
+            assertFalse(store.exists(key));
+        }
+        assertFalse(store.exists(key));
+        try (Stream<Path> temps = Files.list(root.resolve("tmp"))) {
+            assertEquals(0, temps.count());
+        }
+    }
+
+    @Test
+    void memoryStoreBehavesLikeTheLocalStore() throws Exception {
+        InMemoryBlobStore store = new InMemoryBlobStore();
+
+        String key = store.put(CONTENT, "png");
+        assertEquals(key, store.put(CONTENT, "png"));
+        assertEquals(1, store.getBlobCount());
+        try (InputStream in = store.open(key)) {
+            assertArrayEquals(CONTENT, in.readAllBytes());
+        }
+        assertEquals(key, store.keyOf(store.locate(key)));
+
+        assertTrue(store.delete(key));
+        assertFalse(store.exists(key));
+        assertThrows(IOException.class, () -> store.open(key));
+    }
+
+    @Test
+    void rejectsMalformedKeys() throws Exception {
+        InMemoryBlobStore store = new InMemoryBlobStore();
+        assertThrows(IllegalArgumentException.class, () -> store.locate("../../etc/passwd"));
+    }
+}
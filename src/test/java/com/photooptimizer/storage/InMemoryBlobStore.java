@@ -0,0 +1,115 @@
+package com.photooptimizer.storage;
+
+import com.photooptimizer.util.Hashing;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Blob store held on the heap, for tests
+ * locate() gives paths that do not exist, so only code that goes through
+ * open() can read what it stores.
+ */
+public class InMemoryBlobStore implements BlobStore {
+
+    private static final Path ROOT = Paths.get("memory");
+
+    private final Map<String, byte[]> blobs = new ConcurrentHashMap<>();
+
+    @Override
+    public StagedBlob stage(InputStream content, String extension) throws IOException {
+        byte[] bytes = content.readAllBytes();
+        String contentHash = Hashing.sha256Hex(bytes);
+        return new MemoryStagedBlob(bytes, contentHash, BlobKeys.of(contentHash, extension));
+    }
+
+    @Override
+    public StagedBlob adopt(Path file, String contentHash, String extension) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        Files.delete(file);
+        return new MemoryStagedBlob(bytes, contentHash, BlobKeys.of(contentHash, extension));
+    }
+
+    @Override
+    public String commit(StagedBlob staged) {
+        MemoryStagedBlob memory = (MemoryStagedBlob) staged;
+        blobs.putIfAbsent(memory.key, memory.bytes);
+        return memory.key;
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        byte[] bytes = blobs.get(key);
+        if (bytes == null) {
+            throw new NoSuchFileException(key);
+        }
+        return new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return blobs.containsKey(key);
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        byte[] bytes = blobs.get(key);
+        if (bytes == null) {
+            throw new NoSuchFileException(key);
+        }
+        return bytes.length;
+    }
+
+    @Override
+    public boolean delete(String key) {
+        return blobs.remove(key) != null;
+    }
+
+    @Override
+    public Path locate(String key) {
+        return BlobKeys.shardedPath(ROOT, key);
+    }
+
+    @Override
+    public String keyOf(Path path) {
+        Path normalized = path.normalize();
+        String name = normalized.getFileName() != null ? normalized.getFileName().toString() : null;
+        return BlobKeys.isKey(name) && normalized.equals(locate(name)) ? name : null;
+    }
+
+    public int getBlobCount() {
+        return blobs.size();
+    }
+
+    private static final class MemoryStagedBlob implements StagedBlob {
+        private final byte[] bytes;
+        private final String contentHash;
+        private final String key;
+
+        MemoryStagedBlob(byte[] bytes, String contentHash, String key) {
+            this.bytes = bytes;
+            this.contentHash = contentHash;
+            this.key = key;
+        }
+
+        @Override
+        public String getKey() { return key; }
+
+        @Override
+        public String getContentHash() { return contentHash; }
+
+        @Override
+        public long getSize() { return bytes.length; }
+
+        @Override
+        public void close() {
+        }
+    }
+}
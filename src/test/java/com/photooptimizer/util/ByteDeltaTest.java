@@ -0,0 +1,70 @@
+package com.photooptimizer.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips and size of copy/insert deltas
+ */
+class ByteDeltaTest {
+
+    @Test
+    void smallEditsGiveSmallDeltas() {
+        byte[] source = document(400, -1);
+        byte[] target = document(400, 123);
+
+        byte[] delta = ByteDelta.diff(source, target);
+        assertArrayEquals(target, ByteDelta.apply(source, delta));
+        assertTrue(delta.length < 100, "delta of " + delta.length + " bytes");
+    }
+
+    @Test
+    void roundTripsArbitraryChanges() {
+        Random random = new Random(11);
+        for (int round = 0; round < 50; round++) {
+            byte[] source = new byte[random.nextInt(5000)];
+            random.nextBytes(source);
+            // Splice random cuts of the source with random new bytes
+            byte[] target = new byte[random.nextInt(5000)];
+            for (int i = 0; i < target.length; ) {
+                int length = Math.min(target.length - i, 1 + random.nextInt(200));
+                if (source.length > length && random.nextBoolean()) {
+                    System.arraycopy(source, random.nextInt(source.length - length), target, i, length);
+                } else {
+                    byte[] fresh = new byte[length];
+                    random.nextBytes(fresh);
+                    System.arraycopy(fresh, 0, target, i, length);
+                }
+                i += length;
+            }
+            assertArrayEquals(target, ByteDelta.apply(source, ByteDelta.diff(source, target)));
+        }
+        assertArrayEquals(new byte[0], ByteDelta.apply(new byte[0], ByteDelta.diff(new byte[0], new byte[0])));
+    }
+
+    @Test
+    void rejectsADeltaForAnotherSource() {
+        byte[] source = document(100, -1);
+        byte[] delta = ByteDelta.diff(source, document(100, 50));
+        assertThrows(IllegalStateException.class, () -> ByteDelta.apply(new byte[10], delta));
+    }
+
+    /**
+     * Editor-like JSON; one object differs when changed is in range
+     */
+    private static byte[] document(int objects, int changed) {
+        StringBuilder json = new StringBuilder("{\"version\":\"5.3.0\",\"objects\":[");
+        for (int i = 0; i < objects; i++) {
+            int left = i == changed ? 9999 : i * 3;
+            json.append(i > 0 ? "," : "").append("{\"type\":\"rect\",\"left\":").append(left)
+                .append(",\"top\":").append(i * 7).append(",\"fill\":\"#00ff00\",\"angle\":0}");
+        }
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}